@@ -71,13 +71,35 @@ export interface TagDto {
   name: string
   /** 标签类型 (copyright, character, artist, etc.) */
   type: string
+  /** 关联的图片数，仅标签列表返回 */
+  count?: number
 }
 
+// 向量检索实际执行方式；走 HNSW 的方式使用量化索引取候选时带上量化方式，如 index+halfvec
+export type VectorStrategy =
+  | 'index' | 'exact' | 'iterative' | 'oversampled' | 'mmap'
+  | `${'index' | 'iterative'}+${'halfvec' | 'binary'}`
+
 export interface SearchResult<T> {
   content: T[]
   page: number
   size: number
   hasNext: boolean
+  nextCursor?: string
+  facets?: TagFacets
+  vectorStrategy?: VectorStrategy
+}
+
+export interface TagFacetCount {
+  id: number
+  name: string
+  count: number
+}
+
+export interface TagFacets {
+  exact: boolean  // false 表示抽样估算
+  sampleRate: number
+  types: Record<string, TagFacetCount[]>
 }
 
 export const galleryApi = {
@@ -91,6 +113,27 @@ export const galleryApi = {
     return response.data
   },
 
+  /**
+   * 使用库内向量检索相似图片（不调用 AI 服务）
+   * @param id 图片ID
+   * @param params 过滤条件、相似度阈值与分页游标
+   */
+  getSimilar: async (id: number, params: {
+    tags?: string
+    threshold?: number
+    widthMin?: number
+    widthMax?: number
+    heightMin?: number
+    heightMax?: number
+    sizeMin?: number
+    sizeMax?: number
+    size?: number
+    cursor?: string
+  } = {}) => {
+    const response = await apiClient.get<SearchResult<ImageThumbnailDto>>(`/images/${id}/similar`, { params })
+    return response.data
+  },
+
   /**
    * 删除图片
    * @param id 图片ID
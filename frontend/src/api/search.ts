@@ -14,8 +14,11 @@ export interface SearchRequestDto {
   sizeMin?: number
   sizeMax?: number
   page?: number
+  cursor?: string  // 上一页返回的 nextCursor
   size?: number
   sort?: string
+  facets?: boolean  // 同时返回结果集内的标签分面
+  facetSize?: number
 }
 
 export const searchApi = {
@@ -33,11 +36,11 @@ export const searchApi = {
     return response.data
   },
 
-  searchByImage: async (file: File, threshold: number, page: number, size: number) => {
+  searchByImage: async (file: File, threshold: number, page: number, size: number, cursor?: string) => {
     const formData = new FormData()
     formData.append('file', file)
     const response = await apiClient.post<SearchResult<ImageThumbnailDto>>('/search/image', formData, {
-      params: { threshold, page, size },
+      params: { threshold, page, size, cursor },
       headers: {
         'Content-Type': 'multipart/form-data'
       }
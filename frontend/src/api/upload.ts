@@ -10,6 +10,15 @@ export interface UploadTask {
   errorMessage?: string
 }
 
+/**
+ * 上传结果，重复上传时 imageId 或 jobId 指向已有内容
+ */
+export interface UploadResult {
+  jobId?: string
+  hash: string
+  imageId?: number
+}
+
 /**
  * 任务列表信息
  */
@@ -24,19 +33,20 @@ export interface TasksInfoDto {
 
 export const uploadApi = {
   /**
-   * 上传文件
+   * 上传文件：请求体直接是文件内容，服务端边写边计算哈希
+   * 内容已存在时返回 409，响应体带已有图片或任务的 ID
    */
   uploadFile: async (file: File) => {
-    const formData = new FormData()
     // 处理文件名，确保不包含路径
     const filename = file.name.split(/[/\\]/).pop() || file.name
-    formData.append('file', file, filename)
 
-    await apiClient.post('/upload', formData, {
+    const response = await apiClient.post<UploadResult>('/upload', file, {
+      params: { filename },
       headers: {
-        'Content-Type': 'multipart/form-data'
+        'Content-Type': 'application/octet-stream'
       }
     })
+    return response.data
   },
 
   /**
@@ -1,6 +1,7 @@
 import {defineStore} from 'pinia'
 import {ref} from 'vue'
 import PQueue from 'p-queue'
+import {isAxiosError} from 'axios'
 import {uploadApi} from '../api/upload'
 
 export const useQueueStore = defineStore('queue', () => {
@@ -33,6 +34,11 @@ export const useQueueStore = defineStore('queue', () => {
       try {
         await uploadApi.uploadFile(file)
       } catch (error) {
+        if (isAxiosError(error) && error.response?.status === 409) {
+          // 内容已入库或正在处理，服务端未创建新任务
+          console.info(`Skipped duplicate ${file.name}:`, error.response.data)
+          return
+        }
         console.error(`Upload failed for ${file.name}:`, error)
       } finally {
         updateStats()
@@ -0,0 +1,28 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.embedding-cache")
+public class EmbeddingCacheProperties {
+    /**
+     * 缓存的查询文本条数，每条约 2KB（512 个 float）
+     */
+    private long maximumSize = 10_000;
+    private Duration expireAfterWrite = Duration.ofHours(24);
+    /**
+     * 以图搜图上传文件 (SHA-256) -> 向量的缓存条数，库外图片翻页时免去重复推理
+     */
+    private long imageMaximumSize = 1_000;
+    /**
+     * 文本编码模型版本，更换模型时修改以避免复用旧向量
+     */
+    private String modelVersion = "clip-vit-base-patch32";
+}
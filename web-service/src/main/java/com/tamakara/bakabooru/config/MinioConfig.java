@@ -16,6 +16,7 @@ public class MinioConfig {
     private String secretKey;
     private String bucketName;
     private String publicEndpoint;
+    private String region = "us-east-1";
 
     @Bean
     public MinioClient minioClient() {
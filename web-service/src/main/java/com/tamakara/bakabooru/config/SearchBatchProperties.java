@@ -0,0 +1,31 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.batch")
+public class SearchBatchProperties {
+    /**
+     * 单次批量请求允许的查询数
+     */
+    private int maxQueries = 20;
+    /**
+     * 同时执行的查询数，需小于数据库连接池大小，给单条检索和 Worker 留出连接
+     */
+    private int parallelism = 4;
+    /**
+     * 等待执行的查询上限，所有批量请求共享；队列已满时新的查询返回 503
+     */
+    private int queueCapacity = 64;
+    /**
+     * 整批的等待上限，超时的查询单独返回错误
+     */
+    private Duration timeout = Duration.ofSeconds(30);
+}
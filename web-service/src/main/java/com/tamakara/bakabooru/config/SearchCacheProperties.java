@@ -0,0 +1,33 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.cache")
+public class SearchCacheProperties {
+    private boolean enabled = true;
+    private int maxEntries = 2_000;
+    /**
+     * 按结果估算大小计算的内存上限
+     */
+    private long maxBytes = 32L * 1024 * 1024;
+    /**
+     * 需小于预签名 URL 的有效期，缓存中的 URL 才不会过期
+     */
+    private Duration ttl = Duration.ofMinutes(5);
+    /**
+     * 未命中时在后台预取下一页
+     */
+    private boolean prefetch = true;
+    /**
+     * 统计命中时记住的检索 SQL 形状数，与驱动每个连接缓存的预编译语句数一致
+     */
+    private int shapeEntries = 512;
+}
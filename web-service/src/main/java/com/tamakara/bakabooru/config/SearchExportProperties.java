@@ -0,0 +1,29 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.export")
+public class SearchExportProperties {
+    /**
+     * 服务端游标每次从数据库取回的行数，决定导出期间的内存占用
+     */
+    private int fetchSize = 1_000;
+    /**
+     * 每写出多少行刷新一次响应
+     */
+    private int flushRows = 1_000;
+    /**
+     * 同时进行的导出数，每个导出在整个过程中占用一个数据库连接
+     */
+    private int maxConcurrent = 2;
+    /**
+     * 按向量相似度排序的导出最多输出的行数；这类导出关闭索引扫描做精确排序，需要逐行计算距离
+     */
+    private int maxVectorRows = 10_000;
+}
@@ -0,0 +1,26 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.facets")
+public class SearchFacetProperties {
+    /**
+     * 每个标签类型默认返回的标签数
+     */
+    private int defaultSize = 10;
+    private int maxSize = 50;
+    /**
+     * 结果集不超过该数量时精确统计，否则按表抽样估算
+     */
+    private int exactLimit = 20_000;
+    /**
+     * 抽样估算时期望扫描的 images 行数
+     */
+    private int sampleRows = 50_000;
+}
@@ -0,0 +1,35 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.slow")
+public class SlowSearchProperties {
+    /**
+     * 总耗时达到该值的检索记入慢检索日志
+     */
+    private Duration threshold = Duration.ofMillis(500);
+    /**
+     * 慢检索日志保留的条数，超出后覆盖最旧的记录
+     */
+    private int capacity = 100;
+    /**
+     * 是否对慢检索在后台重放 EXPLAIN (ANALYZE, BUFFERS)，会再次执行查询
+     */
+    private boolean explain = false;
+    /**
+     * 两次 EXPLAIN 采样的最小间隔，慢检索集中出现时只采样其中一条
+     */
+    private Duration explainInterval = Duration.ofMinutes(1);
+    /**
+     * EXPLAIN 的语句超时
+     */
+    private Duration explainTimeout = Duration.ofSeconds(10);
+}
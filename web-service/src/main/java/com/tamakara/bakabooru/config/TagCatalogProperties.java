@@ -0,0 +1,21 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.tag-catalog")
+public class TagCatalogProperties {
+    /**
+     * 计数变化后重建快照的最短间隔，上传高峰期不会每个请求都重建
+     */
+    private Duration minRebuildInterval = Duration.ofSeconds(30);
+    private int defaultPageSize = 200;
+    private int maxPageSize = 1_000;
+}
@@ -0,0 +1,32 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.tag-index")
+public class TagIndexProperties {
+    private boolean enabled = true;
+    /**
+     * 重启时优先加载的快照文件，加载后从其中记录的水位补齐变更日志
+     */
+    private String snapshotPath = "data/tag-index.bin";
+    /**
+     * 候选集不超过该数量时直接以 ID 数组交给 PostgreSQL，否则只下推 ID 范围
+     */
+    private int candidateLimit = 50_000;
+    /**
+     * 距上次成功补齐变更日志超过该时长时不再信任索引，检索回退到 SQL 过滤
+     */
+    private Duration maxLag = Duration.ofSeconds(30);
+    /**
+     * image_tag_changes 的保留时长；快照或索引的水位早于保留期时全量重建
+     */
+    private Duration changeRetention = Duration.ofDays(1);
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import org.springframework.util.unit.DataSize;
+
 import java.time.Duration;
 
 @Data
@@ -11,4 +13,32 @@ import java.time.Duration;
 @ConfigurationProperties(prefix = "app.upload")
 public class UploadProperties {
     private Duration lockDuration = Duration.ofMinutes(2);
+    /**
+     * 处理中任务的续租间隔，需明显小于 lock-duration
+     */
+    private long heartbeatIntervalMs = 30_000;
+    /**
+     * 单个文件的大小上限，流式上传边读边检查
+     */
+    private DataSize maxFileSize = DataSize.ofMegabytes(500);
+    /**
+     * 一次领取（同一租约）的任务数，也是本实例同时处理的任务上限
+     */
+    private int batchSize = 8;
+    /**
+     * 同时进行的 MinIO 下载、复制与上传数
+     */
+    private int ioConcurrency = 8;
+    /**
+     * 同时进行的哈希、解码与缩略图生成数，0 表示 CPU 核数
+     */
+    private int cpuConcurrency = 0;
+    /**
+     * 不超过该大小的 staging 对象直接读入堆内存处理，更大的文件下载一次后以内存映射方式读取
+     */
+    private DataSize inMemoryMaxSize = DataSize.ofMegabytes(32);
+    /**
+     * 所有任务同时读入堆内存的 staging 字节总量上限；从下载开始计入，缩略图生成完成后释放
+     */
+    private DataSize inMemoryBudget = DataSize.ofMegabytes(128);
 }
@@ -0,0 +1,20 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.url-signing")
+public class UrlSigningProperties {
+    /**
+     * 签名时间戳对齐的时间桶，同一桶内同一对象的签名 URL 完全一致
+     */
+    private Duration timeBucket = Duration.ofHours(6);
+    private long cacheSize = 200_000;
+}
@@ -0,0 +1,47 @@
+package com.tamakara.bakabooru.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.vector-index")
+public class VectorIndexProperties {
+    /**
+     * 开启后可由进程内索引回答向量检索，未就绪或条件不支持时仍走 pgvector
+     */
+    private boolean enabled = false;
+    /**
+     * 内存映射的索引文件，重启时直接映射使用
+     */
+    private String path = "data/vector-index.bin";
+    /**
+     * IVF 聚类数，0 表示按 sqrt(向量数) 自动选择
+     */
+    private int lists = 0;
+    /**
+     * 每次查询至少扫描的聚类数，结果不足时继续扫描更远的聚类
+     */
+    private int probes = 8;
+    /**
+     * 扫描完 probes 个聚类仍不足 limit 个结果时，继续扩展最多扫描的槽位数；超过后交回 pgvector
+     * （过滤条件选择性强时由规划器精确排序或迭代扫描）
+     */
+    private long maxScanSlots = 200_000;
+    /**
+     * 训练聚类中心的抽样向量数
+     */
+    private int trainingSample = 50_000;
+    private int trainingIterations = 8;
+    /**
+     * 已失效的槽位（删除或覆盖）超过存活槽位的该比例时后台重建
+     */
+    private double staleRatio = 0.2;
+    /**
+     * 向量数增长到训练时的该倍数后重建，重新选择聚类数
+     */
+    private double growthRatio = 4.0;
+}
@@ -0,0 +1,38 @@
+package com.tamakara.bakabooru.config;
+
+import com.tamakara.bakabooru.module.image.service.VectorQuantization;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "app.search.vector")
+public class VectorSearchProperties {
+    /**
+     * 带过滤的向量检索候选数不超过该值时，对候选集精确计算距离而不走 HNSW
+     */
+    private int exactLimit = 10_000;
+    /**
+     * HNSW 检索时的 hnsw.ef_search
+     */
+    private int efSearch = 100;
+    /**
+     * 迭代扫描最多访问的元组数（hnsw.max_scan_tuples）
+     */
+    private int maxScanTuples = 50_000;
+    /**
+     * 不支持迭代扫描时，按估算选择率放大取回的近邻数，最多不超过 pgvector 的 ef_search 上限 1000
+     */
+    private int maxOversample = 1000;
+    /**
+     * HNSW 候选阶段使用的量化索引（none / halfvec / binary），候选取回后按原始向量精确重排
+     */
+    private VectorQuantization quantization = VectorQuantization.NONE;
+    /**
+     * 量化检索时取回的候选数相对所需行数的倍数
+     */
+    private int rerankMultiplier = 4;
+}
@@ -4,8 +4,10 @@ import com.tamakara.bakabooru.module.ai.entity.AiJob;
 import com.tamakara.bakabooru.module.ai.entity.AiJobStatus;
 import com.tamakara.bakabooru.module.ai.repository.AiJobRepository;
 import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.event.ImageChangedEvent;
 import com.tamakara.bakabooru.module.image.repository.ImageRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -22,6 +24,7 @@ public class AiJobService {
 
     private final AiJobRepository aiJobRepository;
     private final ImageRepository imageRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Transactional
     public AiJob enqueue(Image image) {
@@ -65,6 +68,8 @@ public class AiJobService {
         image.setAiError(null);
         image.setAiCompletedAt(null);
         aiJobRepository.save(job);
-        return imageRepository.save(image);
+        Image saved = imageRepository.save(image);
+        eventPublisher.publishEvent(new ImageChangedEvent(imageId));
+        return saved;
     }
 }
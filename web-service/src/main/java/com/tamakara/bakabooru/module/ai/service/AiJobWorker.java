@@ -8,19 +8,26 @@ import com.tamakara.bakabooru.module.ai.entity.AiJob;
 import com.tamakara.bakabooru.module.ai.entity.AiJobStatus;
 import com.tamakara.bakabooru.module.ai.repository.AiJobRepository;
 import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.event.ImageChangedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageEmbeddingUpdatedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import com.tamakara.bakabooru.module.image.repository.ImageEmbeddingRepository;
 import com.tamakara.bakabooru.module.image.repository.ImageRepository;
 import com.tamakara.bakabooru.module.system.service.SystemSettingService;
-import com.tamakara.bakabooru.module.tag.entity.Tag;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
 import com.tamakara.bakabooru.module.tag.service.TagService;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -33,12 +40,15 @@ public class AiJobWorker {
 
     private final AiJobRepository aiJobRepository;
     private final ImageRepository imageRepository;
+    private final ImageEmbeddingRepository imageEmbeddingRepository;
     private final AiServiceClient aiServiceClient;
     private final TagService tagService;
+    private final TagDictionary tagDictionary;
     private final SystemSettingService systemSettingService;
     private final AiJobProperties properties;
     private final TransactionTemplate transactionTemplate;
     private final BusinessMetrics metrics;
+    private final ApplicationEventPublisher eventPublisher;
 
     private final String workerId = UUID.randomUUID().toString();
 
@@ -82,6 +92,7 @@ public class AiJobWorker {
                         image.setAiCompletedAt(null);
                         imageRepository.save(image);
                         aiJobRepository.saveAndFlush(job);
+                        eventPublisher.publishEvent(new ImageChangedEvent(image.getId()));
                         return job.getId();
                     })
                     .orElse(null);
@@ -112,18 +123,21 @@ public class AiJobWorker {
         }
 
         Image image = job.getImage();
-        image.setEmbedding(response.getEmbedding().stream().mapToDouble(Double::doubleValue).toArray());
+        float[] embedding = toVector(response.getEmbedding());
+        imageEmbeddingRepository.update(image.getId(), embedding);
         Set<Long> existingTagIds = image.getTagRelations().stream()
                 .map(relation -> relation.getTag().getId())
                 .collect(Collectors.toSet());
+        List<Long> addedTagIds = new ArrayList<>();
         for (Map.Entry<String, Double> entry : response.getTags().entrySet()) {
-            try {
-                Tag tag = tagService.getTagByName(entry.getKey());
-                if (existingTagIds.add(tag.getId())) {
-                    image.addTag(tag, entry.getValue());
-                }
-            } catch (RuntimeException ignored) {
+            long tagId = tagDictionary.idOf(entry.getKey());
+            if (tagId == TagDictionary.NOT_FOUND) {
                 log.debug("跳过未知标签: {}", entry.getKey());
+                continue;
+            }
+            if (existingTagIds.add(tagId)) {
+                image.addTag(tagService.getTagReference(tagId), entry.getValue());
+                addedTagIds.add(tagId);
             }
         }
 
@@ -139,6 +153,12 @@ public class AiJobWorker {
         job.setCompletedAt(now);
         imageRepository.save(image);
         aiJobRepository.save(job);
+        if (!addedTagIds.isEmpty()) {
+            eventPublisher.publishEvent(ImageTagsChangedEvent.added(image.getId(), addedTagIds));
+        }
+        eventPublisher.publishEvent(new ImageEmbeddingUpdatedEvent(image.getId(), image.getWidth(), image.getHeight(),
+                image.getSize(), embedding));
+        eventPublisher.publishEvent(new ImageChangedEvent(image.getId()));
         metrics.aiProcessed("success", job.getAttempts(), Duration.between(job.getCreatedAt(), now));
     }
 
@@ -173,6 +193,7 @@ public class AiJobWorker {
             }
             imageRepository.save(image);
             aiJobRepository.save(job);
+            eventPublisher.publishEvent(new ImageChangedEvent(image.getId()));
         });
     }
 
@@ -190,6 +211,14 @@ public class AiJobWorker {
         return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
     }
 
+    private static float[] toVector(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+
     private void validateResponse(AnalyzeImageResponseDto response) {
         if (response == null || response.getEmbedding() == null || response.getEmbedding().size() != 512) {
             throw new IllegalStateException("AI 图片向量响应无效");
@@ -1,28 +1,83 @@
 package com.tamakara.bakabooru.module.ai.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamakara.bakabooru.config.EmbeddingCacheProperties;
 import com.tamakara.bakabooru.module.ai.client.AiServiceClient;
 import com.tamakara.bakabooru.module.ai.dto.ImageEmbeddingResponseDto;
-import lombok.RequiredArgsConstructor;
+import com.tamakara.bakabooru.module.image.repository.ImageEmbeddingRepository;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Optional;
 
+/**
+ * 以图搜图的图片向量
+ * <p>
+ * 先流式计算上传文件的 SHA-256：与库内已完成 AI 处理的图片相同时直接复用其向量；
+ * 否则按 (模型版本, 哈希) 查有界缓存，都未命中才请求 AI Service 推理。
+ */
 @Service
-@RequiredArgsConstructor
 public class EmbeddingService {
 
     private final AiServiceClient aiServiceClient;
+    private final ImageEmbeddingRepository imageEmbeddingRepository;
+    private final BusinessMetrics metrics;
+    private final String modelVersion;
+    private final Cache<CacheKey, float[]> uploadCache;
 
-    public double[] generateImageEmbedding(MultipartFile file) {
+    public EmbeddingService(AiServiceClient aiServiceClient, ImageEmbeddingRepository imageEmbeddingRepository,
+                            BusinessMetrics metrics, EmbeddingCacheProperties properties) {
+        this.aiServiceClient = aiServiceClient;
+        this.imageEmbeddingRepository = imageEmbeddingRepository;
+        this.metrics = metrics;
+        this.modelVersion = properties.getModelVersion();
+        this.uploadCache = Caffeine.newBuilder()
+                .maximumSize(properties.getImageMaximumSize())
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .build();
+    }
+
+    public float[] generateImageEmbedding(MultipartFile file) {
+        String hash = hash(file);
+        Optional<float[]> stored = imageEmbeddingRepository.findReadyByHash(hash);
+        if (stored.isPresent()) {
+            metrics.imageEmbeddingSource("library");
+            return stored.get();
+        }
+
+        CacheKey key = new CacheKey(modelVersion, hash);
+        float[] cached = uploadCache.getIfPresent(key);
+        if (cached != null) {
+            metrics.imageEmbeddingSource("cache");
+            return cached;
+        }
+
+        float[] embedding;
         try {
-            return toArray(aiServiceClient.imageEmbedding(file));
+            embedding = toArray(aiServiceClient.imageEmbedding(file));
         } catch (Exception e) {
             throw new RuntimeException("Embedding generation failed: " + e.getMessage(), e);
         }
+        metrics.imageEmbeddingSource("ai");
+        uploadCache.put(key, embedding);
+        return embedding;
     }
 
-    private double[] toArray(ImageEmbeddingResponseDto response) {
+    private String hash(MultipartFile file) {
+        try (InputStream stream = file.getInputStream()) {
+            return DigestUtils.sha256Hex(stream);
+        } catch (IOException e) {
+            throw new RuntimeException("读取上传文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    private float[] toArray(ImageEmbeddingResponseDto response) {
         if (response == null) {
             throw new RuntimeException("Embedding generation returned an empty response");
         }
@@ -30,6 +85,13 @@ public class EmbeddingService {
         if (embedding == null || embedding.size() != 512) {
             throw new RuntimeException("Embedding response must contain 512 values");
         }
-        return embedding.stream().mapToDouble(Double::doubleValue).toArray();
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+
+    private record CacheKey(String modelVersion, String hash) {
     }
 }
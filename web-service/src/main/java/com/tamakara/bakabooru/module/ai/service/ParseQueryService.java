@@ -1,24 +1,118 @@
 package com.tamakara.bakabooru.module.ai.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamakara.bakabooru.config.EmbeddingCacheProperties;
 import com.tamakara.bakabooru.module.ai.client.AiServiceClient;
 import com.tamakara.bakabooru.module.ai.dto.EmbeddingResponseDto;
 import com.tamakara.bakabooru.module.ai.dto.SemanticSearchRequestDto;
-import lombok.RequiredArgsConstructor;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
 import org.springframework.stereotype.Service;
 
+import java.text.Normalizer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 语义查询文本编码
+ * <p>
+ * 向量按 (模型版本, 规范化文本) 缓存，语义搜索翻页与热门查询不再重复请求 AI Service；
+ * 同一文本的并发请求共享一次进行中的调用。
+ */
 @Service
-@RequiredArgsConstructor
 public class ParseQueryService {
 
+    private static final int EMBEDDING_DIMENSIONS = 512;
+
     private final AiServiceClient aiServiceClient;
+    private final BusinessMetrics metrics;
+    private final String modelVersion;
+    private final Cache<CacheKey, float[]> cache;
+    private final ConcurrentMap<CacheKey, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    public ParseQueryService(AiServiceClient aiServiceClient, BusinessMetrics metrics,
+                             EmbeddingCacheProperties properties) {
+        this.aiServiceClient = aiServiceClient;
+        this.metrics = metrics;
+        this.modelVersion = properties.getModelVersion();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .build();
+    }
+
+    public float[] generateEmbedding(String query) {
+        CacheKey key = new CacheKey(modelVersion, normalize(query));
+        float[] cached = cache.getIfPresent(key);
+        if (cached != null) {
+            metrics.embeddingCache("hit");
+            return cached;
+        }
+
+        CompletableFuture<float[]> pending = new CompletableFuture<>();
+        CompletableFuture<float[]> existing = inFlight.putIfAbsent(key, pending);
+        if (existing != null) {
+            metrics.embeddingCache("coalesced");
+            return await(existing);
+        }
+        try {
+            // 抢到调用权之前可能已有其他请求完成并写入缓存
+            float[] embedding = cache.getIfPresent(key);
+            if (embedding != null) {
+                metrics.embeddingCache("hit");
+            } else {
+                metrics.embeddingCache("miss");
+                embedding = fetch(key.text());
+                cache.put(key, embedding);
+            }
+            pending.complete(embedding);
+            return embedding;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, pending);
+        }
+    }
 
-    public EmbeddingResponseDto generateEmbedding(String query) {
+    private float[] fetch(String query) {
         SemanticSearchRequestDto request = new SemanticSearchRequestDto();
         request.setQuery(query);
         EmbeddingResponseDto response = aiServiceClient.generateEmbedding(request);
-        if (response == null || response.getEmbedding() == null || response.getEmbedding().size() != 512) {
+        if (response == null || response.getEmbedding() == null || response.getEmbedding().size() != EMBEDDING_DIMENSIONS) {
             throw new IllegalStateException("AI text embedding response must contain 512 values");
         }
-        return response;
+        List<Double> values = response.getEmbedding();
+        float[] embedding = new float[values.size()];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = values.get(i).floatValue();
+        }
+        return embedding;
+    }
+
+    /**
+     * CLIP 分词器本身会转小写并合并空白，这里做同样的规范化以提高命中率
+     */
+    static String normalize(String query) {
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return normalized.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static float[] await(CompletableFuture<float[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record CacheKey(String modelVersion, String text) {
     }
 }
@@ -1,16 +1,25 @@
 package com.tamakara.bakabooru.module.gallery.controller;
 
+import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.gallery.service.SearchService;
 import com.tamakara.bakabooru.module.image.dto.ImageDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
 import com.tamakara.bakabooru.module.image.service.ImageService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+
 /**
  * 图片管理控制器
  * 处理图片的增删改查、标签管理及批量操作
@@ -22,6 +31,7 @@ import java.io.IOException;
 public class ImageController {
 
     private final ImageService imageService;
+    private final SearchService searchService;
 
     @GetMapping("/{id}")
     @Operation(summary = "获取详情", description = "获取图片详细信息并增加查看次数")
@@ -29,6 +39,22 @@ public class ImageController {
         return imageService.getImage(id);
     }
 
+    @GetMapping("/{id}/similar")
+    @Operation(summary = "相似图片", description = "使用库内已有向量检索相似图片，支持标签、范围过滤与游标分页")
+    public SearchResultDto<ImageThumbnailDto> findSimilar(
+            @PathVariable Long id,
+            @ModelAttribute SearchRequestDto request,
+            @RequestParam(required = false) Double threshold
+    ) {
+        try {
+            return searchService.searchSimilar(id, request, threshold);
+        } catch (NoSuchElementException error) {
+            throw new ResponseStatusException(NOT_FOUND, error.getMessage(), error);
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
+    }
+
     @DeleteMapping("/{id}")
     @Operation(summary = "删除图片")
     public void deleteImage(@PathVariable Long id) {
@@ -1,12 +1,19 @@
 package com.tamakara.bakabooru.module.gallery.controller;
 
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchResultDto;
 import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
 import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.gallery.service.BatchSearchService;
 import com.tamakara.bakabooru.module.gallery.service.SearchService;
 import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import com.tamakara.bakabooru.module.image.service.ExportFormat;
+import com.tamakara.bakabooru.module.image.service.SearchExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -14,6 +21,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
 
 @RestController
 @RequestMapping("/api/search")
@@ -22,11 +35,49 @@ import org.springframework.web.multipart.MultipartFile;
 public class SearchController {
 
     private final SearchService searchService;
+    private final BatchSearchService batchSearchService;
 
     @PostMapping
     @Operation(summary = "搜索图片", description = "使用标签进行高级搜索")
     public SearchResultDto<ImageThumbnailDto> search(@RequestBody SearchRequestDto request) {
-        return searchService.search(request);
+        try {
+            return searchService.search(request);
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
+    }
+
+    @PostMapping("/batch")
+    @Operation(summary = "批量搜索", description = "一次请求执行多条搜索，按顺序返回每条的结果、耗时与错误")
+    public BatchSearchResultDto batchSearch(@RequestBody BatchSearchRequestDto request) {
+        try {
+            return batchSearchService.search(request);
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
+    }
+
+    @GetMapping("/stream")
+    @Operation(summary = "导出搜索结果", description = "按搜索条件流式导出全部匹配图片，format 为 ndjson 或 csv")
+    public void stream(SearchRequestDto request, @RequestParam(required = false, defaultValue = "ndjson") String format,
+                       HttpServletResponse response) throws IOException {
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.of(format);
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
+        response.setContentType(exportFormat.contentType() + ";charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"images." + exportFormat.extension() + "\"");
+        // 关闭 Nginx 代理缓冲，行写出后即送达客户端
+        response.setHeader("X-Accel-Buffering", "no");
+        try {
+            searchService.export(request, exportFormat, response.getOutputStream());
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        } catch (SearchExportService.ExportBusyException error) {
+            throw new ResponseStatusException(TOO_MANY_REQUESTS, error.getMessage(), error);
+        }
     }
 
     @PostMapping(path = "/image", consumes = "multipart/form-data")
@@ -35,8 +86,13 @@ public class SearchController {
             @RequestPart("file") MultipartFile file,
             @RequestParam(required = false, defaultValue = "0.7") Double threshold,
             @RequestParam(required = false, defaultValue = "0") Integer page,
-            @RequestParam(required = false, defaultValue = "20") Integer size
+            @RequestParam(required = false, defaultValue = "20") Integer size,
+            @RequestParam(required = false) String cursor
     ) {
-        return searchService.searchByImage(file, threshold, page, size);
+        try {
+            return searchService.searchByImage(file, threshold, page, size, cursor);
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
     }
 }
@@ -0,0 +1,38 @@
+package com.tamakara.bakabooru.module.gallery.controller;
+
+import com.tamakara.bakabooru.module.gallery.dto.SlowSearchDto;
+import com.tamakara.bakabooru.module.image.service.SearchProfiler;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 慢检索日志
+ * 最近超过 app.search.slow.threshold 的检索，按时间倒序
+ */
+@RestController
+@RequestMapping("/api/system/slow-searches")
+@RequiredArgsConstructor
+@Tag(name = "系统设置", description = "全局参数配置")
+public class SlowSearchController {
+
+    private final SearchProfiler searchProfiler;
+
+    @GetMapping
+    @Operation(summary = "获取慢检索日志")
+    public List<SlowSearchDto> list() {
+        return searchProfiler.recent();
+    }
+
+    @DeleteMapping
+    @Operation(summary = "清空慢检索日志")
+    public void clear() {
+        searchProfiler.clear();
+    }
+}
@@ -1,13 +1,22 @@
 package com.tamakara.bakabooru.module.gallery.controller;
 
-import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.dto.TagPageDto;
+import com.tamakara.bakabooru.module.tag.service.TagCatalog;
 import com.tamakara.bakabooru.module.tag.service.TagService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.List;
+import java.util.Locale;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 
 /**
  * 标签管理控制器
@@ -22,11 +31,79 @@ public class TagController {
     private final TagService tagService;
 
     @GetMapping
-    @Operation(summary = "获取标签", description = "获取所有标签或按关键词搜索")
-    public List<TagDto> listTags(@RequestParam(required = false) String query) {
+    @Operation(summary = "获取标签", description = "获取所有标签或按关键词搜索，全量列表支持 ETag 协商缓存")
+    public ResponseEntity<?> listTags(@RequestParam(required = false) String query,
+                                      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                      WebRequest webRequest) {
         if (query != null && !query.isEmpty()) {
-            return tagService.searchTags(query);
+            return ResponseEntity.ok(tagService.searchTags(query));
+        }
+        TagCatalog.Snapshot snapshot = tagService.listTags();
+        // 直接写出预先序列化（并压缩）的字节，两种编码各有自己的 ETag
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? snapshot.gzipEtag() : snapshot.etag();
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(gzip ? snapshot.gzip() : snapshot.json());
+    }
+
+    @GetMapping("/page")
+    @Operation(summary = "分页获取标签", description = "按名称排序的游标分页，可按类型过滤，支持 ETag 协商缓存")
+    public ResponseEntity<TagPageDto> pageTags(@RequestParam(required = false) String type,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(required = false) Integer size,
+                                               WebRequest webRequest) {
+        TagCatalog.Snapshot snapshot = tagService.listTags();
+        String etag = snapshot.pageEtag(type, cursor, size);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        try {
+            return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache())
+                    .body(snapshot.page(type, cursor, size));
+        } catch (IllegalArgumentException error) {
+            throw new ResponseStatusException(BAD_REQUEST, error.getMessage(), error);
+        }
+    }
+
+    /**
+     * 按 Accept-Encoding 的 q 值判断客户端是否接受 gzip：gzip 条目优先于通配符 *，q=0 表示拒绝
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        Double gzip = null;
+        Double wildcard = null;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.equals("gzip") && !coding.equals("*")) continue;
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip")) {
+                gzip = quality;
+            } else {
+                wildcard = quality;
+            }
         }
-        return tagService.listTags();
+        Double quality = gzip != null ? gzip : wildcard;
+        return quality != null && quality > 0;
     }
 }
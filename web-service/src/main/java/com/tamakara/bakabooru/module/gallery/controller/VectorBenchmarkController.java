@@ -0,0 +1,31 @@
+package com.tamakara.bakabooru.module.gallery.controller;
+
+import com.tamakara.bakabooru.module.gallery.dto.VectorBenchmarkDto;
+import com.tamakara.bakabooru.module.image.service.VectorBenchmarkService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 向量检索基准
+ * 对比原始向量索引与量化索引的召回率和耗时，用于选择 app.search.vector.quantization
+ */
+@RestController
+@RequestMapping("/api/system/vector-benchmark")
+@RequiredArgsConstructor
+@Tag(name = "系统设置", description = "全局参数配置")
+public class VectorBenchmarkController {
+
+    private final VectorBenchmarkService vectorBenchmarkService;
+
+    @PostMapping
+    @Operation(summary = "运行向量检索基准")
+    public VectorBenchmarkDto run(@RequestParam(defaultValue = "20") int queries,
+                                  @RequestParam(defaultValue = "20") int k) {
+        return vectorBenchmarkService.run(queries, k);
+    }
+}
@@ -0,0 +1,10 @@
+package com.tamakara.bakabooru.module.gallery.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchSearchRequestDto {
+    private List<SearchRequestDto> queries;  // 按顺序返回结果
+}
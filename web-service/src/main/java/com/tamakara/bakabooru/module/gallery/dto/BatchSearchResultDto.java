@@ -0,0 +1,29 @@
+package com.tamakara.bakabooru.module.gallery.dto;
+
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量检索结果，与请求中的查询一一对应
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchSearchResultDto {
+    private List<Item> results;
+    private Long tookMs;  // 整批耗时
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private Integer status;  // 与单条检索的 HTTP 状态码一致：200/400/404/500/504
+        private SearchResultDto<ImageThumbnailDto> result;  // 失败时为空
+        private String error;
+        private Long tookMs;  // 单条查询耗时，相同查询合并执行时耗时相同
+    }
+}
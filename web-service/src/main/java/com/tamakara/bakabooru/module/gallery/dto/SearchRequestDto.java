@@ -16,6 +16,9 @@ public class SearchRequestDto {
     private Long sizeMin;
     private Long sizeMax;
     private Integer page;
+    private String cursor;  // 上一页返回的 nextCursor
     private Integer size;
     private String sort;
+    private Boolean facets;  // 同时返回结果集内的标签分面
+    private Integer facetSize;  // 每个标签类型返回的标签数
 }
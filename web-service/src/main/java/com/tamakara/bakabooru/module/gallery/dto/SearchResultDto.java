@@ -12,4 +12,11 @@ public class SearchResultDto<T> {
     private Integer page;
     private Integer size;
     private Boolean hasNext;
+    private String nextCursor;  // 下一页游标，hasNext 为 false 时为空
+    private TagFacetsDto facets;  // 仅在请求 facets 时返回
+    private String vectorStrategy;  // 向量检索实际采用的执行方式：index/exact/iterative/oversampled
+
+    public SearchResultDto(List<T> content, Integer page, Integer size, Boolean hasNext) {
+        this(content, page, size, hasNext, null, null, null);
+    }
 }
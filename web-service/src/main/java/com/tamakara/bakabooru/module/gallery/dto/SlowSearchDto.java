@@ -0,0 +1,26 @@
+package com.tamakara.bakabooru.module.gallery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 一次慢检索的分阶段耗时与执行计划
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlowSearchDto {
+    private LocalDateTime time;
+    private String type;  // normal / semantic / similar / image
+    private String result;  // success / failed
+    private Double totalMs;
+    private Map<String, Double> stagesMs;  // 各阶段耗时，未经过的阶段不出现
+    private String sql;  // 空白已规整的 SQL，缓存命中或向量引擎直接返回时为 null
+    private Map<String, Object> params;  // 绑定参数，向量与长数组只保留长度和前几个元素
+    private String shape;  // 排序、向量执行方式与分页形式
+    private String explain;  // EXPLAIN (ANALYZE, BUFFERS) 输出，未采样时为 null
+}
@@ -0,0 +1,29 @@
+package com.tamakara.bakabooru.module.gallery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 当前结果集内的标签分面
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TagFacetsDto {
+    private Boolean exact;  // false 表示由抽样估算
+    private Double sampleRate;  // 参与统计的结果比例，精确统计时为 1
+    private Map<String, List<TagCount>> types;  // 标签类型 -> 按数量降序的前 N 个标签
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TagCount {
+        private Long id;
+        private String name;
+        private Long count;
+    }
+}
@@ -0,0 +1,31 @@
+package com.tamakara.bakabooru.module.gallery.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 向量检索各执行方式的召回率与耗时
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorBenchmarkDto {
+    private Integer queries;  // 参与测试的查询图片数
+    private Integer k;  // 每次查询取回的近邻数
+    private Integer rerankMultiplier;
+    private List<ModeResult> modes;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ModeResult {
+        private String mode;  // exact 为全表精确排序，作为召回率基准
+        private Double recall;  // 与精确结果的平均 recall@k
+        private Double meanMs;
+        private Double p50Ms;
+        private Double p95Ms;
+    }
+}
@@ -0,0 +1,47 @@
+package com.tamakara.bakabooru.module.gallery.model;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 直接在内存或内存映射的字节上随机读取的 ImageInputStream，
+ * 不像 ImageIO 默认的 FileCacheImageInputStream 那样把流再缓存到临时文件
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param source 从其 position 到 limit 的字节，不修改 source 本身的位置
+     */
+    public ByteBufferImageInputStream(ByteBuffer source) {
+        this.buffer = source.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= buffer.limit()) return -1;
+        return buffer.get((int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (length == 0) return 0;
+        long remaining = buffer.limit() - streamPos;
+        if (remaining <= 0) return -1;
+        int count = (int) Math.min(length, remaining);
+        buffer.get((int) streamPos, bytes, offset, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+}
@@ -12,7 +12,7 @@ import java.util.Iterator;
 /**
  * 图片信息封装类
  * <p>
- * 构造时自动读取文件头分析宽高、格式，并计算 SHA256 哈希。
+ * 构造时读取文件头分析宽高、格式与是否为动图，不解码像素。
  * 如果文件不是图片，构造函数会抛出异常。
  */
 @Getter
@@ -32,64 +32,99 @@ public class ImageInfo {
      * @throws RuntimeException 如果读取过程中发生 IO 错误
      */
     public ImageInfo(File file) {
+        this(readHeader(requireFile(file)), file.length());
+    }
+
+    /**
+     * 从已设置输入的解码器读取文件头，不解码像素，也不释放解码器，调用方可以继续用它解码
+     * @param reader 已调用 setInput 的解码器
+     * @param size   文件字节数
+     */
+    public ImageInfo(ImageReader reader, long size) {
+        this(readHeader(reader), size);
+    }
+
+    private ImageInfo(Header header, long size) {
+        this.size = size;
+        this.format = header.format();
+        this.extension = mapFormatToExtension(header.format());
+        this.width = header.width();
+        this.height = header.height();
+        this.isAnimated = header.animated();
+    }
+
+    /**
+     * 为图片流寻找解码器
+     * @throws IllegalArgumentException 如果不是可识别的图片格式
+     */
+    public static ImageReader readerFor(ImageInputStream in) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IllegalArgumentException("无法识别的文件格式，非标准图片");
+        }
+        return readers.next();
+    }
+
+    private static File requireFile(File file) {
         if (file == null || !file.exists() || file.isDirectory()) {
             throw new IllegalArgumentException("文件不存在或路径无效");
         }
+        return file;
+    }
 
-        this.size = file.length();
-
-        // 2. 解析图片元数据
+    private static Header readHeader(File file) {
         try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
             if (in == null) {
                 throw new RuntimeException("无法读取图片流");
             }
 
-            // 自动寻找解码器
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
-            if (!readers.hasNext()) {
-                throw new IllegalArgumentException("无法识别的文件格式，非标准图片");
-            }
-
-            ImageReader reader = readers.next();
+            ImageReader reader = readerFor(in);
             try {
                 reader.setInput(in);
-
-                // 获取真实格式
-                this.format = reader.getFormatName().toLowerCase();
-                // 简单的后缀映射
-                this.extension = mapFormatToExtension(this.format);
-
-                // 获取物理尺寸 (不解码像素)
-                this.width = reader.getWidth(0);
-                this.height = reader.getHeight(0);
-
-                // 简单的动图检测 (如果有超过1帧，通常是动图)
-                int frameCount = 1;
-                try {
-                    // true 允许扫描文件流来确切计算帧数（对 GIF 稍慢但准确）
-                    // 如果追求极致速度，可以设为 false，或者只对 gif/webp 格式执行此检查
-                    if ("gif".equals(this.format) || "webp".equals(this.format)) {
-                        frameCount = reader.getNumImages(true);
-                    }
-                } catch (Exception ignored) {
-                    // 某些格式不支持计算帧数，忽略
-                }
-                this.isAnimated = frameCount > 1;
-
+                return readHeader(reader);
             } finally {
                 reader.dispose(); // 释放 reader
             }
         } catch (IOException e) {
             throw new RuntimeException("图片解析失败: 文件可能已损坏", e);
         }
+    }
+
+    private static Header readHeader(ImageReader reader) {
+        try {
+            // 获取真实格式
+            String format = reader.getFormatName().toLowerCase();
+
+            // 获取物理尺寸 (不解码像素)
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            // 简单的动图检测 (如果有超过1帧，通常是动图)
+            int frameCount = 1;
+            try {
+                // true 允许扫描文件流来确切计算帧数（对 GIF 稍慢但准确）
+                // 如果追求极致速度，可以设为 false，或者只对 gif/webp 格式执行此检查
+                if ("gif".equals(format) || "webp".equals(format)) {
+                    frameCount = reader.getNumImages(true);
+                }
+            } catch (Exception ignored) {
+                // 某些格式不支持计算帧数，忽略
+            }
 
-        // 3. 最终校验
-        if (this.width <= 0 || this.height <= 0) {
-            throw new IllegalArgumentException("无效的图片尺寸: " + width + "x" + height);
+            // 最终校验
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("无效的图片尺寸: " + width + "x" + height);
+            }
+            return new Header(format, width, height, frameCount > 1);
+        } catch (IOException e) {
+            throw new RuntimeException("图片解析失败: 文件可能已损坏", e);
         }
     }
 
-    private String mapFormatToExtension(String formatName) {
+    private record Header(String format, int width, int height, boolean animated) {
+    }
+
+    private static String mapFormatToExtension(String formatName) {
         return switch (formatName) {
             case "jpeg" -> "jpg";
             case "wbmp" -> "bmp";
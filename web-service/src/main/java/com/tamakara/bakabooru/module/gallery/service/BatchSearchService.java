@@ -0,0 +1,239 @@
+package com.tamakara.bakabooru.module.gallery.service;
+
+import com.tamakara.bakabooru.config.SearchBatchProperties;
+import com.tamakara.bakabooru.module.ai.service.ParseQueryService;
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchResultDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 批量检索
+ * <p>
+ * 一次请求执行多条检索：相同的查询只执行一次，相同的语义描述只生成一次向量，
+ * 其余查询在有界线程池中并发执行，每条查询使用独立的只读事务，事务超时取整批剩余时间，语句随之带上 queryTimeout。
+ * 到期时取消仍未完成的查询；线程池队列已满时新的查询直接返回 503。
+ * 标签解析走内存字典、URL 按时间桶签名并缓存，同一批次内天然共享。
+ */
+@Slf4j
+@Service
+public class BatchSearchService {
+
+    private final SearchService searchService;
+    private final ParseQueryService parseQueryService;
+    private final SearchBatchProperties properties;
+    private final PlatformTransactionManager transactionManager;
+    private final ThreadPoolExecutor executor;
+
+    public BatchSearchService(SearchService searchService, ParseQueryService parseQueryService,
+                              SearchBatchProperties properties, PlatformTransactionManager transactionManager) {
+        this.searchService = searchService;
+        this.parseQueryService = parseQueryService;
+        this.properties = properties;
+        this.transactionManager = transactionManager;
+        int parallelism = Math.max(1, properties.getParallelism());
+        AtomicInteger sequence = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())), runnable -> {
+            Thread thread = new Thread(runnable, "search-batch-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public BatchSearchResultDto search(BatchSearchRequestDto request) {
+        List<SearchRequestDto> queries = request == null ? null : request.getQueries();
+        if (queries == null || queries.isEmpty()) {
+            throw new IllegalArgumentException("批量检索至少需要一个查询");
+        }
+        if (queries.size() > properties.getMaxQueries()) {
+            throw new IllegalArgumentException("批量检索最多 " + properties.getMaxQueries() + " 个查询");
+        }
+
+        long startedAt = System.nanoTime();
+        long deadline = startedAt + properties.getTimeout().toNanos();
+
+        // 相同的语义描述只生成一次向量，全部生成后再提交检索，避免检索任务占满线程等待向量
+        Map<String, CompletableFuture<float[]>> embeddings = new LinkedHashMap<>();
+        for (SearchRequestDto query : queries) {
+            if (query != null && StringUtils.hasText(query.getSemanticQuery())) {
+                embeddings.computeIfAbsent(query.getSemanticQuery().trim(),
+                        text -> submit(() -> parseQueryService.generateEmbedding(text)));
+            }
+        }
+        awaitAll(embeddings.values(), deadline);
+
+        Map<SearchRequestDto, CompletableFuture<Outcome>> executions = new LinkedHashMap<>();
+        List<CompletableFuture<Outcome>> outcomes = new ArrayList<>(queries.size());
+        for (SearchRequestDto query : queries) {
+            if (query == null) {
+                outcomes.add(CompletableFuture.completedFuture(Outcome.failed(400, "查询不能为空", 0)));
+                continue;
+            }
+            outcomes.add(executions.computeIfAbsent(query, key -> execute(key, embeddings, deadline)));
+        }
+        awaitAll(executions.values(), deadline);
+
+        List<BatchSearchResultDto.Item> results = new ArrayList<>(outcomes.size());
+        for (CompletableFuture<Outcome> outcome : outcomes) {
+            Outcome done = outcome.getNow(Outcome.failed(504, "检索超时", toMillis(System.nanoTime() - startedAt)));
+            results.add(new BatchSearchResultDto.Item(done.status(), done.result(), done.error(), done.tookMs()));
+        }
+        // 到期仍未完成的查询：排队中的不再执行，执行中的由事务超时中止语句
+        executions.values().forEach(execution -> execution.cancel(true));
+        embeddings.values().forEach(embedding -> embedding.cancel(true));
+        long tookMs = toMillis(System.nanoTime() - startedAt);
+        log.info("批量检索完成: {} 个查询, 实际执行 {} 个, 生成向量 {} 个, 耗时 {}ms",
+                queries.size(), executions.size(), embeddings.size(), tookMs);
+        return new BatchSearchResultDto(results, tookMs);
+    }
+
+    private CompletableFuture<Outcome> execute(SearchRequestDto query, Map<String, CompletableFuture<float[]>> embeddings,
+                                               long deadline) {
+        if (deadline - System.nanoTime() <= 0) {
+            return CompletableFuture.completedFuture(Outcome.failed(504, "检索超时", 0));
+        }
+        // 每条查询复制一份请求：SearchService 会就地补全分页默认值，不能影响去重用的键
+        SearchRequestDto copy = copy(query);
+        CompletableFuture<float[]> embedding = StringUtils.hasText(query.getSemanticQuery())
+                ? embeddings.get(query.getSemanticQuery().trim()) : null;
+        Supplier<Outcome> task = () -> {
+            long startedAt = System.nanoTime();
+            try {
+                long remaining = deadline - startedAt;
+                // 排队期间整批已经到期的查询不再占用连接
+                if (remaining <= 0) return Outcome.failed(504, "检索超时", 0);
+                float[] vector = embedding == null ? null : embedding.get(remaining, TimeUnit.NANOSECONDS);
+                TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+                transaction.setReadOnly(true);
+                transaction.setTimeout(timeoutSeconds(deadline - System.nanoTime()));
+                SearchResultDto<ImageThumbnailDto> result = transaction.execute(status -> searchService.search(copy, vector));
+                return Outcome.succeeded(result, toMillis(System.nanoTime() - startedAt));
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                return Outcome.failed(504, "检索超时", toMillis(System.nanoTime() - startedAt));
+            } catch (TimeoutException error) {
+                return Outcome.failed(504, "检索超时", toMillis(System.nanoTime() - startedAt));
+            } catch (ExecutionException | RuntimeException error) {
+                long tookMs = toMillis(System.nanoTime() - startedAt);
+                // 事务超时触发的语句取消各驱动报法不一，按整批是否到期判断
+                if (deadline - System.nanoTime() <= 0) return Outcome.failed(504, "检索超时", tookMs);
+                return toOutcome(unwrap(error), tookMs);
+            }
+        };
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException error) {
+            return CompletableFuture.completedFuture(toOutcome(error, 0));
+        }
+    }
+
+    /**
+     * 提交到批量线程池；队列已满时返回以 {@link RejectedExecutionException} 失败的 future
+     */
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException error) {
+            return CompletableFuture.failedFuture(error);
+        }
+    }
+
+    /**
+     * 事务超时以秒计，向上取整且至少 1 秒
+     */
+    private static int timeoutSeconds(long remainingNanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (remainingNanos + 999_999_999L) / 1_000_000_000L));
+    }
+
+    private static Outcome toOutcome(Throwable error, long tookMs) {
+        if (error instanceof RejectedExecutionException) {
+            return Outcome.failed(503, "检索繁忙，请稍后重试", tookMs);
+        }
+        if (error instanceof CancellationException || error instanceof TimeoutException) {
+            return Outcome.failed(504, "检索超时", tookMs);
+        }
+        if (error instanceof IllegalArgumentException) {
+            return Outcome.failed(400, error.getMessage(), tookMs);
+        }
+        if (error instanceof NoSuchElementException) {
+            return Outcome.failed(404, error.getMessage(), tookMs);
+        }
+        log.warn("批量检索中的查询失败: {}", error.getMessage());
+        return Outcome.failed(500, "检索失败", tookMs);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static void awaitAll(Iterable<? extends CompletableFuture<?>> futures, long deadline) {
+        for (CompletableFuture<?> future : futures) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+            try {
+                future.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException ignored) {
+                // 单条失败或超时在结果中体现
+            }
+        }
+    }
+
+    private static SearchRequestDto copy(SearchRequestDto source) {
+        SearchRequestDto copy = new SearchRequestDto();
+        BeanUtils.copyProperties(source, copy);
+        return copy;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Outcome(int status, SearchResultDto<ImageThumbnailDto> result, String error, long tookMs) {
+
+        static Outcome succeeded(SearchResultDto<ImageThumbnailDto> result, long tookMs) {
+            return new Outcome(200, result, null, tookMs);
+        }
+
+        static Outcome failed(int status, String error, long tookMs) {
+            return new Outcome(status, null, error, tookMs);
+        }
+    }
+}
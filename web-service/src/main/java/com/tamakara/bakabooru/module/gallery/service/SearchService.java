@@ -1,13 +1,18 @@
 package com.tamakara.bakabooru.module.gallery.service;
 
-import com.tamakara.bakabooru.module.ai.dto.EmbeddingResponseDto;
 import com.tamakara.bakabooru.module.ai.service.EmbeddingService;
 import com.tamakara.bakabooru.module.ai.service.ParseQueryService;
 import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
 import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
 import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
 import com.tamakara.bakabooru.module.image.dto.SearchDto;
-import com.tamakara.bakabooru.module.image.service.ImageSearchService;
+import com.tamakara.bakabooru.module.image.repository.ImageRepository;
+import com.tamakara.bakabooru.module.image.service.ExportFormat;
+import com.tamakara.bakabooru.module.image.service.SearchExportService;
+import com.tamakara.bakabooru.module.image.service.SearchFacetService;
+import com.tamakara.bakabooru.module.image.service.SearchProfiler;
+import com.tamakara.bakabooru.module.image.service.SearchResultCache;
+import com.tamakara.bakabooru.module.image.service.SearchTrace;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,40 +21,135 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.OutputStream;
 import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.DoubleStream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class SearchService {
 
-    private final ImageSearchService imageSearchService;
+    private final SearchResultCache searchResultCache;
+    private final SearchFacetService searchFacetService;
+    private final SearchExportService searchExportService;
     private final ParseQueryService parseQueryService;
     private final EmbeddingService embeddingService;
+    private final ImageRepository imageRepository;
     private final BusinessMetrics metrics;
+    private final SearchProfiler searchProfiler;
 
     @Transactional(readOnly = true)
     public SearchResultDto<ImageThumbnailDto> search(SearchRequestDto request) {
+        return search(request, null);
+    }
+
+    /**
+     * 使用调用方已生成的语义向量检索，批量检索中相同的语义描述只生成一次向量
+     */
+    @Transactional(readOnly = true)
+    public SearchResultDto<ImageThumbnailDto> search(SearchRequestDto request, float[] embedding) {
         long startedAt = System.nanoTime();
         String type = StringUtils.hasText(request.getSemanticQuery()) ? "semantic" : "normal";
+        try (SearchTrace trace = SearchTrace.begin()) {
+            try {
+                SearchResultDto<ImageThumbnailDto> result = doSearch(request, embedding, trace);
+                completed(type, "success", trace, startedAt);
+                return result;
+            } catch (RuntimeException error) {
+                completed(type, "failed", trace, startedAt);
+                throw error;
+            }
+        }
+    }
+
+    private SearchResultDto<ImageThumbnailDto> doSearch(SearchRequestDto request, float[] embedding, SearchTrace trace) {
+        long stageStart = System.nanoTime();
+        SearchDto searchDto = toSearchDto(request);
+        trace.stage(SearchTrace.PARSE, System.nanoTime() - stageStart);
+
+        if (StringUtils.hasText(request.getSemanticQuery())) {
+            stageStart = System.nanoTime();
+            searchDto.setEmbedding(embedding != null ? embedding
+                    : parseQueryService.generateEmbedding(request.getSemanticQuery()));
+            trace.stage(SearchTrace.EMBEDDING, System.nanoTime() - stageStart);
+        }
+
+        SearchResultDto<ImageThumbnailDto> result = searchResultCache.search(searchDto);
+        if (Boolean.TRUE.equals(request.getFacets())) {
+            stageStart = System.nanoTime();
+            result.setFacets(searchFacetService.facets(searchDto, request.getFacetSize()));
+            trace.stage(SearchTrace.FACETS, System.nanoTime() - stageStart);
+        }
+        return result;
+    }
+
+    private void completed(String type, String result, SearchTrace trace, long startedAt) {
+        long elapsed = System.nanoTime() - startedAt;
+        metrics.search(type, result, elapsed);
+        searchProfiler.complete(type, result, trace, elapsed);
+    }
+
+    /**
+     * 按检索条件导出全部匹配行，忽略分页参数。导出名额在生成向量、打开事务之前占用，名额已满时不调用 AI Service
+     */
+    public long export(SearchRequestDto request, ExportFormat format, OutputStream outputStream) {
+        long startedAt = System.nanoTime();
+        searchExportService.acquire();
         try {
-            SearchResultDto<ImageThumbnailDto> result = doSearch(request);
-            metrics.search(type, "success", System.nanoTime() - startedAt);
-            return result;
+            SearchDto searchDto = toSearchDto(request);
+            if (StringUtils.hasText(request.getSemanticQuery())) {
+                searchDto.setEmbedding(parseQueryService.generateEmbedding(request.getSemanticQuery()));
+            }
+            long rows = searchExportService.export(searchDto, format, outputStream);
+            metrics.search("export", "success", System.nanoTime() - startedAt);
+            return rows;
         } catch (RuntimeException error) {
-            metrics.search(type, "failed", System.nanoTime() - startedAt);
+            metrics.search("export", "failed", System.nanoTime() - startedAt);
             throw error;
+        } finally {
+            searchExportService.release();
+        }
+    }
+
+    /**
+     * 以库内图片的向量检索相似图片，支持与普通搜索相同的过滤条件，不调用 AI Service
+     */
+    @Transactional(readOnly = true)
+    public SearchResultDto<ImageThumbnailDto> searchSimilar(Long imageId, SearchRequestDto request, Double threshold) {
+        long startedAt = System.nanoTime();
+        try (SearchTrace trace = SearchTrace.begin()) {
+            try {
+                if (!imageRepository.hasEmbedding(imageId)) {
+                    throw new NoSuchElementException("图片不存在或尚未完成 AI 处理");
+                }
+                long stageStart = System.nanoTime();
+                SearchDto searchDto = toSearchDto(request);
+                searchDto.setSourceImageId(imageId);
+                searchDto.setSortProperty("similarity");
+                if (threshold != null && threshold > 0) {
+                    searchDto.setDistanceThreshold(Math.max(0, 1.0 - threshold));
+                }
+                trace.stage(SearchTrace.PARSE, System.nanoTime() - stageStart);
+                SearchResultDto<ImageThumbnailDto> result = searchResultCache.search(searchDto);
+                completed("similar", "success", trace, startedAt);
+                return result;
+            } catch (RuntimeException error) {
+                completed("similar", "failed", trace, startedAt);
+                throw error;
+            }
         }
     }
 
-    private SearchResultDto<ImageThumbnailDto> doSearch(SearchRequestDto request) {
+    private SearchDto toSearchDto(SearchRequestDto request) {
         validateRequest(request);
 
         SearchDto searchDto = new SearchDto();
         searchDto.setPage(request.getPage());
         searchDto.setSize(request.getSize());
+        searchDto.setCursor(request.getCursor());
         searchDto.setKeyword(StringUtils.hasText(request.getKeyword()) ? request.getKeyword().trim() : "");
         searchDto.setAiStatus(request.getAiStatus());
         searchDto.setRandomSeed(request.getRandomSeed());
@@ -66,38 +166,35 @@ public class SearchService {
         parseTags(request.getTags(), positiveTags, negativeTags);
         searchDto.setPositiveTags(positiveTags);
         searchDto.setNegativeTags(negativeTags);
-
-        if (StringUtils.hasText(request.getSemanticQuery())) {
-            EmbeddingResponseDto embeddingResult = parseQueryService.generateEmbedding(request.getSemanticQuery());
-            if (embeddingResult.getEmbedding() != null) {
-                searchDto.setEmbedding(embeddingResult.getEmbedding().stream()
-                        .map(Double::floatValue)
-                        .toList());
-            }
-        }
-
-        return imageSearchService.searchImages(searchDto);
+        return searchDto;
     }
 
-    public SearchResultDto<ImageThumbnailDto> searchByImage(MultipartFile file, Double threshold, Integer page, Integer size) {
+    public SearchResultDto<ImageThumbnailDto> searchByImage(MultipartFile file, Double threshold, Integer page, Integer size,
+                                                            String cursor) {
         long startedAt = System.nanoTime();
-        try {
-            SearchResultDto<ImageThumbnailDto> result = doSearchByImage(file, threshold, page, size);
-            metrics.search("image", "success", System.nanoTime() - startedAt);
-            return result;
-        } catch (RuntimeException error) {
-            metrics.search("image", "failed", System.nanoTime() - startedAt);
-            throw error;
+        try (SearchTrace trace = SearchTrace.begin()) {
+            try {
+                SearchResultDto<ImageThumbnailDto> result = doSearchByImage(file, threshold, page, size, cursor, trace);
+                completed("image", "success", trace, startedAt);
+                return result;
+            } catch (RuntimeException error) {
+                completed("image", "failed", trace, startedAt);
+                throw error;
+            }
         }
     }
 
-    private SearchResultDto<ImageThumbnailDto> doSearchByImage(MultipartFile file, Double threshold, Integer page, Integer size) {
-        double[] embedding = embeddingService.generateImageEmbedding(file);
+    private SearchResultDto<ImageThumbnailDto> doSearchByImage(MultipartFile file, Double threshold, Integer page, Integer size,
+                                                               String cursor, SearchTrace trace) {
+        long stageStart = System.nanoTime();
+        float[] embedding = embeddingService.generateImageEmbedding(file);
+        trace.stage(SearchTrace.EMBEDDING, System.nanoTime() - stageStart);
 
         SearchDto searchDto = new SearchDto();
         searchDto.setPage(page == null ? 0 : page);
         searchDto.setSize(size == null ? 20 : size);
-        searchDto.setEmbedding(DoubleStream.of(embedding).mapToObj(d -> (float) d).toList());
+        searchDto.setCursor(cursor);
+        searchDto.setEmbedding(embedding);
         searchDto.setSortProperty("similarity");
         searchDto.setSortDirection("DESC");
 
@@ -105,7 +202,7 @@ public class SearchService {
             searchDto.setDistanceThreshold(Math.max(0, 1.0 - threshold));
         }
 
-        return imageSearchService.searchImages(searchDto);
+        return searchResultCache.search(searchDto);
     }
 
     private void validateRequest(SearchRequestDto request) {
@@ -2,7 +2,6 @@ package com.tamakara.bakabooru.module.image.dto;
 
 import lombok.Data;
 
-import java.util.List;
 import java.util.Set;
 
 @Data
@@ -10,6 +9,7 @@ public class SearchDto {
     private String keyword;
     private String randomSeed;
     private Integer page = 0;
+    private String cursor;  // Keyset 分页游标，存在时忽略 page
     private Integer size = 20;
     private String sortProperty = "createdAt";
     private String sortDirection = "DESC";
@@ -23,5 +23,6 @@ public class SearchDto {
     private Double distanceThreshold;
     private Set<String> positiveTags;
     private Set<String> negativeTags;
-    private List<Float> embedding;  // CLIP 向量用于语义搜索
+    private float[] embedding;  // CLIP 向量用于语义搜索
+    private Long sourceImageId;  // 以库内图片的向量检索相似图片，优先于 embedding
 }
@@ -1,6 +1,5 @@
 package com.tamakara.bakabooru.module.image.entity;
 
-import com.tamakara.bakabooru.config.VectorConverter;
 import com.tamakara.bakabooru.module.image.dto.ImageTagDto;
 import com.tamakara.bakabooru.module.tag.entity.ImageTagRelation;
 import com.tamakara.bakabooru.module.tag.entity.Tag;
@@ -8,7 +7,6 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.ColumnTransformer;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -61,10 +59,7 @@ public class Image {
 
     private Instant aiCompletedAt;
 
-    @Convert(converter = VectorConverter.class)
-    @Column(columnDefinition = "vector(512)")
-    @ColumnTransformer(write = "?::vector")
-    private double[] embedding;
+    // embedding (vector) 列不映射，读写见 ImageEmbeddingRepository
 
     @OneToMany(mappedBy = "image", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<ImageTagRelation> tagRelations = new HashSet<>();
@@ -0,0 +1,7 @@
+package com.tamakara.bakabooru.module.image.event;
+
+/**
+ * 图片新增或属性变化（标题、AI 状态、向量等），用于失效检索结果缓存
+ */
+public record ImageChangedEvent(long imageId) {
+}
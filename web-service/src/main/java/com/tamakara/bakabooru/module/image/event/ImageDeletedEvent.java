@@ -0,0 +1,9 @@
+package com.tamakara.bakabooru.module.image.event;
+
+import java.util.List;
+
+/**
+ * 图片删除，携带删除前的全部标签 ID
+ */
+public record ImageDeletedEvent(long imageId, List<Long> tagIds) {
+}
@@ -0,0 +1,7 @@
+package com.tamakara.bakabooru.module.image.event;
+
+/**
+ * 图片向量写入，携带进程内向量索引过滤所需的尺寸属性
+ */
+public record ImageEmbeddingUpdatedEvent(long imageId, int width, int height, long size, float[] embedding) {
+}
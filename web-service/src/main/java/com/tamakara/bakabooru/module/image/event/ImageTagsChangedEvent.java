@@ -0,0 +1,17 @@
+package com.tamakara.bakabooru.module.image.event;
+
+import java.util.List;
+
+/**
+ * 图片标签关联变更，在写入关联的事务内发布，提交后由内存索引消费
+ */
+public record ImageTagsChangedEvent(long imageId, List<Long> addedTagIds, List<Long> removedTagIds) {
+
+    public static ImageTagsChangedEvent added(long imageId, List<Long> tagIds) {
+        return new ImageTagsChangedEvent(imageId, tagIds, List.of());
+    }
+
+    public static ImageTagsChangedEvent removed(long imageId, List<Long> tagIds) {
+        return new ImageTagsChangedEvent(imageId, List.of(), tagIds);
+    }
+}
@@ -0,0 +1,58 @@
+package com.tamakara.bakabooru.module.image.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 图片向量的读写。向量不映射到 {@code Image} 实体，详情页和常规实体加载不会读取 512 维数据；
+ * 读取使用 pgvector 的二进制发送格式（vector_send），写入以 real[] 数组绑定后转换为 vector，全程不经过文本
+ */
+@Repository
+@RequiredArgsConstructor
+public class ImageEmbeddingRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * 已完成 AI 处理的图片向量，以图搜图命中库内图片时直接复用
+     */
+    public Optional<float[]> findReadyByHash(String hash) {
+        List<byte[]> rows = jdbcTemplate.query("""
+                        SELECT vector_send(embedding) FROM images
+                        WHERE hash = :hash AND ai_status = 'READY' AND embedding IS NOT NULL
+                        """,
+                new MapSqlParameterSource("hash", hash), (rs, rowNum) -> rs.getBytes(1));
+        return rows.stream().findFirst().map(ImageEmbeddingRepository::decode);
+    }
+
+    public void update(long imageId, float[] embedding) {
+        jdbcTemplate.update("""
+                        UPDATE images SET embedding = CAST(:embedding AS vector), embedding_updated_at = LOCALTIMESTAMP
+                        WHERE id = :id
+                        """,
+                new MapSqlParameterSource()
+                        .addValue("id", imageId)
+                        .addValue("embedding", embedding));
+    }
+
+    /**
+     * 解析 pgvector 二进制格式：int16 维度、int16 保留位，随后是大端 float4
+     */
+    public static float[] decode(byte[] binary) {
+        ByteBuffer buffer = ByteBuffer.wrap(binary);
+        int dimensions = buffer.getShort() & 0xFFFF;
+        buffer.getShort();
+        if (buffer.remaining() != dimensions * Float.BYTES) {
+            throw new IllegalStateException("向量数据长度与维度不一致");
+        }
+        float[] vector = new float[dimensions];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -19,5 +19,8 @@ public interface ImageRepository extends JpaRepository<Image, Long>, JpaSpecific
 
     @Query("select coalesce(sum(i.size), 0) from Image i")
     long sumImageSize();
+
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM images WHERE id = :id AND embedding IS NOT NULL)", nativeQuery = true)
+    boolean hasEmbedding(Long id);
 }
 
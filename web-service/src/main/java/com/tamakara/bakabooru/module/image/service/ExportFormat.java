@@ -0,0 +1,36 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import java.util.Locale;
+
+/**
+ * 检索导出格式
+ */
+public enum ExportFormat {
+    NDJSON("application/x-ndjson", "ndjson"),
+    CSV("text/csv", "csv");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public static ExportFormat of(String value) {
+        if (value == null || value.isBlank()) return NDJSON;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的导出格式: " + value);
+        }
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+}
@@ -1,10 +1,15 @@
 package com.tamakara.bakabooru.module.image.service;
 
+import com.tamakara.bakabooru.config.TagIndexProperties;
 import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
 import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
 import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.image.service.VectorSearchPlanner.VectorPlan;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
+import com.tamakara.bakabooru.module.tag.service.TagPostingIndex;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -12,12 +17,17 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -25,73 +35,409 @@ import java.util.stream.Collectors;
 public class ImageSearchService {
 
     private static final int MAX_PAGE_SIZE = 100;
+    // pg_trgm 的三元组长度，更短的关键字无法走 GIN 索引
+    private static final int MIN_TRIGRAM_KEYWORD = 3;
     private static final Set<String> AI_STATUSES = Set.of("PENDING", "PROCESSING", "READY", "FAILED");
-    private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+    private static final Map<String, SortColumn> SORT_COLUMNS = new HashMap<>();
 
     static {
-        SORT_COLUMNS.put("title", "i.title");
-        SORT_COLUMNS.put("viewCount", "i.view_count");
-        SORT_COLUMNS.put("createdAt", "i.created_at");
-        SORT_COLUMNS.put("updatedAt", "i.updated_at");
-        SORT_COLUMNS.put("size", "i.size");
-        SORT_COLUMNS.put("width", "i.width");
-        SORT_COLUMNS.put("height", "i.height");
+        SORT_COLUMNS.put("title", new SortColumn("i.title", KeyType.TEXT));
+        SORT_COLUMNS.put("viewCount", new SortColumn("i.view_count", KeyType.BIGINT));
+        SORT_COLUMNS.put("createdAt", new SortColumn("i.created_at", KeyType.TIMESTAMP));
+        SORT_COLUMNS.put("updatedAt", new SortColumn("i.updated_at", KeyType.TIMESTAMP));
+        SORT_COLUMNS.put("size", new SortColumn("i.size", KeyType.BIGINT));
+        SORT_COLUMNS.put("width", new SortColumn("i.width", KeyType.INTEGER));
+        SORT_COLUMNS.put("height", new SortColumn("i.height", KeyType.INTEGER));
     }
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final ImageUrlService imageUrlService;
+    private final TagDictionary tagDictionary;
+    private final TagPostingIndex tagPostingIndex;
+    private final TagIndexProperties tagIndexProperties;
+    private final VectorSearchPlanner vectorSearchPlanner;
+    private final VectorEngine vectorEngine;
+    private final SearchShapeStats searchShapeStats;
 
     @Transactional(readOnly = true)
     public SearchResultDto<ImageThumbnailDto> searchImages(SearchDto searchDto) {
         long startTime = System.currentTimeMillis();
+        SearchTrace trace = SearchTrace.current();
 
         int page = Math.max(0, searchDto.getPage());
         int size = Math.min(Math.max(1, searchDto.getSize()), MAX_PAGE_SIZE);
-        int offset = page * size;
+        SortOrder order = resolveSortOrder(searchDto);
+        // 引擎与 pgvector 各自计算距离，游标带上来源，两条路径的游标不混用
+        String engineSignature = hasVector(searchDto) ? order.signature() + ":" + vectorEngine.label() : null;
+        SearchCursor cursor = decodeCursor(searchDto.getCursor(), order.signature(), engineSignature);
+        boolean engineCursor = cursor != null && cursor.sort().equals(engineSignature);
 
-        MapSqlParameterSource params = new MapSqlParameterSource()
-                .addValue("limit", size + 1)
-                .addValue("offset", offset);
+        long stageStart = System.nanoTime();
+        SearchFilter filter = buildFilter(searchDto);
+        if (trace != null) trace.stage(SearchTrace.FILTER, System.nanoTime() - stageStart);
+        if (filter.empty()) {
+            return new SearchResultDto<>(List.of(), page, size, false);
+        }
+        if (hasVector(searchDto) && (cursor == null || engineCursor) && servedByEngine(searchDto, filter)) {
+            SearchResultDto<ImageThumbnailDto> result = searchWithEngine(searchDto, filter, engineSignature, cursor,
+                    page, size, trace);
+            if (result != null) {
+                log.info("搜索完成 - 耗时: {}ms, 页: {}, 游标: {}, 数量: {}, hasNext: {}, 向量策略: {}",
+                        System.currentTimeMillis() - startTime, page, cursor != null, result.getContent().size(),
+                        result.getHasNext(), result.getVectorStrategy());
+                return result;
+            }
+        }
+        if (engineCursor) {
+            throw new IllegalArgumentException("向量引擎暂不可用，搜索游标已失效，请重新搜索");
+        }
+        stageStart = System.nanoTime();
+        MapSqlParameterSource params = filter.params();
+
+        VectorPlan vectorPlan = hasVector(searchDto) ? planVector(filter, cursor, page, size) : null;
+        if (vectorPlan != null && vectorPlan.quantized()) {
+            params.addValue("rerankCandidates", vectorPlan.candidates());
+        } else if (vectorPlan != null && vectorPlan.strategy() == VectorStrategy.OVERSAMPLED) {
+            params.addValue("oversample", vectorPlan.candidates());
+        }
+
+        // 有游标时走 Keyset 分页；OFFSET 仅为兼容旧客户端保留
+        params.addValue("limit", size + 1);
+        String pagination;
+        if (cursor != null) {
+            pagination = "LIMIT :limit";
+        } else {
+            params.addValue("offset", page * size);
+            pagination = "LIMIT :limit OFFSET :offset";
+        }
+        String cursorPredicate = order.walk() != null
+                ? bindRandomWalk(order.walk(), cursor, params)
+                : cursor != null ? applyCursor(order, cursor, params) : "1 = 1";
+
+        // SQL 只由检索形状决定，参数值全部走绑定；同一文本由 pgjdbc 在每个连接上复用服务端预编译语句
+        String sql;
+        if (order.walk() != null) {
+            sql = buildRandomSql(order.walk(), filter, cursorPredicate, pagination);
+        } else if (vectorPlan != null && vectorPlan.quantized()) {
+            sql = buildRerankSql(order, filter, vectorPlan.quantization(), queryVector(searchDto),
+                    cursorPredicate, pagination);
+        } else {
+            sql = buildSql(order, filter, vectorPlan, cursorPredicate, pagination);
+        }
+        searchShapeStats.record(sql);
+        if (trace != null) {
+            trace.stage(SearchTrace.PLAN, System.nanoTime() - stageStart);
+            trace.query(sql, params, describe(order, vectorPlan, filter, cursor), vectorPlan);
+        }
+        stageStart = System.nanoTime();
+        List<SearchRow> rows = jdbcTemplate.query(sql, params, rowMapper(order, size, trace));
+        if (trace != null) trace.jdbc(System.nanoTime() - stageStart);
+        boolean hasNext = rows.size() > size;
+        if (hasNext) {
+            rows = rows.subList(0, size);
+        }
+
+        SearchResultDto<ImageThumbnailDto> result = new SearchResultDto<>(
+                rows.stream().map(SearchRow::dto).toList(), page, size, hasNext);
+        if (hasNext) {
+            SearchRow last = rows.get(rows.size() - 1);
+            result.setNextCursor(new SearchCursor(order.signature(), last.sortKey(), last.dto().getId(),
+                    skipped(cursor, page, size) + rows.size()).encode());
+        }
+        if (vectorPlan != null) {
+            result.setVectorStrategy(vectorPlan.label());
+        }
+
+        log.info("搜索完成 - 耗时: {}ms, 页: {}, 游标: {}, 数量: {}, hasNext: {}, 向量策略: {}",
+                System.currentTimeMillis() - startTime, page, cursor != null, rows.size(), hasNext,
+                vectorPlan == null ? "-" : vectorPlan.label());
+        return result;
+    }
+
+    /**
+     * 进程内向量引擎只能求值标签位图与尺寸范围，关键字、AI 状态或位图不可用的标签条件仍交给 pgvector
+     */
+    private static boolean servedByEngine(SearchDto searchDto, SearchFilter filter) {
+        boolean tagsInBitmap = filter.tagCandidates() != null
+                || (isEmpty(searchDto.getPositiveTags()) && isEmpty(searchDto.getNegativeTags()));
+        return tagsInBitmap && !StringUtils.hasText(searchDto.getKeyword()) && !StringUtils.hasText(searchDto.getAiStatus());
+    }
+
+    private static boolean isEmpty(Set<String> tags) {
+        return tags == null || tags.isEmpty();
+    }
+
+    /**
+     * 由进程内向量引擎给出有序的 (id, 距离)，数据库只按主键取本页的行；引擎无法回答时返回 null
+     */
+    private SearchResultDto<ImageThumbnailDto> searchWithEngine(SearchDto searchDto, SearchFilter filter, String signature,
+                                                                SearchCursor cursor, int page, int size, SearchTrace trace) {
+        int offset = cursor != null ? 0 : page * size;
+        VectorEngine.VectorQuery query = new VectorEngine.VectorQuery(
+                searchDto.getSourceImageId() != null ? null : searchDto.getEmbedding(),
+                searchDto.getSourceImageId(), filter.tagCandidates(),
+                VectorEngine.AttributeRange.of(searchDto.getWidthMin(), searchDto.getWidthMax()),
+                VectorEngine.AttributeRange.of(searchDto.getHeightMin(), searchDto.getHeightMax()),
+                VectorEngine.AttributeRange.of(searchDto.getSizeMin(), searchDto.getSizeMax()),
+                searchDto.getDistanceThreshold(),
+                cursor == null ? null : (Double) KeyType.DOUBLE.parse(cursor.key()),
+                cursor == null ? null : cursor.id(),
+                offset + size + 1);
+        long stageStart = System.nanoTime();
+        List<VectorEngine.VectorHit> hits = vectorEngine.search(query);
+        if (trace != null) trace.stage(SearchTrace.ENGINE, System.nanoTime() - stageStart);
+        if (hits == null) return null;
+
+        List<VectorEngine.VectorHit> pageHits = hits.subList(Math.min(offset, hits.size()), hits.size());
+        boolean hasNext = pageHits.size() > size;
+        if (hasNext) {
+            pageHits = pageHits.subList(0, size);
+        }
+        Map<Long, ImageThumbnailDto> rows = new HashMap<>();
+        if (!pageHits.isEmpty()) {
+            long[] ids = pageHits.stream().mapToLong(VectorEngine.VectorHit::imageId).toArray();
+            String sql = """
+                    SELECT i.id, i.title, i.hash, i.extension, i.ai_status
+                    FROM images i
+                    WHERE i.id = ANY(:ids)
+                    """;
+            MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+            if (trace != null) trace.query(sql, params, "engine=" + vectorEngine.label(), null);
+            stageStart = System.nanoTime();
+            jdbcTemplate.query(sql, params, thumbnailMapper(trace)).forEach(dto -> rows.put(dto.getId(), dto));
+            if (trace != null) trace.jdbc(System.nanoTime() - stageStart);
+        }
+        // 索引中尚未移除的已删除图片在这里被丢弃
+        List<ImageThumbnailDto> content = pageHits.stream()
+                .map(hit -> rows.get(hit.imageId()))
+                .filter(Objects::nonNull)
+                .toList();
 
+        SearchResultDto<ImageThumbnailDto> result = new SearchResultDto<>(content, page, size, hasNext);
+        if (hasNext) {
+            VectorEngine.VectorHit last = pageHits.get(pageHits.size() - 1);
+            result.setNextCursor(new SearchCursor(signature, String.valueOf(last.distance()), last.imageId(),
+                    skipped(cursor, page, size) + pageHits.size()).encode());
+        }
+        result.setVectorStrategy(vectorEngine.label());
+        return result;
+    }
+
+    /**
+     * HNSW（非迭代）与放大近邻扫描都从最近邻开始数，游标页也要按游标之前已返回的行数放大，
+     * 否则第二页起只能拿到被游标条件滤掉的前几页近邻
+     */
+    private VectorPlan planVector(SearchFilter filter, SearchCursor cursor, int page, int size) {
+        int wanted = (int) Math.min(Integer.MAX_VALUE, skipped(cursor, page, size) + size + 1);
+        VectorPlan plan = vectorSearchPlanner.plan(filter, wanted, cursor != null || page > 0);
+        vectorSearchPlanner.prepare(plan);
+        return plan;
+    }
+
+    /**
+     * 本页之前已返回的行数
+     */
+    private static long skipped(SearchCursor cursor, int page, int size) {
+        return cursor != null ? cursor.rank() : (long) page * size;
+    }
+
+    private String buildSql(SortOrder order, SearchFilter filter, VectorPlan vectorPlan, String cursorPredicate,
+                            String pagination) {
+        VectorStrategy strategy = vectorPlan == null ? VectorStrategy.INDEX : vectorPlan.strategy();
+        return switch (strategy) {
+            // 物化过滤结果，阻止规划器改走 HNSW 后再过滤
+            case EXACT -> """
+                    WITH filtered AS MATERIALIZED (
+                        SELECT i.id, i.title, i.hash, i.extension, i.ai_status, i.embedding
+                        FROM images i
+                        WHERE %s
+                    )
+                    SELECT i.id, i.title, i.hash, i.extension, i.ai_status, %s AS sort_key
+                    FROM filtered i
+                    WHERE %s
+                    ORDER BY %s
+                    %s
+                    """.formatted(filter.where(), order.expression(), cursorPredicate, order.orderBy(), pagination);
+            // 先取放大后的近邻，再在外层套用全部过滤条件
+            case OVERSAMPLED -> """
+                    SELECT i.id, i.title, i.hash, i.extension, i.ai_status, %s AS sort_key
+                    FROM (
+                        SELECT *
+                        FROM images i
+                        WHERE i.embedding IS NOT NULL
+                        ORDER BY %s
+                        LIMIT :oversample
+                    ) i
+                    WHERE %s AND %s
+                    ORDER BY %s
+                    %s
+                    """.formatted(order.expression(), order.expression(), filter.where(), cursorPredicate,
+                    order.orderBy(), pagination);
+            default -> """
+                    SELECT i.id, i.title, i.hash, i.extension, i.ai_status, %s AS sort_key
+                    FROM images i
+                    WHERE %s AND %s
+                    ORDER BY %s
+                    %s
+                    """.formatted(order.expression(), filter.where(), cursorPredicate, order.orderBy(), pagination);
+        };
+    }
+
+    /**
+     * 量化检索：内层按量化表达式索引取 rerankCandidates 个候选（过滤与游标条件在索引扫描中套用），
+     * 外层按原始向量的精确距离重排，返回的排序键与游标仍是精确距离
+     */
+    private String buildRerankSql(SortOrder order, SearchFilter filter, VectorQuantization quantization,
+                                  String queryVector, String cursorPredicate, String pagination) {
+        return """
+                SELECT i.id, i.title, i.hash, i.extension, i.ai_status, %s AS sort_key
+                FROM (
+                    SELECT i.id, i.title, i.hash, i.extension, i.ai_status, i.embedding
+                    FROM images i
+                    WHERE %s AND %s
+                    ORDER BY %s
+                    LIMIT :rerankCandidates
+                ) i
+                ORDER BY %s
+                %s
+                """.formatted(order.expression(), filter.where(), cursorPredicate,
+                quantization.distance("i.embedding", queryVector), order.orderBy(), pagination);
+    }
+
+    /**
+     * 绑定随机浏览的起点与游标，返回游标形状：first（首页）、head（游标仍在第一段）或 tail（已绕回第二段）
+     */
+    private String bindRandomWalk(RandomWalk walk, SearchCursor cursor, MapSqlParameterSource params) {
+        params.addValue("randomStart", walk.start());
+        int branchLimit = (Integer) params.getValue("limit")
+                + (params.hasValue("offset") ? (Integer) params.getValue("offset") : 0);
+        params.addValue("branchLimit", branchLimit);
+        if (cursor == null) return "first";
+        int key = (Integer) KeyType.INTEGER.parse(cursor.key());
+        params.addValue("cursorKey", key);
+        params.addValue("cursorId", cursor.id());
+        return (walk.ascending() ? key >= walk.start() : key <= walk.start()) ? "head" : "tail";
+    }
+
+    /**
+     * 随机排序：从种子决定的起点沿 (random_key, id) 索引走到一端，再从另一端绕回起点。
+     * 两段各自是带 LIMIT 的索引范围扫描，外层只对不超过两页的行排序
+     */
+    private String buildRandomSql(RandomWalk walk, SearchFilter filter, String cursorShape, String pagination) {
+        String direction = walk.ascending() ? "ASC" : "DESC";
+        String head = walk.ascending() ? "i.random_key >= :randomStart" : "i.random_key <= :randomStart";
+        String tail = walk.ascending() ? "i.random_key < :randomStart" : "i.random_key > :randomStart";
+        String after = "(i.random_key, i.id) %s (:cursorKey, :cursorId)".formatted(walk.ascending() ? ">" : "<");
+        List<String> segments = new ArrayList<>(2);
+        // 游标仍在第一段时第二段整体保留；已绕回时只扫第二段
+        switch (cursorShape) {
+            case "first" -> {
+                segments.add(randomSegment(0, filter, head, direction));
+                segments.add(randomSegment(1, filter, tail, direction));
+            }
+            case "head" -> {
+                segments.add(randomSegment(0, filter, head + " AND " + after, direction));
+                segments.add(randomSegment(1, filter, tail, direction));
+            }
+            default -> segments.add(randomSegment(1, filter, tail + " AND " + after, direction));
+        }
+        return """
+                SELECT i.id, i.title, i.hash, i.extension, i.ai_status, i.sort_key
+                FROM (
+                %s
+                ) i
+                ORDER BY i.segment, i.sort_key %s, i.id %s
+                %s
+                """.formatted(String.join("\nUNION ALL\n", segments), direction, direction, pagination);
+    }
+
+    private static String randomSegment(int segment, SearchFilter filter, String range, String direction) {
+        return """
+                (SELECT %d AS segment, i.id, i.title, i.hash, i.extension, i.ai_status, i.random_key AS sort_key
+                 FROM images i
+                 WHERE %s AND %s
+                 ORDER BY i.random_key %s, i.id %s
+                 LIMIT :branchLimit)""".formatted(segment, filter.where(), range, direction, direction);
+    }
+
+    /**
+     * 构建检索条件，分页检索与分面统计共用同一套过滤语义
+     */
+    SearchFilter buildFilter(SearchDto searchDto) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
         List<String> predicates = new ArrayList<>();
         predicates.add("1 = 1");
 
         applyKeyword(searchDto, predicates, params);
         applyAiStatus(searchDto, predicates, params);
         applyRanges(searchDto, predicates, params);
-        if (!applyTags(searchDto.getPositiveTags(), searchDto.getNegativeTags(), predicates, params)) {
-            return new SearchResultDto<>(List.of(), page, size, false);
-        }
+        boolean scalarFiltered = predicates.size() > 1;
         applyVector(searchDto, predicates, params);
+        boolean tagOnly = predicates.size() == 1;
 
-        String sql = """
-                SELECT i.id, i.title, i.hash, i.extension, i.ai_status
-                FROM images i
-                WHERE %s
-                %s
-                LIMIT :limit OFFSET :offset
-                """.formatted(String.join(" AND ", predicates), buildOrderBy(searchDto));
-
-        List<ImageThumbnailDto> rows = jdbcTemplate.query(sql, params, thumbnailMapper());
-        boolean hasNext = rows.size() > size;
-        if (hasNext) {
-            rows = rows.subList(0, size);
+        Set<String> positiveTags = searchDto.getPositiveTags();
+        List<Long> positiveIds = resolveTagIds(positiveTags);
+        if (positiveTags != null && positiveIds.size() != positiveTags.size()) {
+            return SearchFilter.EMPTY;
         }
+        List<Long> negativeIds = resolveTagIds(searchDto.getNegativeTags());
+        RoaringBitmap candidates = tagPostingIndex.match(positiveIds, negativeIds);
+        if (candidates != null && candidates.isEmpty()) {
+            return SearchFilter.EMPTY;
+        }
+        applyTags(positiveIds, negativeIds, candidates, predicates, params);
+        boolean attributeFiltered = scalarFiltered || !positiveIds.isEmpty() || !negativeIds.isEmpty();
+        return new SearchFilter(predicates, params, false, tagOnly, attributeFiltered, candidates);
+    }
+
+    /**
+     * 导出使用的排序。随机浏览的绕回在整表导出中没有意义，改按 ID 输出
+     */
+    String exportOrderBy(SearchDto searchDto) {
+        SortOrder order = resolveSortOrder(searchDto);
+        return order.walk() != null ? "i.id ASC" : order.orderBy();
+    }
+
+    /**
+     * 是否按向量距离排序（语义检索或以图搜图）
+     */
+    boolean vectorOrdered(SearchDto searchDto) {
+        return hasVector(searchDto);
+    }
+
+    /**
+     * 慢检索日志中的检索形状摘要，不含参数值
+     */
+    private static String describe(SortOrder order, VectorPlan vectorPlan, SearchFilter filter, SearchCursor cursor) {
+        return "sort=" + order.orderBy()
+                + ", vector=" + (vectorPlan == null ? "-" : vectorPlan.label())
+                + ", tagBitmap=" + (filter.tagCandidates() == null ? "-" : filter.tagCandidates().getLongCardinality())
+                + ", predicates=" + (filter.predicates().size() - 1)
+                + ", pagination=" + (order.walk() != null ? "random" : cursor != null ? "keyset" : "offset");
+    }
 
-        log.info("搜索完成 - 耗时: {}ms, 页: {}, 数量: {}, hasNext: {}",
-                System.currentTimeMillis() - startTime, page, rows.size(), hasNext);
-        return new SearchResultDto<>(rows, page, size, hasNext);
+    private RowMapper<SearchRow> rowMapper(SortOrder order, int size, SearchTrace trace) {
+        RowMapper<ImageThumbnailDto> thumbnailMapper = thumbnailMapper(trace);
+        return (rs, rowNum) -> {
+            // 只有本页最后一行的排序键会写入游标
+            String sortKey = rowNum == size - 1 ? order.keyType().read(rs, "sort_key") : null;
+            return new SearchRow(thumbnailMapper.mapRow(rs, rowNum), sortKey);
+        };
     }
 
-    private RowMapper<ImageThumbnailDto> thumbnailMapper() {
+    private RowMapper<ImageThumbnailDto> thumbnailMapper(SearchTrace trace) {
         return (rs, rowNum) -> {
+            long mapStart = System.nanoTime();
             ImageThumbnailDto dto = new ImageThumbnailDto();
             dto.setId(rs.getLong("id"));
             dto.setTitle(rs.getString("title"));
             String hash = rs.getString("hash");
-            dto.setThumbnailUrl(imageUrlService.getThumbnailUrl(hash));
-            dto.setImageUrl(imageUrlService.getImageUrl(hash, dto.getId(), dto.getTitle(), rs.getString("extension")));
+            String extension = rs.getString("extension");
             dto.setAiStatus(rs.getString("ai_status"));
+            long signStart = System.nanoTime();
+            dto.setThumbnailUrl(imageUrlService.getThumbnailUrl(hash));
+            dto.setImageUrl(imageUrlService.getImageUrl(hash, dto.getId(), dto.getTitle(), extension));
+            if (trace != null) trace.row(signStart - mapStart, System.nanoTime() - signStart);
             return dto;
         };
     }
@@ -106,8 +452,36 @@ public class ImageSearchService {
 
     private void applyKeyword(SearchDto searchDto, List<String> predicates, MapSqlParameterSource params) {
         if (!StringUtils.hasText(searchDto.getKeyword())) return;
+        String keyword = normalizeKeyword(searchDto.getKeyword());
+        params.addValue("keywordText", keyword);
+        if (keyword.codePointCount(0, keyword.length()) < MIN_TRIGRAM_KEYWORD) {
+            // 不足三个字符提取不出三元组，GIN 索引只能整棵扫描后逐行复核；改用索引无法匹配的 strpos，
+            // 由其他条件或顺序扫描过滤
+            predicates.add("(strpos(LOWER(i.title), :keywordText) > 0 OR strpos(LOWER(i.file_name), :keywordText) > 0)");
+            return;
+        }
+        // 两个表达式分别命中 pg_trgm GIN 索引，规划器以 BitmapOr 合并
         predicates.add("(LOWER(i.title) LIKE :keyword OR LOWER(i.file_name) LIKE :keyword)");
-        params.addValue("keyword", "%" + searchDto.getKeyword().trim().toLowerCase() + "%");
+        params.addValue("keyword", "%" + escapeLike(keyword) + "%");
+    }
+
+    private static String normalizeKeyword(String keyword) {
+        return keyword.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 转义 LIKE 通配符，PostgreSQL 默认转义字符为反斜杠
+     */
+    static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '%' || c == '_') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
     }
 
     private void applyRanges(SearchDto searchDto, List<String> predicates, MapSqlParameterSource params) {
@@ -128,80 +502,218 @@ public class ImageSearchService {
         }
     }
 
-    private boolean applyTags(Set<String> positiveTags, Set<String> negativeTags,
-                              List<String> predicates, MapSqlParameterSource params) {
-        List<Long> positiveIds = resolveTagIds(positiveTags);
-        if (positiveTags != null && positiveIds.size() != positiveTags.size()) {
-            return false;
+    private void applyTags(List<Long> positiveIds, List<Long> negativeIds, RoaringBitmap candidates,
+                           List<String> predicates, MapSqlParameterSource params) {
+        if (candidates != null) {
+            // 候选集足够小时直接按 ID 取数，标签条件已在位图中求值完毕
+            if (candidates.getCardinality() <= tagIndexProperties.getCandidateLimit()) {
+                predicates.add("i.id = ANY(:candidateIds)");
+                params.addValue("candidateIds", toLongArray(candidates));
+                return;
+            }
+            // 候选集过大时只用 ID 范围收窄扫描，精确过滤仍交给下面的 SQL
+            predicates.add("i.id BETWEEN :candidateMin AND :candidateMax");
+            params.addValue("candidateMin", Integer.toUnsignedLong(candidates.first()));
+            params.addValue("candidateMax", Integer.toUnsignedLong(candidates.last()));
         }
+
         if (!positiveIds.isEmpty()) {
             predicates.add("""
                     i.id IN (
                         SELECT itr.image_id
                         FROM image_tag_relation itr
-                        WHERE itr.tag_id IN (:positiveTagIds)
+                        WHERE itr.tag_id = ANY(:positiveTagIds)
                         GROUP BY itr.image_id
                         HAVING COUNT(DISTINCT itr.tag_id) = :positiveTagCount
                     )
                     """);
-            params.addValue("positiveTagIds", positiveIds);
+            // 数组参数保持占位符个数固定，不同标签数的检索共用同一条预编译语句
+            params.addValue("positiveTagIds", toLongArray(positiveIds));
             params.addValue("positiveTagCount", positiveIds.size());
         }
 
-        List<Long> negativeIds = resolveTagIds(negativeTags);
         if (!negativeIds.isEmpty()) {
             predicates.add("""
                     NOT EXISTS (
                         SELECT 1
                         FROM image_tag_relation itr_neg
                         WHERE itr_neg.image_id = i.id
-                          AND itr_neg.tag_id IN (:negativeTagIds)
+                          AND itr_neg.tag_id = ANY(:negativeTagIds)
                     )
                     """);
-            params.addValue("negativeTagIds", negativeIds);
+            params.addValue("negativeTagIds", toLongArray(negativeIds));
+        }
+    }
+
+    private static long[] toLongArray(RoaringBitmap bitmap) {
+        long[] ids = new long[bitmap.getCardinality()];
+        int index = 0;
+        for (int id : bitmap) {
+            ids[index++] = Integer.toUnsignedLong(id);
         }
-        return true;
+        return ids;
+    }
+
+    private static long[] toLongArray(List<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).toArray();
     }
 
     private List<Long> resolveTagIds(Set<String> tags) {
         if (tags == null || tags.isEmpty()) return List.of();
-        List<String> names = tags.stream()
-                .filter(StringUtils::hasText)
-                .map(String::trim)
-                .collect(Collectors.toList());
-        if (names.isEmpty()) return List.of();
-        return jdbcTemplate.queryForList("SELECT id FROM tags WHERE name IN (:names)",
-                new MapSqlParameterSource("names", names), Long.class);
+        return tagDictionary.resolveIds(tags);
     }
 
     private void applyVector(SearchDto searchDto, List<String> predicates, MapSqlParameterSource params) {
-        if (searchDto.getEmbedding() == null || searchDto.getEmbedding().isEmpty()) return;
+        if (!hasVector(searchDto)) return;
         predicates.add("i.embedding IS NOT NULL");
-        params.addValue("embedding", toVectorLiteral(searchDto.getEmbedding()));
+        if (searchDto.getSourceImageId() != null) {
+            predicates.add("i.id <> :sourceImageId");
+            params.addValue("sourceImageId", searchDto.getSourceImageId());
+        } else {
+            // real[] 以二进制数组绑定，由 pgvector 的数组转换得到 vector，不拼接文本字面量
+            params.addValue("embedding", searchDto.getEmbedding());
+        }
         if (searchDto.getDistanceThreshold() != null) {
-            predicates.add("(i.embedding <=> CAST(:embedding AS vector)) <= :distanceThreshold");
+            predicates.add("(i.embedding <=> %s) <= :distanceThreshold".formatted(queryVector(searchDto)));
             params.addValue("distanceThreshold", searchDto.getDistanceThreshold());
         }
     }
 
-    private String buildOrderBy(SearchDto searchDto) {
-        if (searchDto.getEmbedding() != null && !searchDto.getEmbedding().isEmpty()) {
-            return "ORDER BY i.embedding <=> CAST(:embedding AS vector), i.id ASC";
+    private static boolean hasVector(SearchDto searchDto) {
+        return searchDto.getSourceImageId() != null
+                || (searchDto.getEmbedding() != null && searchDto.getEmbedding().length > 0);
+    }
+
+    /**
+     * 查询向量表达式。按图片 ID 检索时直接引用库内向量，作为 InitPlan 只求值一次，HNSW 排序仍可用
+     */
+    private static String queryVector(SearchDto searchDto) {
+        if (searchDto.getSourceImageId() != null) {
+            return "(SELECT src.embedding FROM images src WHERE src.id = :sourceImageId)";
+        }
+        return "CAST(:embedding AS vector)";
+    }
+
+    private SortOrder resolveSortOrder(SearchDto searchDto) {
+        if (hasVector(searchDto)) {
+            // 签名带上查询向量的摘要，换了描述或图片后旧游标失效
+            String signature = searchDto.getSourceImageId() != null
+                    ? "similar:" + searchDto.getSourceImageId()
+                    : "similarity:" + Arrays.hashCode(searchDto.getEmbedding());
+            return new SortOrder(signature, "(i.embedding <=> %s)".formatted(queryVector(searchDto)), KeyType.DOUBLE, true);
+        }
+        if ("relevance".equalsIgnoreCase(searchDto.getSortProperty()) && StringUtils.hasText(searchDto.getKeyword())) {
+            // 相关度只在有关键字时可用，签名带上关键字，换关键字后旧游标失效
+            return new SortOrder("relevance:" + normalizeKeyword(searchDto.getKeyword()).hashCode(),
+                    "CAST(GREATEST(word_similarity(:keywordText, LOWER(i.title)), "
+                            + "word_similarity(:keywordText, LOWER(i.file_name))) AS double precision)",
+                    KeyType.DOUBLE, false);
         }
         if ("random".equalsIgnoreCase(searchDto.getSortProperty()) && StringUtils.hasText(searchDto.getRandomSeed())) {
-            int seed = searchDto.getRandomSeed().hashCode();
-            if (seed == 0) seed = 1;
-            return "ORDER BY ABS(MOD((i.id * " + seed + ")::bigint, 2147483647::bigint)) ASC";
+            RandomWalk walk = RandomWalk.of(searchDto.getRandomSeed());
+            return new SortOrder("random:" + searchDto.getRandomSeed().hashCode(),
+                    "i.random_key", KeyType.INTEGER, walk.ascending(), walk);
         }
         String property = StringUtils.hasText(searchDto.getSortProperty()) ? searchDto.getSortProperty() : "createdAt";
-        String column = SORT_COLUMNS.getOrDefault(property, "i.created_at");
-        String direction = "ASC".equalsIgnoreCase(searchDto.getSortDirection()) ? "ASC" : "DESC";
-        return "ORDER BY " + column + " " + direction + ", i.id DESC";
+        if (!SORT_COLUMNS.containsKey(property)) {
+            property = "createdAt";
+        }
+        SortColumn column = SORT_COLUMNS.get(property);
+        boolean ascending = "ASC".equalsIgnoreCase(searchDto.getSortDirection());
+        return new SortOrder(property + (ascending ? ":asc" : ":desc"), column.column(), column.keyType(), ascending);
+    }
+
+    private SearchCursor decodeCursor(String token, String signature, String engineSignature) {
+        if (!StringUtils.hasText(token)) return null;
+        SearchCursor cursor = SearchCursor.decode(token);
+        if (!cursor.sort().equals(signature) && !cursor.sort().equals(engineSignature)) {
+            throw new IllegalArgumentException("搜索游标与当前排序不匹配");
+        }
+        return cursor;
+    }
+
+    private String applyCursor(SortOrder order, SearchCursor cursor, MapSqlParameterSource params) {
+        // 排序键与 id 同向排序，行比较可以直接映射为 (key, id) 复合索引上的范围扫描
+        params.addValue("cursorKey", order.keyType().parse(cursor.key()));
+        params.addValue("cursorId", cursor.id());
+        return "(%s, i.id) %s (:cursorKey, :cursorId)".formatted(order.expression(), order.ascending() ? ">" : "<");
+    }
+
+    private enum KeyType {
+        TEXT, INTEGER, BIGINT, TIMESTAMP, DOUBLE;
+
+        String read(ResultSet rs, String column) throws SQLException {
+            return switch (this) {
+                case TEXT -> rs.getString(column);
+                case INTEGER -> String.valueOf(rs.getInt(column));
+                case BIGINT -> String.valueOf(rs.getLong(column));
+                case TIMESTAMP -> rs.getObject(column, LocalDateTime.class).toString();
+                case DOUBLE -> String.valueOf(rs.getDouble(column));
+            };
+        }
+
+        Object parse(String value) {
+            try {
+                return switch (this) {
+                    case TEXT -> value;
+                    case INTEGER -> Integer.parseInt(value);
+                    case BIGINT -> Long.parseLong(value);
+                    case TIMESTAMP -> LocalDateTime.parse(value);
+                    case DOUBLE -> Double.parseDouble(value);
+                };
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的搜索游标", e);
+            }
+        }
+    }
+
+    private record SortColumn(String column, KeyType keyType) {
     }
 
-    private String toVectorLiteral(List<Float> embedding) {
-        return embedding.stream()
-                .map(String::valueOf)
-                .collect(Collectors.joining(",", "[", "]"));
+    private record SortOrder(String signature, String expression, KeyType keyType, boolean ascending,
+                             RandomWalk walk) {
+        SortOrder(String signature, String expression, KeyType keyType, boolean ascending) {
+            this(signature, expression, keyType, ascending, null);
+        }
+
+        String orderBy() {
+            String direction = ascending ? "ASC" : "DESC";
+            return expression + " " + direction + ", i.id " + direction;
+        }
+    }
+
+    /**
+     * 随机浏览的起点与方向，由种子散列得到，同一种子的所有分页保持一致
+     */
+    record RandomWalk(int start, boolean ascending) {
+        static RandomWalk of(String seed) {
+            long mixed = seed.hashCode() * 0x9E3779B97F4A7C15L;
+            mixed ^= mixed >>> 32;
+            return new RandomWalk((int) (mixed & Integer.MAX_VALUE), (mixed & (1L << 31)) == 0);
+        }
+    }
+
+    private record SearchRow(ImageThumbnailDto dto, String sortKey) {
+    }
+
+    /**
+     * @param empty             标签条件已可判定结果为空
+     * @param tagOnly           除标签外没有其他过滤条件
+     * @param attributeFiltered 存在向量以外的过滤条件（标签、关键字、状态或范围）
+     * @param tagCandidates     位图索引求得的精确标签候选集，索引不可用或没有正向标签时为 null
+     */
+    record SearchFilter(List<String> predicates, MapSqlParameterSource params, boolean empty, boolean tagOnly,
+                        boolean attributeFiltered, RoaringBitmap tagCandidates) {
+
+        static final SearchFilter EMPTY =
+                new SearchFilter(List.of(), new MapSqlParameterSource(), true, false, false, null);
+
+        String where() {
+            return String.join(" AND ", predicates);
+        }
+
+        boolean unfiltered() {
+            return !empty && predicates.size() == 1;
+        }
     }
 }
@@ -3,11 +3,15 @@ package com.tamakara.bakabooru.module.image.service;
 import com.tamakara.bakabooru.module.ai.service.AiJobService;
 import com.tamakara.bakabooru.module.image.dto.ImageDto;
 import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.event.ImageChangedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
 import com.tamakara.bakabooru.module.image.mapper.ImageMapper;
 import com.tamakara.bakabooru.module.image.repository.ImageRepository;
 import com.tamakara.bakabooru.module.tag.entity.Tag;
 import com.tamakara.bakabooru.module.tag.service.TagService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,6 +32,7 @@ public class ImageService {
     private final StorageService storageService;
     private final TagService tagService;
     private final AiJobService aiJobService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Transactional
     public ImageDto getImage(Long id) {
@@ -43,7 +48,9 @@ public class ImageService {
 
     @Transactional
     public Image addImage(Image image) {
-        return imageRepository.save(image);
+        Image saved = imageRepository.save(image);
+        eventPublisher.publishEvent(new ImageChangedEvent(saved.getId()));
+        return saved;
     }
 
     public boolean existImageByHash(String hash) {
@@ -59,6 +66,7 @@ public class ImageService {
             image.setTitle(dto.getTitle());
         }
         image.setUpdatedAt(Instant.now());
+        eventPublisher.publishEvent(new ImageChangedEvent(id));
         return imageMapper.toDto(imageRepository.save(image));
     }
 
@@ -68,7 +76,9 @@ public class ImageService {
                 .orElseThrow(() -> new RuntimeException("找不到图片"));
         Tag tag = tagService.getTagById(tagId);
         image.addTag(tag, 1.0);
-        return imageMapper.toDto(imageRepository.save(image));
+        ImageDto dto = imageMapper.toDto(imageRepository.save(image));
+        eventPublisher.publishEvent(ImageTagsChangedEvent.added(id, List.of(tagId)));
+        return dto;
     }
 
     @Transactional
@@ -76,8 +86,12 @@ public class ImageService {
         Image image = imageRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("找不到图片"));
 
-        image.getTags().removeIf(tag -> tag.getId().equals(tagId));
+        // getTags() 返回的是 DTO 副本，必须直接操作关联集合才能触发 orphanRemoval
+        boolean removed = image.getTagRelations().removeIf(relation -> relation.getTag().getId().equals(tagId));
         image.setUpdatedAt(Instant.now());
+        if (removed) {
+            eventPublisher.publishEvent(ImageTagsChangedEvent.removed(id, List.of(tagId)));
+        }
 
         return imageMapper.toDto(imageRepository.save(image));
     }
@@ -95,7 +109,11 @@ public class ImageService {
         String objectName = "original/" + image.getHash();
         storageService.deleteFile(objectName);
 
+        List<Long> tagIds = image.getTagRelations().stream()
+                .map(relation -> relation.getTag().getId())
+                .toList();
         imageRepository.delete(image);
+        eventPublisher.publishEvent(new ImageDeletedEvent(id, tagIds));
     }
 
 
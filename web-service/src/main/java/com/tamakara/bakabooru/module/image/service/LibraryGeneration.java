@@ -0,0 +1,66 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.module.image.event.ImageChangedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图库版本号
+ * <p>
+ * 由两部分相加：本实例的图片新增、删除、属性与标签变更在事务提交后立即递增本地计数，保证自己的写入马上可见；
+ * V17 迁移的触发器在同一事务中递增 {@code library_generation}，每 {@code generation-poll-ms} 读取一次，
+ * 其他实例提交的变更最多延迟一个轮询周期。依赖检索结果的缓存以版本号作为键的一部分，版本变化后旧结果自然失效。
+ * 浏览次数不计入，按浏览次数排序的缓存结果在 TTL 内允许略旧。
+ */
+@Slf4j
+@Component
+public class LibraryGeneration {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile long shared;
+
+    public LibraryGeneration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public long current() {
+        return generation.get() + shared;
+    }
+
+    @Scheduled(fixedDelayString = "${app.search.cache.generation-poll-ms:1000}")
+    public void poll() {
+        try {
+            Long value = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(SUM(generation), 0) FROM library_generation", Long.class);
+            if (value != null) {
+                shared = value;
+            }
+        } catch (Exception e) {
+            log.debug("读取图库版本号失败: {}", e.getMessage());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onImageChanged(ImageChangedEvent event) {
+        generation.incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTagsChanged(ImageTagsChangedEvent event) {
+        generation.incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onImageDeleted(ImageDeletedEvent event) {
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,924 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.VectorIndexProperties;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageEmbeddingUpdatedEvent;
+import com.tamakara.bakabooru.module.image.repository.ImageEmbeddingRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 IVF 向量索引
+ * <p>
+ * 全部图片向量（归一化后）存放在内存映射文件中，按 64K 槽位分块映射，数据在堆外，由操作系统页缓存管理；
+ * 堆上只保留聚类中心、每个聚类的槽位列表和 id → 槽位映射。查询先按与聚类中心的相似度排序，
+ * 至少扫描 probes 个聚类，结果不足时继续扫描更远的聚类，标签候选位图与尺寸范围在扫描时过滤。
+ * 候选位图比 probes 个聚类还小时直接逐个计算；扩展扫描超过 max-scan-slots 仍不足时交回 pgvector。
+ * 新向量在事务提交后追加到文件并归入最近的聚类，删除只标记槽位；后台定期按 embedding_updated_at 水位补齐
+ * 其他副本写入的向量、剔除已删除的图片，失效槽位过多或向量数大幅增长时重建。加载、对齐与重建都在专用线程上执行。
+ * 相似图片浏览因此随 web-service 副本数扩展，不再集中消耗 PostgreSQL 的 CPU。
+ */
+@Slf4j
+@Component
+public class MappedVectorIndex implements VectorEngine {
+
+    private static final int MAGIC = 0x4D564958;
+    private static final int FORMAT_VERSION = 1;
+    private static final int DIMENSIONS = VectorQuantization.DIMENSIONS;
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_LISTS = 12;
+    private static final int HEADER_SLOTS = 16;
+    private static final int HEADER_WATERMARK = 20;
+    /**
+     * 补齐时水位向前回退的时间（微秒），覆盖写入时间早于水位、提交却晚于上次补齐的事务
+     */
+    private static final long CATCH_UP_OVERLAP_MICROS = 5L * 60 * 1_000_000;
+    /**
+     * 槽位：id(8) 聚类(4) 宽(4) 高(4) 保留(4) 大小(8)，随后是 512 个 float
+     */
+    private static final int SLOT_HEADER_BYTES = 32;
+    private static final int SLOT_BYTES = SLOT_HEADER_BYTES + DIMENSIONS * Float.BYTES;
+    private static final int CHUNK_SLOTS = 1 << 16;
+    private static final int MAX_LISTS = 4096;
+    private static final String EPOCH_MICROS = "(EXTRACT(EPOCH FROM embedding_updated_at) * 1000000)::bigint";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final VectorIndexProperties properties;
+    // 加载、对齐与重建串行执行，不占用共享的调度线程；排队中已有任务时丢弃新的检查
+    private final ThreadPoolExecutor maintenanceExecutor;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    // 以下字段受 lock 保护
+    private Segment segment;
+    private List<Change> pendingChanges;
+
+    private volatile boolean ready;
+
+    public MappedVectorIndex(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                             VectorIndexProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(2_000);
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+        this.maintenanceExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "vector-index-maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) return;
+        maintenanceExecutor.execute(() -> {
+            if (!open() || !synchronize()) {
+                rebuild();
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public String label() {
+        return "mmap";
+    }
+
+    @Override
+    public List<VectorHit> search(VectorQuery query) {
+        if (!ready) return null;
+        lock.readLock().lock();
+        try {
+            if (segment == null) return null;
+            float[] vector;
+            if (query.vector() != null) {
+                vector = normalize(query.vector());
+            } else {
+                int slot = segment.slotOf(query.sourceImageId());
+                if (slot < 0) return null;
+                vector = segment.vector(slot);
+            }
+            return segment.search(vector, query, Math.max(1, properties.getProbes()), properties.getMaxScanSlots());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEmbeddingUpdated(ImageEmbeddingUpdatedEvent event) {
+        apply(new Change(event.imageId(), event.width(), event.height(), event.size(), normalize(event.embedding())));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onImageDeleted(ImageDeletedEvent event) {
+        apply(new Change(event.imageId(), 0, 0, 0, null));
+    }
+
+    /**
+     * 定期与数据库对齐；失效槽位过多，或向量数相对训练时增长过多导致聚类过大时重建。
+     * 这里只提交任务，对齐与重建在专用线程上执行
+     */
+    @Scheduled(
+            fixedDelayString = "${app.vector-index.check-interval-ms:600000}",
+            initialDelayString = "${app.vector-index.check-interval-ms:600000}"
+    )
+    public void rebuildIfStale() {
+        if (!properties.isEnabled()) return;
+        maintenanceExecutor.execute(this::maintain);
+    }
+
+    void maintain() {
+        if (!ready || !synchronize()) {
+            // 增量写入失败后索引停用，或对齐后仍与数据库不一致，由这里恢复
+            rebuild();
+            return;
+        }
+        boolean stale;
+        lock.readLock().lock();
+        try {
+            stale = segment.dead > segment.live * properties.getStaleRatio()
+                    || segment.live > Math.max(1, segment.trainedOn) * properties.getGrowthRatio();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stale) {
+            rebuild();
+        }
+    }
+
+    public void rebuild() {
+        if (!properties.isEnabled() || !loading.compareAndSet(false, true)) return;
+        Path target = Path.of(properties.getPath()).toAbsolutePath();
+        Path building = target.resolveSibling(target.getFileName() + ".building");
+        Segment built = null;
+        try {
+            long startedAt = System.currentTimeMillis();
+            beginLoad();
+            Files.createDirectories(target.getParent());
+            Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM images WHERE embedding IS NOT NULL", Long.class);
+            int lists = listCount(total == null ? 0 : total);
+            // 水位取自流式读取之前，读取期间写入的向量由事件或下一次对齐补齐
+            Long watermark = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(MAX(" + EPOCH_MICROS + "), 0) FROM images", Long.class);
+            Segment staging = Segment.create(building, lists);
+            staging.setWatermark(watermark == null ? 0 : watermark);
+            built = staging;
+            transactionTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query("""
+                            SELECT id, width, height, size, vector_send(embedding)
+                            FROM images WHERE embedding IS NOT NULL
+                            """,
+                    rs -> {
+                        try {
+                            staging.append(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getLong(4),
+                                    normalize(ImageEmbeddingRepository.decode(rs.getBytes(5))), false);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+            staging.train(properties.getTrainingSample(), properties.getTrainingIterations(), new Random());
+            install(staging, target);
+            built = null;
+            log.info("向量索引重建完成，{} 个向量，{} 个聚类，耗时 {}ms",
+                    staging.live, staging.lists, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("向量索引重建失败，向量检索继续使用 pgvector: {}", e.getMessage(), e);
+        } finally {
+            if (built != null) {
+                built.close();
+                try {
+                    Files.deleteIfExists(building);
+                } catch (IOException ignored) {
+                    // 下次重建会覆盖
+                }
+            }
+            loading.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenanceExecutor.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 映射已有的索引文件，格式不符时返回 false
+     */
+    boolean open() {
+        Path path = Path.of(properties.getPath());
+        if (!Files.isRegularFile(path) || !loading.compareAndSet(false, true)) return false;
+        try {
+            beginLoad();
+            Segment opened = Segment.open(path);
+            if (opened == null) {
+                abortLoad();
+                return false;
+            }
+            install(opened, null);
+            log.info("已映射向量索引文件，{} 个向量，{} 个聚类", opened.live, opened.lists);
+            return true;
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("向量索引文件加载失败: {}", e.getMessage());
+            return false;
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * 与数据库对齐：应用水位之后写入的向量（其他副本处理的 AI 任务不会在本进程发布事件，进程退出前的增量也可能未落盘），
+     * 剔除数据库中已没有向量的图片。内容未变的向量直接跳过，不产生新的槽位
+     *
+     * @return 对齐后存活向量的数量、最大 ID 与 ID 之和仍与数据库不一致时返回 false，由调用方重建
+     */
+    boolean synchronize() {
+        long watermark;
+        lock.readLock().lock();
+        try {
+            if (segment == null) return false;
+            watermark = segment.watermark;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!loading.compareAndSet(false, true)) return true;
+        try {
+            beginLoad();
+            List<Change> changes = new ArrayList<>();
+            long[] newest = {watermark};
+            RoaringBitmap present = new RoaringBitmap();
+            transactionTemplate.executeWithoutResult(status -> {
+                streamingJdbcTemplate.query("""
+                                SELECT id, width, height, size, vector_send(embedding), %s
+                                FROM images
+                                WHERE embedding IS NOT NULL
+                                  AND embedding_updated_at > TIMESTAMP 'epoch' + ? * INTERVAL '1 microsecond'
+                                """.formatted(EPOCH_MICROS),
+                        rs -> {
+                            changes.add(new Change(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getLong(4),
+                                    normalize(ImageEmbeddingRepository.decode(rs.getBytes(5)))));
+                            newest[0] = Math.max(newest[0], rs.getLong(6));
+                        },
+                        Math.max(0, watermark - CATCH_UP_OVERLAP_MICROS));
+                streamingJdbcTemplate.query("SELECT id FROM images WHERE embedding IS NOT NULL",
+                        rs -> {
+                            present.add((int) rs.getLong(1));
+                        });
+            });
+
+            int updated = 0;
+            int removed;
+            lock.writeLock().lock();
+            try {
+                for (Change change : changes) {
+                    if (segment.holds(change.imageId(), change.width(), change.height(), change.size(), change.vector())) {
+                        continue;
+                    }
+                    change.applyTo(segment);
+                    updated++;
+                }
+                removed = segment.retainAll(present);
+                // 对齐期间到达的事件晚于上面的查询，最后重放
+                for (Change change : pendingChanges) {
+                    if (change.vector() != null && segment.holds(change.imageId(), change.width(), change.height(),
+                            change.size(), change.vector())) {
+                        continue;
+                    }
+                    change.applyTo(segment);
+                }
+                pendingChanges = null;
+                segment.setWatermark(newest[0]);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (updated > 0 || removed > 0) {
+                log.info("向量索引已与数据库对齐，更新 {} 个向量，移除 {} 个向量", updated, removed);
+            }
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("向量索引对齐失败: {}", e.getMessage());
+            return false;
+        } finally {
+            loading.set(false);
+        }
+        return matchesDatabase();
+    }
+
+    /**
+     * 存活向量数、最大 ID 与 ID 之和都与数据库一致时认为索引是最新的
+     */
+    private boolean matchesDatabase() {
+        long[] expected = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*), COALESCE(MAX(id), 0), COALESCE(SUM(id), 0) FROM images WHERE embedding IS NOT NULL",
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)});
+        lock.readLock().lock();
+        try {
+            boolean matches = expected != null && segment != null
+                    && segment.live == expected[0] && segment.maxLiveId() == expected[1]
+                    && segment.liveIdSum() == expected[2];
+            if (!matches) {
+                log.info("向量索引文件与数据库不一致，后台重建");
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void install(Segment loaded, Path moveTo) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // 加载期间到达的增量在新数据上重放，重复应用是幂等的
+            List<Change> replay = pendingChanges == null ? List.of() : pendingChanges;
+            pendingChanges = null;
+            for (Change change : replay) {
+                change.applyTo(loaded);
+            }
+            if (moveTo != null) {
+                // 已映射的区域随 inode 保留，重命名不影响新旧段的读写
+                Files.move(loaded.path, moveTo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                loaded.path = moveTo;
+            }
+            Segment previous = segment;
+            segment = loaded;
+            ready = true;
+            if (previous != null) {
+                previous.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Change change) {
+        if (!properties.isEnabled()) return;
+        lock.writeLock().lock();
+        try {
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+            if (ready) {
+                change.applyTo(segment);
+            }
+        } catch (IOException | RuntimeException e) {
+            ready = false;
+            log.warn("向量索引已停用，等待重建: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void abortLoad() {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int listCount(long vectors) {
+        if (properties.getLists() > 0) return Math.min(properties.getLists(), MAX_LISTS);
+        return (int) Math.max(1, Math.min(MAX_LISTS, Math.round(Math.sqrt(vectors))));
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= scale;
+            }
+        }
+        return normalized;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param vector 归一化后的向量，为 null 表示删除
+     */
+    private record Change(long imageId, int width, int height, long size, float[] vector) {
+        void applyTo(Segment target) throws IOException {
+            if (vector == null) {
+                target.remove(imageId);
+            } else {
+                target.append(imageId, width, height, size, vector, true);
+            }
+        }
+    }
+
+    /**
+     * 一个索引文件：文件头、聚类中心和按块映射的槽位区
+     */
+    static final class Segment {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final int lists;
+        private final long dataOffset;
+        private final List<MappedByteBuffer> chunks = new ArrayList<>();
+        private final float[][] centroids;
+        private final IntList[] postings;
+        private Path path;
+        private int[] slotById = new int[0];
+        private int slots;
+        private long live;
+        private long dead;
+        private long trainedOn;
+        // 已应用到文件的 embedding_updated_at 水位（纪元微秒）
+        long watermark;
+
+        private Segment(Path path, FileChannel channel, int lists) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            this.lists = lists;
+            long centroidBytes = (long) lists * DIMENSIONS * Float.BYTES;
+            // 槽位区按 4K 对齐
+            this.dataOffset = (HEADER_BYTES + centroidBytes + 4095) / 4096 * 4096;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+            this.header.order(ByteOrder.LITTLE_ENDIAN);
+            this.centroids = new float[lists][];
+            this.postings = new IntList[lists];
+            for (int i = 0; i < lists; i++) {
+                postings[i] = new IntList();
+            }
+        }
+
+        static Segment create(Path path, int lists) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Segment created = new Segment(path, channel, lists);
+            created.header.putInt(0, MAGIC);
+            created.header.putInt(4, FORMAT_VERSION);
+            created.header.putInt(8, DIMENSIONS);
+            created.header.putInt(HEADER_LISTS, lists);
+            created.header.putInt(HEADER_SLOTS, 0);
+            created.header.putLong(HEADER_WATERMARK, 0);
+            return created;
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer probe = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(probe, 0);
+            if (probe.getInt(0) != MAGIC || probe.getInt(4) != FORMAT_VERSION || probe.getInt(8) != DIMENSIONS) {
+                channel.close();
+                return null;
+            }
+            int lists = probe.getInt(HEADER_LISTS);
+            int slots = probe.getInt(HEADER_SLOTS);
+            Segment opened = new Segment(path, channel, lists);
+            for (int list = 0; list < lists; list++) {
+                float[] centroid = new float[DIMENSIONS];
+                int base = HEADER_BYTES + list * DIMENSIONS * Float.BYTES;
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    centroid[d] = opened.header.getFloat(base + d * Float.BYTES);
+                }
+                opened.centroids[list] = centroid;
+            }
+            while (opened.chunks.size() * (long) CHUNK_SLOTS < slots) {
+                opened.mapChunk();
+            }
+            opened.slots = slots;
+            for (int slot = 0; slot < slots; slot++) {
+                ByteBuffer chunk = opened.chunk(slot);
+                int base = opened.offset(slot);
+                long imageId = chunk.getLong(base);
+                int list = chunk.getInt(base + 8);
+                if (imageId < 0 || list < 0 || list >= lists) {
+                    opened.dead++;
+                    continue;
+                }
+                int previous = opened.slotOf(imageId);
+                if (previous >= 0) {
+                    opened.dead++;
+                    opened.live--;
+                }
+                opened.bind(imageId, slot);
+                opened.postings[list].add(slot);
+                opened.live++;
+            }
+            opened.trainedOn = opened.live;
+            opened.watermark = opened.header.getLong(HEADER_WATERMARK);
+            return opened;
+        }
+
+        /**
+         * 追加一个槽位；同一图片已有槽位时旧槽位失效。assign 为 false 时暂不归入聚类（重建时训练后统一归类）
+         */
+        void append(long imageId, int width, int height, long size, float[] vector, boolean assign) throws IOException {
+            if (slots == Integer.MAX_VALUE) {
+                throw new IllegalStateException("向量索引槽位已满");
+            }
+            int slot = slots;
+            if (slot >= chunks.size() * CHUNK_SLOTS) {
+                mapChunk();
+            }
+            ByteBuffer chunk = chunk(slot);
+            int base = offset(slot);
+            int list = assign ? nearest(vector) : -1;
+            chunk.putLong(base, imageId);
+            chunk.putInt(base + 8, list);
+            chunk.putInt(base + 12, width);
+            chunk.putInt(base + 16, height);
+            chunk.putLong(base + 24, size);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                chunk.putFloat(base + SLOT_HEADER_BYTES + d * Float.BYTES, vector[d]);
+            }
+            slots++;
+            header.putInt(HEADER_SLOTS, slots);
+
+            int previous = slotOf(imageId);
+            if (previous >= 0) {
+                markDead(previous);
+            } else {
+                live++;
+            }
+            bind(imageId, slot);
+            if (list >= 0) {
+                postings[list].add(slot);
+            }
+        }
+
+        void setWatermark(long watermark) {
+            this.watermark = watermark;
+            header.putLong(HEADER_WATERMARK, watermark);
+        }
+
+        /**
+         * 该图片的存活槽位内容与给定值完全相同
+         */
+        boolean holds(long imageId, int width, int height, long size, float[] vector) {
+            int slot = slotOf(imageId);
+            if (slot < 0) return false;
+            ByteBuffer chunk = chunk(slot);
+            int base = offset(slot);
+            return chunk.getInt(base + 12) == width && chunk.getInt(base + 16) == height
+                    && chunk.getLong(base + 24) == size && Arrays.equals(vector(slot), vector);
+        }
+
+        /**
+         * 移除不在 present 中的图片，返回移除数
+         */
+        int retainAll(RoaringBitmap present) {
+            int removed = 0;
+            for (int id = 0; id < slotById.length; id++) {
+                if (slotById[id] >= 0 && !present.contains(id)) {
+                    remove(id);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        void remove(long imageId) {
+            int slot = slotOf(imageId);
+            if (slot < 0) return;
+            markDead(slot);
+            slotById[(int) imageId] = -1;
+            live--;
+        }
+
+        /**
+         * 抽样训练球面 k-means 聚类中心，并把全部槽位归入最近的聚类
+         */
+        void train(int sampleSize, int iterations, Random random) {
+            List<Integer> liveSlots = new ArrayList<>();
+            for (int slot = 0; slot < slots; slot++) {
+                if (isLive(slot)) liveSlots.add(slot);
+            }
+            int sampleCount = Math.max(1, Math.min(sampleSize, liveSlots.size()));
+            float[][] sample = new float[Math.min(sampleCount, liveSlots.size())][];
+            for (int i = 0; i < sample.length; i++) {
+                // 蓄水池式的部分洗牌，取前 sampleCount 个
+                int pick = i + random.nextInt(liveSlots.size() - i);
+                int slot = liveSlots.get(pick);
+                liveSlots.set(pick, liveSlots.get(i));
+                liveSlots.set(i, slot);
+                sample[i] = vector(slot);
+            }
+            float[][] trained = kMeans(sample, lists, iterations, random);
+            for (int list = 0; list < lists; list++) {
+                centroids[list] = trained[list];
+                int base = HEADER_BYTES + list * DIMENSIONS * Float.BYTES;
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    header.putFloat(base + d * Float.BYTES, trained[list][d]);
+                }
+            }
+            for (IntList posting : postings) {
+                posting.clear();
+            }
+            for (int slot = 0; slot < slots; slot++) {
+                if (!isLive(slot)) continue;
+                int list = nearest(vector(slot));
+                chunk(slot).putInt(offset(slot) + 8, list);
+                postings[list].add(slot);
+            }
+            trainedOn = live;
+        }
+
+        /**
+         * @param maxScan probes 个聚类之外最多继续扫描的槽位数，超过后仍不足 limit 个结果时返回 null
+         */
+        List<VectorHit> search(float[] query, VectorQuery filter, int probes, long maxScan) {
+            int limit = Math.max(1, filter.limit());
+            // 大顶堆保存当前最近的 limit 个结果，堆顶是其中最远的
+            PriorityQueue<VectorHit> best = new PriorityQueue<>(limit + 1, HIT_ORDER.reversed());
+            RoaringBitmap candidates = filter.candidates();
+            if (candidates != null && candidates.getLongCardinality() <= expectedScan(probes)) {
+                // 候选比探测 probes 个聚类要扫描的槽位还少：直接逐个计算，结果是精确的
+                for (int id : candidates) {
+                    int slot = slotOf(Integer.toUnsignedLong(id));
+                    if (slot >= 0) consider(slot, query, filter, best, limit);
+                }
+                return sorted(best);
+            }
+
+            Integer[] order = new Integer[lists];
+            float[] scores = new float[lists];
+            for (int list = 0; list < lists; list++) {
+                order[list] = list;
+                scores[list] = centroids[list] == null ? -1 : dot(query, centroids[list]);
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+
+            long extended = 0;
+            for (int rank = 0; rank < lists; rank++) {
+                if (rank >= probes) {
+                    if (best.size() >= limit) break;
+                    // 尺寸范围、距离阈值或深分页的游标让结果迟迟不满时，不再逐簇扫到底
+                    if (extended >= maxScan) return null;
+                }
+                IntList posting = postings[order[rank]];
+                if (rank >= probes) extended += posting.size;
+                for (int i = 0; i < posting.size; i++) {
+                    consider(posting.values[i], query, filter, best, limit);
+                }
+            }
+            return sorted(best);
+        }
+
+        private void consider(int slot, float[] query, VectorQuery filter, PriorityQueue<VectorHit> best, int limit) {
+            ByteBuffer chunk = chunk(slot);
+            int base = offset(slot);
+            long imageId = chunk.getLong(base);
+            if (imageId < 0 || slotOf(imageId) != slot) return;
+            if (filter.sourceImageId() != null && imageId == filter.sourceImageId()) return;
+            if (filter.candidates() != null && !filter.candidates().contains((int) imageId)) return;
+            if (!filter.width().contains(chunk.getInt(base + 12))
+                    || !filter.height().contains(chunk.getInt(base + 16))
+                    || !filter.size().contains(chunk.getLong(base + 24))) return;
+
+            float similarity = 0;
+            int vectorBase = base + SLOT_HEADER_BYTES;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                similarity += query[d] * chunk.getFloat(vectorBase + d * Float.BYTES);
+            }
+            double distance = 1.0 - similarity;
+            if (filter.maxDistance() != null && distance > filter.maxDistance()) return;
+            if (filter.afterDistance() != null && (distance < filter.afterDistance()
+                    || (distance == filter.afterDistance() && imageId <= filter.afterId()))) return;
+
+            VectorHit hit = new VectorHit(imageId, distance);
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (HIT_ORDER.compare(hit, best.peek()) < 0) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+
+        /**
+         * 探测 probes 个聚类预计扫描的槽位数
+         */
+        private long expectedScan(int probes) {
+            return (live * Math.min(probes, lists) + lists - 1) / lists;
+        }
+
+        private static List<VectorHit> sorted(PriorityQueue<VectorHit> best) {
+            List<VectorHit> hits = new ArrayList<>(best);
+            hits.sort(HIT_ORDER);
+            return hits;
+        }
+
+        int slotOf(long imageId) {
+            if (imageId < 0 || imageId >= slotById.length) return -1;
+            return slotById[(int) imageId];
+        }
+
+        float[] vector(int slot) {
+            ByteBuffer chunk = chunk(slot);
+            int base = offset(slot) + SLOT_HEADER_BYTES;
+            float[] vector = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = chunk.getFloat(base + d * Float.BYTES);
+            }
+            return vector;
+        }
+
+        long liveIdSum() {
+            long sum = 0;
+            for (int id = 0; id < slotById.length; id++) {
+                if (slotById[id] >= 0) sum += id;
+            }
+            return sum;
+        }
+
+        long maxLiveId() {
+            for (int id = slotById.length - 1; id >= 0; id--) {
+                if (slotById[id] >= 0) return id;
+            }
+            return 0;
+        }
+
+        void force() {
+            header.force();
+            chunks.forEach(MappedByteBuffer::force);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 映射区域由 GC 回收
+            }
+        }
+
+        private boolean isLive(int slot) {
+            long imageId = chunk(slot).getLong(offset(slot));
+            return imageId >= 0 && slotOf(imageId) == slot;
+        }
+
+        private void markDead(int slot) {
+            chunk(slot).putLong(offset(slot), -1L);
+            dead++;
+        }
+
+        private void bind(long imageId, int slot) {
+            if (imageId > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("图片 ID 超出向量索引范围: " + imageId);
+            }
+            int id = (int) imageId;
+            if (id >= slotById.length) {
+                int length = Math.max(id + 1, slotById.length * 2);
+                int previous = slotById.length;
+                slotById = Arrays.copyOf(slotById, length);
+                Arrays.fill(slotById, previous, length, -1);
+            }
+            slotById[id] = slot;
+        }
+
+        private int nearest(float[] vector) {
+            int best = 0;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int list = 0; list < lists; list++) {
+                if (centroids[list] == null) continue;
+                float score = dot(vector, centroids[list]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = list;
+                }
+            }
+            return best;
+        }
+
+        private void mapChunk() throws IOException {
+            long position = dataOffset + (long) chunks.size() * CHUNK_SLOTS * SLOT_BYTES;
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) CHUNK_SLOTS * SLOT_BYTES);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunks.add(chunk);
+        }
+
+        private ByteBuffer chunk(int slot) {
+            return chunks.get(slot / CHUNK_SLOTS);
+        }
+
+        private int offset(int slot) {
+            return (slot % CHUNK_SLOTS) * SLOT_BYTES;
+        }
+    }
+
+    private static final Comparator<VectorHit> HIT_ORDER =
+            Comparator.comparingDouble(VectorHit::distance).thenComparingLong(VectorHit::imageId);
+
+    static float[][] kMeans(float[][] sample, int k, int iterations, Random random) {
+        float[][] centroids = new float[k][];
+        for (int i = 0; i < k; i++) {
+            centroids[i] = sample.length == 0 ? new float[DIMENSIONS] : sample[random.nextInt(sample.length)].clone();
+        }
+        if (sample.length == 0) return centroids;
+        int[] assignment = new int[sample.length];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int i = 0; i < sample.length; i++) {
+                int best = 0;
+                float bestScore = Float.NEGATIVE_INFINITY;
+                for (int c = 0; c < k; c++) {
+                    float score = dot(sample[i], centroids[c]);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = c;
+                    }
+                }
+                assignment[i] = best;
+            }
+            float[][] sums = new float[k][DIMENSIONS];
+            int[] counts = new int[k];
+            for (int i = 0; i < sample.length; i++) {
+                float[] sum = sums[assignment[i]];
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    sum[d] += sample[i][d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                // 空聚类重新随机取一个样本作为中心
+                centroids[c] = counts[c] == 0 ? sample[random.nextInt(sample.length)].clone() : normalize(sums[c]);
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * 只追加的 int 列表，避免每个聚类的槽位列表装箱
+     */
+    static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
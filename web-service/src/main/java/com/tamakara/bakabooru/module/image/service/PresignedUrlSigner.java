@@ -0,0 +1,122 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamakara.bakabooru.config.MinioConfig;
+import com.tamakara.bakabooru.config.UrlSigningProperties;
+import io.minio.S3Escaper;
+import io.minio.Signer;
+import io.minio.Time;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预签名 URL 签名器
+ * <p>
+ * 签名时间戳对齐到 {@code app.url-signing.time-bucket}，同一时间桶内同一对象得到逐字节相同的 URL，
+ * 结果按 (对象名, 文件名, 有效期, 时间桶) 缓存，重复请求不再做 HMAC 计算，浏览器和 Nginx 也能命中缓存。
+ * 有效期在调用方要求的基础上再加一个时间桶，保证桶内任意时刻拿到的 URL 至少还有完整有效期。
+ */
+@Component
+public class PresignedUrlSigner {
+
+    private static final Duration MAX_EXPIRY = Duration.ofDays(7);
+    // 内容寻址的对象：同名对象内容永不变化
+    private static final List<String> IMMUTABLE_PREFIXES = List.of("original/", "thumbnail/");
+
+    private final MinioConfig minioConfig;
+    private final Duration timeBucket;
+    private final Clock clock;
+    private final Cache<CacheKey, String> cache;
+
+    @Autowired
+    public PresignedUrlSigner(MinioConfig minioConfig, UrlSigningProperties properties) {
+        this(minioConfig, properties, Clock.systemUTC());
+    }
+
+    PresignedUrlSigner(MinioConfig minioConfig, UrlSigningProperties properties, Clock clock) {
+        if (properties.getTimeBucket().isNegative() || properties.getTimeBucket().isZero()
+                || properties.getTimeBucket().compareTo(MAX_EXPIRY) >= 0) {
+            throw new IllegalArgumentException("app.url-signing.time-bucket must be between 0 and 7 days");
+        }
+        this.minioConfig = minioConfig;
+        this.timeBucket = properties.getTimeBucket();
+        this.clock = clock;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getCacheSize())
+                .expireAfterWrite(timeBucket)
+                .build();
+    }
+
+    public String sign(String objectName, String filename, Duration validity) {
+        long bucketMillis = timeBucket.toMillis();
+        long now = clock.millis();
+        long bucketStart = now - Math.floorMod(now, bucketMillis);
+        return cache.get(new CacheKey(objectName, filename, validity.toSeconds(), bucketStart), this::presign);
+    }
+
+    private String presign(CacheKey key) {
+        try {
+            Duration expiry = Duration.ofSeconds(key.validitySeconds()).plus(timeBucket);
+            if (expiry.compareTo(MAX_EXPIRY) > 0) {
+                expiry = MAX_EXPIRY;
+            }
+
+            HttpUrl.Builder urlBuilder = HttpUrl.get(minioConfig.getEndpoint()).newBuilder()
+                    .addPathSegment(minioConfig.getBucketName())
+                    .addEncodedPathSegments(S3Escaper.encodePath(key.objectName()));
+            responseParams(key).forEach((name, value) ->
+                    urlBuilder.addEncodedQueryParameter(S3Escaper.encode(name), S3Escaper.encode(value)));
+            HttpUrl url = urlBuilder.build();
+
+            ZonedDateTime signedAt = Instant.ofEpochMilli(key.bucketStart()).atZone(Time.UTC);
+            Request request = new Request.Builder()
+                    .url(url)
+                    .get()
+                    .header("Host", hostHeader(url))
+                    .header("x-amz-date", signedAt.format(Time.AMZ_DATE_FORMAT))
+                    .build();
+            HttpUrl signed = Signer.presignV4(request, minioConfig.getRegion(), minioConfig.getAccessKey(),
+                    minioConfig.getSecretKey(), (int) expiry.toSeconds());
+            return signed.toString().replace(minioConfig.getEndpoint(), "/oss");
+        } catch (Exception e) {
+            throw new RuntimeException("获取文件URL失败: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, String> responseParams(CacheKey key) {
+        String encodedFilename = URLEncoder.encode(key.filename(), StandardCharsets.UTF_8)
+                .replace("+", "%20");
+
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("response-content-disposition",
+                "inline; filename=\"" + encodedFilename + "\"; filename*=UTF-8''" + encodedFilename);
+        if (IMMUTABLE_PREFIXES.stream().anyMatch(key.objectName()::startsWith)) {
+            params.put("response-cache-control",
+                    "public, max-age=" + key.validitySeconds() + ", immutable");
+        }
+        return params;
+    }
+
+    private String hostHeader(HttpUrl url) {
+        if (url.port() == HttpUrl.defaultPort(url.scheme())) {
+            return url.host();
+        }
+        return url.host() + ":" + url.port();
+    }
+
+    private record CacheKey(String objectName, String filename, long validitySeconds, long bucketStart) {
+    }
+}
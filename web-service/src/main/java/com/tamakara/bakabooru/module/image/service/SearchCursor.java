@@ -0,0 +1,63 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * 搜索游标（Keyset 分页）
+ * <p>
+ * 记录上一页最后一行的排序键与 {@code i.id}，下一页以 {@code (key, id) > (:cursorKey, :cursorId)}
+ * 的行比较继续扫描，避免 OFFSET 丢弃前面所有行。对客户端而言游标是不透明字符串。
+ *
+ * @param sort 排序签名（排序字段 + 方向，随机排序还包含种子），用于拒绝跨排序复用的游标
+ * @param key  排序键的字符串形式，按排序类型解析
+ * @param id   最后一行的图片 ID
+ * @param rank 截至该行已返回的行数；只返回前 N 个近邻的 HNSW 扫描据此放大 ef_search，旧版本游标为 0
+ */
+public record SearchCursor(String sort, String key, long id, long rank) {
+
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_RANK = 1;
+
+    public SearchCursor(String sort, String key, long id) {
+        this(sort, key, id, 0);
+    }
+
+    public String encode() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(buffer)) {
+                out.writeByte(VERSION);
+                out.writeUTF(sort);
+                out.writeUTF(key);
+                out.writeLong(id);
+                out.writeLong(rank);
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("游标编码失败", e);
+        }
+    }
+
+    public static SearchCursor decode(String token) {
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(token.trim());
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                byte version = in.readByte();
+                if (version != VERSION && version != VERSION_WITHOUT_RANK) {
+                    throw new IllegalArgumentException("不支持的游标版本");
+                }
+                String sort = in.readUTF();
+                String key = in.readUTF();
+                long id = in.readLong();
+                return new SearchCursor(sort, key, id, version == VERSION ? in.readLong() : 0);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的搜索游标", e);
+        }
+    }
+}
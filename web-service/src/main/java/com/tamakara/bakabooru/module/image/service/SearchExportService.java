@@ -0,0 +1,239 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamakara.bakabooru.config.SearchExportProperties;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 检索结果流式导出
+ * <p>
+ * 与分页检索共用 {@link ImageSearchService#buildFilter} 的过滤条件，在只读事务中以固定 fetchSize 打开
+ * PostgreSQL 服务端游标，逐行写出并定期刷新。写出阻塞时不再读取下一批，慢客户端会把速度传导回数据库，
+ * 内存占用与结果集大小无关。
+ * <p>
+ * HNSW 索引扫描至多返回 ef_search 行，按向量距离排序的导出会被悄悄截断，因此这类导出在事务内关闭索引扫描，
+ * 按距离精确排序并限制在 max-vector-rows 行以内，PostgreSQL 以有界的 top-N 排序完成。
+ * 并发数由调用方在生成向量、打开事务之前通过 {@link #acquire()} 占用。
+ */
+@Slf4j
+@Service
+public class SearchExportService {
+
+    static final String[] COLUMNS = {
+            "id", "hash", "title", "file_name", "extension", "width", "height", "size", "ai_status", "view_count", "created_at"
+    };
+
+    private final ImageSearchService imageSearchService;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final SearchExportProperties properties;
+    private final Semaphore permits;
+
+    public SearchExportService(ImageSearchService imageSearchService, DataSource dataSource, ObjectMapper objectMapper,
+                               SearchExportProperties properties) {
+        this.imageSearchService = imageSearchService;
+        // 独立的 JdbcTemplate 只为设置 fetchSize，仍通过 DataSourceUtils 参与当前事务
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(Math.max(1, properties.getFetchSize()));
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.permits = new Semaphore(Math.max(1, properties.getMaxConcurrent()));
+    }
+
+    /**
+     * 占用一个导出名额，已达上限时抛出 {@link ExportBusyException}。导出结束后必须调用 {@link #release()}
+     */
+    public void acquire() {
+        if (!permits.tryAcquire()) {
+            throw new ExportBusyException();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * 导出全部匹配行，返回写出的行数。调用方需先通过 {@link #acquire()} 占用名额。
+     * 客户端断开时抛出 {@link UncheckedIOException}，游标随事务关闭
+     */
+    @Transactional(readOnly = true)
+    public long export(SearchDto searchDto, ExportFormat format, OutputStream outputStream) {
+        long startTime = System.currentTimeMillis();
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+            RowWriter rowWriter = format == ExportFormat.CSV ? new CsvRowWriter(writer) : new JsonRowWriter(writer);
+            rowWriter.begin();
+
+            long[] rows = {0};
+            ImageSearchService.SearchFilter filter = imageSearchService.buildFilter(searchDto);
+            if (!filter.empty()) {
+                String limit = "";
+                if (imageSearchService.vectorOrdered(searchDto)) {
+                    // 只在本事务内生效：不走 HNSW，按距离精确排序
+                    jdbcTemplate.getJdbcTemplate().execute("SET LOCAL enable_indexscan = off");
+                    limit = "LIMIT " + Math.max(1, properties.getMaxVectorRows());
+                }
+                String sql = """
+                        SELECT i.id, i.hash, i.title, i.file_name, i.extension, i.width, i.height, i.size,
+                               i.ai_status, i.view_count, i.created_at
+                        FROM images i
+                        WHERE %s
+                        ORDER BY %s
+                        %s
+                        """.formatted(filter.where(), imageSearchService.exportOrderBy(searchDto), limit);
+                int flushRows = Math.max(1, properties.getFlushRows());
+                jdbcTemplate.query(sql, filter.params(), rs -> {
+                    try {
+                        rowWriter.write(rs);
+                        if (++rows[0] % flushRows == 0) {
+                            writer.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            rowWriter.end();
+            writer.flush();
+            log.info("检索导出完成 - 格式: {}, 行数: {}, 耗时: {}ms", format.extension(), rows[0],
+                    System.currentTimeMillis() - startTime);
+            return rows[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface RowWriter {
+        default void begin() throws IOException {
+        }
+
+        void write(ResultSet rs) throws SQLException, IOException;
+
+        default void end() throws IOException {
+        }
+    }
+
+    /**
+     * 每行一个 JSON 对象，直接用流式生成器写出，不构造中间对象
+     */
+    private final class JsonRowWriter implements RowWriter {
+        private final Writer writer;
+        private final JsonGenerator generator;
+
+        private JsonRowWriter(Writer writer) throws IOException {
+            this.writer = writer;
+            this.generator = objectMapper.getFactory().createGenerator(writer);
+            // 生成器与外层共用同一个 Writer：不关闭响应流，逐行 flush 也只落到缓冲区，由外层按批刷新
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            // 行之间由换行分隔，去掉生成器默认插入的空格
+            this.generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong("id"));
+            generator.writeStringField("hash", rs.getString("hash"));
+            generator.writeStringField("title", rs.getString("title"));
+            generator.writeStringField("fileName", rs.getString("file_name"));
+            generator.writeStringField("extension", rs.getString("extension"));
+            generator.writeNumberField("width", rs.getInt("width"));
+            generator.writeNumberField("height", rs.getInt("height"));
+            generator.writeNumberField("size", rs.getLong("size"));
+            generator.writeStringField("aiStatus", rs.getString("ai_status"));
+            generator.writeNumberField("viewCount", rs.getLong("view_count"));
+            generator.writeStringField("createdAt", timestamp(rs.getTimestamp("created_at")));
+            generator.writeEndObject();
+            generator.flush();
+            writer.write('\n');
+        }
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        private CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            writer.write(Long.toString(rs.getLong("id")));
+            writer.write(',');
+            writer.write(escapeCsv(rs.getString("hash")));
+            writer.write(',');
+            writer.write(escapeCsv(rs.getString("title")));
+            writer.write(',');
+            writer.write(escapeCsv(rs.getString("file_name")));
+            writer.write(',');
+            writer.write(escapeCsv(rs.getString("extension")));
+            writer.write(',');
+            writer.write(Integer.toString(rs.getInt("width")));
+            writer.write(',');
+            writer.write(Integer.toString(rs.getInt("height")));
+            writer.write(',');
+            writer.write(Long.toString(rs.getLong("size")));
+            writer.write(',');
+            writer.write(escapeCsv(rs.getString("ai_status")));
+            writer.write(',');
+            writer.write(Long.toString(rs.getLong("view_count")));
+            writer.write(',');
+            writer.write(timestamp(rs.getTimestamp("created_at")));
+            writer.write("\r\n");
+        }
+    }
+
+    private static String timestamp(Timestamp value) {
+        return value == null ? "" : value.toLocalDateTime().toString();
+    }
+
+    /**
+     * RFC 4180：含逗号、引号或换行的字段整体加引号，引号加倍
+     */
+    static String escapeCsv(String value) {
+        if (value == null) return "";
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        return quote ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+
+    /**
+     * 同时进行的导出数已达上限
+     */
+    public static class ExportBusyException extends RuntimeException {
+        public ExportBusyException() {
+            super("导出任务过多，请稍后重试");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SearchFacetProperties;
+import com.tamakara.bakabooru.module.gallery.dto.TagFacetsDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
+import com.tamakara.bakabooru.module.tag.service.TagPostingIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 检索结果的标签分面统计
+ * <p>
+ * 只有标签条件时直接在位图索引上求交计数（精确且不访问数据库）；其余情况先用有界 COUNT 判断结果集大小，
+ * 不超过 {@code app.search.facets.exact-limit} 时精确 GROUP BY，否则对 images 做 TABLESAMPLE 抽样并按比例放大。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SearchFacetService {
+
+    private final ImageSearchService imageSearchService;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TagPostingIndex tagPostingIndex;
+    private final TagDictionary tagDictionary;
+    private final SearchFacetProperties properties;
+
+    @Transactional(readOnly = true)
+    public TagFacetsDto facets(SearchDto searchDto, Integer requestedSize) {
+        long startTime = System.currentTimeMillis();
+        int size = requestedSize == null || requestedSize <= 0
+                ? properties.getDefaultSize()
+                : Math.min(requestedSize, properties.getMaxSize());
+
+        ImageSearchService.SearchFilter filter = imageSearchService.buildFilter(searchDto);
+        if (filter.empty()) {
+            return group(Map.of(), size, true, 1.0);
+        }
+
+        TagFacetsDto result = countFromIndex(filter, size);
+        String source = "index";
+        if (result == null) {
+            result = countFromDatabase(filter, size);
+            source = result.getExact() ? "exact" : "sample";
+        }
+        log.info("分面统计完成 - 耗时: {}ms, 方式: {}, 抽样比例: {}",
+                System.currentTimeMillis() - startTime, source, result.getSampleRate());
+        return result;
+    }
+
+    private TagFacetsDto countFromIndex(ImageSearchService.SearchFilter filter, int size) {
+        if (!filter.tagOnly()) return null;
+        if (filter.tagCandidates() == null && !filter.unfiltered()) return null;
+        Map<Long, Long> counts = tagPostingIndex.countTags(filter.tagCandidates());
+        return counts == null ? null : group(counts, size, true, 1.0);
+    }
+
+    private TagFacetsDto countFromDatabase(ImageSearchService.SearchFilter filter, int size) {
+        MapSqlParameterSource params = filter.params();
+        params.addValue("facetProbe", properties.getExactLimit() + 1);
+        Long matched = jdbcTemplate.queryForObject("""
+                SELECT COUNT(*) FROM (SELECT 1 FROM images i WHERE %s LIMIT :facetProbe) matched
+                """.formatted(filter.where()), params, Long.class);
+
+        double samplePercent = 100.0;
+        if (matched != null && matched > properties.getExactLimit()) {
+            samplePercent = samplePercent(properties.getSampleRows());
+        }
+
+        String sampleClause = samplePercent < 100.0 ? "TABLESAMPLE SYSTEM (CAST(:samplePercent AS real))" : "";
+        params.addValue("samplePercent", samplePercent);
+        Map<Long, Long> counts = new HashMap<>();
+        double scale = 100.0 / samplePercent;
+        jdbcTemplate.query("""
+                SELECT itr.tag_id, COUNT(*) AS image_count
+                FROM images i %s
+                JOIN image_tag_relation itr ON itr.image_id = i.id
+                WHERE %s
+                GROUP BY itr.tag_id
+                """.formatted(sampleClause, filter.where()), params, rs -> {
+            counts.put(rs.getLong("tag_id"), Math.round(rs.getLong("image_count") * scale));
+        });
+        return group(counts, size, samplePercent >= 100.0, samplePercent / 100.0);
+    }
+
+    /**
+     * 按统计信息中的表行数换算抽样百分比；表从未 ANALYZE 时退化为全量统计
+     */
+    private double samplePercent(int sampleRows) {
+        Double reltuples = jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT reltuples FROM pg_class WHERE oid = 'images'::regclass", Double.class);
+        if (reltuples == null || reltuples <= sampleRows) {
+            return 100.0;
+        }
+        return Math.max(0.01, 100.0 * sampleRows / reltuples);
+    }
+
+    TagFacetsDto group(Map<Long, Long> counts, int size, boolean exact, double sampleRate) {
+        Map<String, List<TagFacetsDto.TagCount>> types = new TreeMap<>();
+        counts.forEach((tagId, count) -> {
+            TagDto tag = tagDictionary.get(tagId);
+            if (tag == null) return;
+            types.computeIfAbsent(tag.getType(), type -> new ArrayList<>())
+                    .add(new TagFacetsDto.TagCount(tagId, tag.getName(), count));
+        });
+        Comparator<TagFacetsDto.TagCount> order = Comparator.comparing(TagFacetsDto.TagCount::getCount).reversed()
+                .thenComparing(TagFacetsDto.TagCount::getName);
+        types.replaceAll((type, tags) -> tags.stream().sorted(order).limit(size).toList());
+        return new TagFacetsDto(exact, sampleRate, types);
+    }
+}
@@ -0,0 +1,183 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SlowSearchProperties;
+import com.tamakara.bakabooru.module.gallery.dto.SlowSearchDto;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Array;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 检索分阶段计时与慢检索日志
+ * <p>
+ * 每次检索结束时把 {@link SearchTrace} 中的各阶段耗时记入 bakabooru.search.stage.duration；
+ * 总耗时超过 app.search.slow.threshold 的检索连同规整后的 SQL、参数与检索形状写入固定容量的环形缓冲区。
+ * 开启 explain 时按最小间隔挑选慢检索，在后台只读事务中重放 EXPLAIN (ANALYZE, BUFFERS) 并补入对应记录。
+ */
+@Slf4j
+@Component
+public class SearchProfiler {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final int MAX_ARRAY_ELEMENTS = 20;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final VectorSearchPlanner vectorSearchPlanner;
+    private final SlowSearchProperties properties;
+    private final BusinessMetrics metrics;
+    private final ThreadPoolExecutor explainExecutor;
+    private final AtomicLong lastExplainAt = new AtomicLong(Long.MIN_VALUE);
+
+    private final SlowSearchDto[] entries;
+    private int next;
+    private int count;
+
+    public SearchProfiler(NamedParameterJdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                          VectorSearchPlanner vectorSearchPlanner, SlowSearchProperties properties,
+                          BusinessMetrics metrics) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.vectorSearchPlanner = vectorSearchPlanner;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.entries = new SlowSearchDto[Math.max(1, properties.getCapacity())];
+        // 同一时刻至多一个 EXPLAIN 在执行或排队，其余直接丢弃
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "search-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * 检索结束（无论成功与否）时调用
+     */
+    public void complete(String type, String result, SearchTrace trace, long elapsedNanos) {
+        trace.stages().forEach(metrics::searchStage);
+        if (elapsedNanos < properties.getThreshold().toNanos()) return;
+
+        metrics.slowSearch(type);
+        Map<String, Double> stagesMs = new LinkedHashMap<>();
+        trace.stages().forEach((stage, nanos) -> stagesMs.put(stage, toMillis(nanos)));
+        SlowSearchDto entry = new SlowSearchDto(LocalDateTime.now(), type, result, toMillis(elapsedNanos), stagesMs,
+                trace.sql() == null ? null : normalize(trace.sql()),
+                trace.params() == null ? null : summarize(trace.params()), trace.shape(), null);
+        add(entry);
+        log.warn("慢检索 - 类型: {}, 耗时: {}ms, 阶段: {}, 形状: {}", type, entry.getTotalMs(), stagesMs, trace.shape());
+
+        if (properties.isExplain() && trace.sql() != null && claimExplain()) {
+            String sql = trace.sql();
+            MapSqlParameterSource params = trace.params();
+            VectorSearchPlanner.VectorPlan vectorPlan = trace.vectorPlan();
+            explainExecutor.execute(() -> explain(entry, sql, params, vectorPlan));
+        }
+    }
+
+    public synchronized List<SlowSearchDto> recent() {
+        List<SlowSearchDto> recent = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            SlowSearchDto entry = entries[(next - i + entries.length) % entries.length];
+            recent.add(new SlowSearchDto(entry.getTime(), entry.getType(), entry.getResult(), entry.getTotalMs(),
+                    entry.getStagesMs(), entry.getSql(), entry.getParams(), entry.getShape(), entry.getExplain()));
+        }
+        return recent;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(entries, null);
+        next = 0;
+        count = 0;
+    }
+
+    private synchronized void add(SlowSearchDto entry) {
+        entries[next] = entry;
+        next = (next + 1) % entries.length;
+        count = Math.min(count + 1, entries.length);
+    }
+
+    private boolean claimExplain() {
+        long now = System.nanoTime();
+        long last = lastExplainAt.get();
+        return (last == Long.MIN_VALUE || now - last >= properties.getExplainInterval().toNanos())
+                && lastExplainAt.compareAndSet(last, now);
+    }
+
+    /**
+     * EXPLAIN ANALYZE 会真正执行查询，只在新的只读事务中运行，并恢复原检索设置的 pgvector 参数
+     */
+    private void explain(SlowSearchDto entry, String sql, MapSqlParameterSource params,
+                         VectorSearchPlanner.VectorPlan vectorPlan) {
+        try {
+            String plan = transactionTemplate.execute(status -> {
+                jdbcTemplate.getJdbcTemplate().execute(
+                        "SET LOCAL statement_timeout = " + Math.max(1, properties.getExplainTimeout().toMillis()));
+                if (vectorPlan != null) {
+                    vectorSearchPlanner.prepare(vectorPlan);
+                }
+                return String.join("\n", jdbcTemplate.queryForList("EXPLAIN (ANALYZE, BUFFERS) " + sql, params,
+                        String.class));
+            });
+            synchronized (this) {
+                entry.setExplain(plan);
+            }
+        } catch (Exception e) {
+            log.warn("慢检索 EXPLAIN 失败: {}", e.getMessage());
+        }
+    }
+
+    static String normalize(String sql) {
+        return WHITESPACE.matcher(sql).replaceAll(" ").trim();
+    }
+
+    static Map<String, Object> summarize(MapSqlParameterSource params) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        params.getValues().forEach((name, value) -> summary.put(name, summarizeValue(value)));
+        return summary;
+    }
+
+    private static Object summarizeValue(Object value) {
+        if (value == null || !value.getClass().isArray()) return value;
+        int length = Array.getLength(value);
+        // 查询向量对排查没有意义，只保留维度
+        if (value instanceof float[]) return "float[" + length + "]";
+        StringBuilder text = new StringBuilder(value.getClass().getComponentType().getSimpleName())
+                .append('[').append(length).append("] [");
+        for (int i = 0; i < Math.min(length, MAX_ARRAY_ELEMENTS); i++) {
+            if (i > 0) text.append(", ");
+            text.append(Array.get(value, i));
+        }
+        if (length > MAX_ARRAY_ELEMENTS) text.append(", ...");
+        return text.append(']').toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,185 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamakara.bakabooru.config.SearchCacheProperties;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检索结果缓存
+ * <p>
+ * 键为 (图库版本号, 规范化检索参数)，图库任何变化都会让旧结果失效。按条目数与估算字节数双重限制容量，
+ * 未命中且有下一页时在后台预取下一页。缓存中的图片 URL 是按时间桶签名的，TTL 需小于其有效期。
+ */
+@Slf4j
+@Component
+public class SearchResultCache {
+
+    private final ImageSearchService imageSearchService;
+    private final LibraryGeneration libraryGeneration;
+    private final BusinessMetrics metrics;
+    private final SearchCacheProperties properties;
+    private final Cache<String, Entry> cache;
+    private final ThreadPoolExecutor prefetchExecutor;
+
+    private volatile long lastGeneration;
+
+    public SearchResultCache(ImageSearchService imageSearchService, LibraryGeneration libraryGeneration,
+                             BusinessMetrics metrics, SearchCacheProperties properties) {
+        this.imageSearchService = imageSearchService;
+        this.libraryGeneration = libraryGeneration;
+        this.metrics = metrics;
+        this.properties = properties;
+        // 每个条目至少占 maxBytes / maxEntries 的权重，同时满足条目数与内存两个上限
+        int minimumWeight = (int) Math.max(1, properties.getMaxBytes() / Math.max(1, properties.getMaxEntries()));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxBytes())
+                .weigher((String key, Entry entry) -> Math.max(minimumWeight, entry.bytes()))
+                .expireAfterWrite(properties.getTtl())
+                .build();
+        this.prefetchExecutor = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(16), runnable -> {
+            Thread thread = new Thread(runnable, "search-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    public SearchResultDto<ImageThumbnailDto> search(SearchDto searchDto) {
+        if (!properties.isEnabled()) {
+            return imageSearchService.searchImages(searchDto);
+        }
+
+        long generation = currentGeneration();
+        String key = cacheKey(generation, searchDto);
+        Entry cached = cache.getIfPresent(key);
+        if (cached != null) {
+            metrics.searchCache(cached.prefetched() ? "prefetch_hit" : "hit");
+            metrics.searchCacheSaved(cached.computeNanos());
+            return copy(cached.result());
+        }
+
+        metrics.searchCache("miss");
+        long startedAt = System.nanoTime();
+        SearchResultDto<ImageThumbnailDto> result = imageSearchService.searchImages(searchDto);
+        cache.put(key, new Entry(copy(result), System.nanoTime() - startedAt, estimateBytes(result), false));
+
+        if (properties.isPrefetch() && Boolean.TRUE.equals(result.getHasNext()) && result.getNextCursor() != null) {
+            SearchDto next = new SearchDto();
+            BeanUtils.copyProperties(searchDto, next);
+            next.setPage(Math.max(0, searchDto.getPage()) + 1);
+            next.setCursor(result.getNextCursor());
+            prefetchExecutor.execute(() -> prefetch(generation, next));
+        }
+        return result;
+    }
+
+    private void prefetch(long generation, SearchDto searchDto) {
+        String key = cacheKey(generation, searchDto);
+        if (generation != libraryGeneration.current() || cache.getIfPresent(key) != null) return;
+        try {
+            long startedAt = System.nanoTime();
+            SearchResultDto<ImageThumbnailDto> result = imageSearchService.searchImages(searchDto);
+            cache.put(key, new Entry(result, System.nanoTime() - startedAt, estimateBytes(result), true));
+            metrics.searchCache("prefetched");
+        } catch (Exception e) {
+            log.debug("预取下一页失败: {}", e.getMessage());
+        }
+    }
+
+    private long currentGeneration() {
+        long generation = libraryGeneration.current();
+        if (generation != lastGeneration) {
+            // 旧版本的键不会再被访问，直接清空释放内存
+            lastGeneration = generation;
+            cache.invalidateAll();
+        }
+        return generation;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 规范化检索参数：标签排序，向量取摘要，避免把 512 维向量放进键里
+     */
+    static String cacheKey(long generation, SearchDto dto) {
+        StringBuilder key = new StringBuilder(256).append(generation);
+        append(key, dto.getKeyword() == null ? null : dto.getKeyword().trim().toLowerCase());
+        append(key, dto.getRandomSeed());
+        append(key, dto.getPage());
+        append(key, dto.getCursor());
+        append(key, dto.getSize());
+        append(key, dto.getSortProperty());
+        append(key, dto.getSortDirection());
+        append(key, dto.getAiStatus());
+        append(key, dto.getWidthMin());
+        append(key, dto.getWidthMax());
+        append(key, dto.getHeightMin());
+        append(key, dto.getHeightMax());
+        append(key, dto.getSizeMin());
+        append(key, dto.getSizeMax());
+        append(key, dto.getDistanceThreshold());
+        append(key, sorted(dto.getPositiveTags()));
+        append(key, sorted(dto.getNegativeTags()));
+        append(key, dto.getSourceImageId());
+        append(key, digest(dto.getEmbedding()));
+        return key.toString();
+    }
+
+    private static void append(StringBuilder key, Object value) {
+        // 分隔符使用控制字符，用户输入中不会出现
+        key.append('\u0001').append(Objects.toString(value, ""));
+    }
+
+    private static String sorted(Set<String> tags) {
+        return tags == null || tags.isEmpty() ? null : String.join("\u0002", new TreeSet<>(tags));
+    }
+
+    private static String digest(float[] embedding) {
+        if (embedding == null || embedding.length == 0) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES);
+        buffer.asFloatBuffer().put(embedding);
+        return DigestUtils.sha256Hex(buffer.array());
+    }
+
+    private static SearchResultDto<ImageThumbnailDto> copy(SearchResultDto<ImageThumbnailDto> result) {
+        return new SearchResultDto<>(result.getContent(), result.getPage(), result.getSize(), result.getHasNext(),
+                result.getNextCursor(), null, result.getVectorStrategy());
+    }
+
+    private static int estimateBytes(SearchResultDto<ImageThumbnailDto> result) {
+        long bytes = 256;
+        for (ImageThumbnailDto item : result.getContent()) {
+            bytes += 96L + 2L * (length(item.getTitle()) + length(item.getThumbnailUrl())
+                    + length(item.getImageUrl()) + length(item.getAiStatus()));
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private record Entry(SearchResultDto<ImageThumbnailDto> result, long computeNanos, int bytes, boolean prefetched) {
+    }
+}
@@ -0,0 +1,33 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamakara.bakabooru.config.SearchCacheProperties;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * 检索 SQL 形状的命中统计
+ * <p>
+ * 只记录最近见过的 SQL 文本，不缓存任何内容：pgjdbc 按 SQL 文本在每个连接上复用服务端预编译语句，
+ * 本进程见过的形状大致就是驱动能复用的形状。容量与 {@code preparedStatementCacheQueries} 一致，
+ * 未命中比例持续偏高说明形状过多或其中混入了参数值。
+ */
+@Component
+public class SearchShapeStats {
+
+    private final Cache<String, Boolean> seen;
+    private final BusinessMetrics businessMetrics;
+
+    public SearchShapeStats(SearchCacheProperties properties, BusinessMetrics businessMetrics) {
+        this.seen = Caffeine.newBuilder()
+                .maximumSize(properties.getShapeEntries())
+                .build();
+        this.businessMetrics = businessMetrics;
+    }
+
+    public void record(String sql) {
+        boolean hit = seen.asMap().putIfAbsent(sql, Boolean.TRUE) != null;
+        businessMetrics.searchPlanCache(hit ? "hit" : "miss");
+    }
+}
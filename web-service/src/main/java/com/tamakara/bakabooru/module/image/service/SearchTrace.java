@@ -0,0 +1,108 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.module.image.service.VectorSearchPlanner.VectorPlan;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单次检索的分阶段耗时与执行的 SQL
+ * <p>
+ * 由检索入口（SearchService）在调用线程上开启，检索各步骤通过 {@link #current()} 取到后累计耗时；
+ * 未开启时（后台预取、导出等）current() 为 null，各步骤不做任何记录。
+ */
+public final class SearchTrace implements AutoCloseable {
+
+    public static final String PARSE = "parse";
+    public static final String EMBEDDING = "embedding";
+    public static final String FILTER = "filter";
+    public static final String PLAN = "plan";
+    public static final String ENGINE = "engine";
+    public static final String SQL = "sql";
+    public static final String MAPPING = "mapping";
+    public static final String URL_SIGNING = "url_signing";
+    public static final String FACETS = "facets";
+
+    private static final ThreadLocal<SearchTrace> CURRENT = new ThreadLocal<>();
+
+    private final SearchTrace previous;
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    // 本次 JDBC 查询期间逐行累计的映射与签名耗时，查询结束时从总耗时中扣除
+    private long rowNanos;
+    private String sql;
+    private MapSqlParameterSource params;
+    private String shape;
+    private VectorPlan vectorPlan;
+
+    private SearchTrace(SearchTrace previous) {
+        this.previous = previous;
+    }
+
+    public static SearchTrace begin() {
+        SearchTrace trace = new SearchTrace(CURRENT.get());
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    public static SearchTrace current() {
+        return CURRENT.get();
+    }
+
+    public void stage(String stage, long nanos) {
+        stages.merge(stage, Math.max(0, nanos), Long::sum);
+    }
+
+    /**
+     * 一行结果的映射与 URL 签名耗时
+     */
+    void row(long mappingNanos, long signingNanos) {
+        stage(MAPPING, mappingNanos);
+        stage(URL_SIGNING, signingNanos);
+        rowNanos += mappingNanos + signingNanos;
+    }
+
+    /**
+     * 一次 JDBC 查询的总耗时，扣除其间的行映射与签名后计入 sql
+     */
+    void jdbc(long elapsedNanos) {
+        stage(SQL, elapsedNanos - rowNanos);
+        rowNanos = 0;
+    }
+
+    void query(String sql, MapSqlParameterSource params, String shape, VectorPlan vectorPlan) {
+        this.sql = sql;
+        this.params = params;
+        this.shape = shape;
+        this.vectorPlan = vectorPlan;
+    }
+
+    public Map<String, Long> stages() {
+        return stages;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public MapSqlParameterSource params() {
+        return params;
+    }
+
+    public String shape() {
+        return shape;
+    }
+
+    VectorPlan vectorPlan() {
+        return vectorPlan;
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -3,34 +3,41 @@ package com.tamakara.bakabooru.module.image.service;
 import com.tamakara.bakabooru.config.MinioConfig;
 import io.minio.*;
 import io.minio.errors.*;
-import io.minio.http.Method;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.io.IOUtils;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 
 @Service
 @RequiredArgsConstructor
 public class StorageService {
 
+    private static final long STREAM_PART_SIZE = 10L * 1024 * 1024;
+
     private final MinioClient minioClient;
     private final MinioConfig minioConfig;
+    private final PresignedUrlSigner urlSigner;
 
+    /**
+     * 长度未知（size < 0）时按 10 MiB 分片上传
+     */
     public void uploadStream(String objectName, InputStream inputStream, long size, String contentType) {
         try {
             minioClient.putObject(
                     PutObjectArgs.builder()
                             .bucket(minioConfig.getBucketName())
                             .object(objectName)
-                            .stream(inputStream, size, -1)
+                            .stream(inputStream, size, size < 0 ? STREAM_PART_SIZE : -1)
                             .contentType(contentType == null ? "application/octet-stream" : contentType)
                             .build()
             );
@@ -61,7 +68,7 @@ public class StorageService {
     /**
      * 根据文件名扩展名推断 Content-Type
      */
-    private String detectContentType(String fileName) {
+    String detectContentType(String fileName) {
         if (fileName == null) {
             return "application/octet-stream";
         }
@@ -158,28 +165,44 @@ public class StorageService {
         }
     }
 
-    public String getFileUrl(String objectName, String filename, int expiresHours) {
-        try {
-            String encodedFilename = URLEncoder.encode(filename, StandardCharsets.UTF_8)
-                    .replace("+", "%20");
-
-            Map<String, String> extraParams = new HashMap<>();
-
-            extraParams.put("response-content-disposition",
-                    "inline; filename=\"" + encodedFilename + "\"; filename*=UTF-8''" + encodedFilename);
-
-            GetPresignedObjectUrlArgs args = GetPresignedObjectUrlArgs.builder()
-                    .bucket(minioConfig.getBucketName())
-                    .object(objectName)
-                    .method(Method.GET)
-                    .expiry(expiresHours, TimeUnit.HOURS)
-                    .extraQueryParams(extraParams)
-                    .build();
-            String internalUrl = minioClient.getPresignedObjectUrl(args);
-            String externalUrl = internalUrl.replace(minioConfig.getEndpoint(), "/oss");
-            return externalUrl;
+    /**
+     * 读取整个对象供解析与解码共用：不超过 heapLimit 时读入堆内存，
+     * 否则下载到临时文件后只读映射并立即删除文件（映射在缓冲区被回收前保持有效）
+     *
+     * @param size 对象的预期大小，与实际读到的长度不一致时报错
+     */
+    public ByteBuffer getBuffer(String objectName, long size, long heapLimit) {
+        try (InputStream inputStream = minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(minioConfig.getBucketName())
+                        .object(objectName)
+                        .build()
+        )) {
+            if (size >= 0 && size <= heapLimit) {
+                byte[] bytes = IOUtils.toByteArray(inputStream, size);
+                if (inputStream.read() != -1) {
+                    throw new IOException("对象长度超过预期的 " + size + " 字节");
+                }
+                return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            }
+            Path tempFile = Files.createTempFile("minio-", ".tmp");
+            try {
+                Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ)) {
+                    if (size >= 0 && channel.size() != size) {
+                        throw new IOException("对象长度 " + channel.size() + " 与预期的 " + size + " 字节不一致");
+                    }
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
         } catch (Exception e) {
-            throw new RuntimeException("获取文件URL失败: " + e.getMessage());
+            throw new RuntimeException("获取文件失败 [ " + objectName + "]: " + e.getMessage(), e);
         }
     }
+
+    public String getFileUrl(String objectName, String filename, int expiresHours) {
+        return urlSigner.sign(objectName, filename, Duration.ofHours(expiresHours));
+    }
 }
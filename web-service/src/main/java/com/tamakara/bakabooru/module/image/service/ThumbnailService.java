@@ -1,11 +1,23 @@
 package com.tamakara.bakabooru.module.image.service;
 
 import com.tamakara.bakabooru.config.ThumbnailProperties;
+import com.tamakara.bakabooru.module.gallery.model.ByteBufferImageInputStream;
+import com.tamakara.bakabooru.module.gallery.model.ImageInfo;
 import lombok.RequiredArgsConstructor;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 @Service
 @RequiredArgsConstructor
@@ -16,22 +28,80 @@ public class ThumbnailService {
     private final ThumbnailProperties thumbnailProperties;
 
     public void generateAndUploadThumbnail(File sourceFile, String hash) {
-        File thumbnailFile = null;
+        byte[] thumbnail;
         try {
-            thumbnailFile = File.createTempFile(hash + "-thumb-", "." + thumbnailProperties.getFormat());
-            Thumbnails.of(sourceFile)
-                    .size(thumbnailProperties.getMaxSize(), thumbnailProperties.getMaxSize())
-                    .outputFormat(thumbnailProperties.getFormat())
-                    .outputQuality(thumbnailProperties.getQuality())
-                    .toFile(thumbnailFile);
-
-            storageService.uploadFile(imageUrlService.getThumbnailObjectName(hash), thumbnailFile);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            thumbnailBuilder(Thumbnails.of(sourceFile)).toOutputStream(output);
+            thumbnail = output.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException("生成缩略图失败: " + e.getMessage(), e);
-        } finally {
-            if (thumbnailFile != null && thumbnailFile.exists()) {
-                thumbnailFile.delete();
+        }
+        uploadThumbnail(thumbnail, hash);
+    }
+
+    /**
+     * 在同一份字节上完成文件头解析、动图检查、像素解码与缩略图编码：解码器只打开一次，
+     * 缩略图编码到内存，不产生临时文件
+     *
+     * @param source 原图字节（堆内存或内存映射），不修改其位置
+     * @throws UnsupportedOperationException 动图
+     */
+    public ProcessedImage process(ByteBuffer source) {
+        try (ImageInputStream in = new ByteBufferImageInputStream(source)) {
+            ImageReader reader = ImageInfo.readerFor(in);
+            try {
+                // 保留元数据以读取 EXIF 方向
+                reader.setInput(in, false, false);
+                ImageInfo info = new ImageInfo(reader, source.remaining());
+                if (info.isAnimated()) {
+                    throw new UnsupportedOperationException("暂不支持动图");
+                }
+                BufferedImage image = reader.read(0);
+                Thumbnails.Builder<BufferedImage> builder = thumbnailBuilder(Thumbnails.of(image));
+                Orientation orientation = exifOrientation(reader);
+                if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                    builder.addFilter(ExifFilterUtils.getFilterForOrientation(orientation));
+                }
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                builder.toOutputStream(output);
+                return new ProcessedImage(info, output.toByteArray());
+            } finally {
+                reader.dispose();
             }
+        } catch (IOException e) {
+            throw new RuntimeException("生成缩略图失败: " + e.getMessage(), e);
+        }
+    }
+
+    public void uploadThumbnail(byte[] thumbnail, String hash) {
+        try {
+            storageService.uploadStream(imageUrlService.getThumbnailObjectName(hash), new ByteArrayInputStream(thumbnail),
+                    thumbnail.length, storageService.detectContentType("thumbnail." + thumbnailProperties.getFormat()));
+        } catch (Exception e) {
+            throw new RuntimeException("上传缩略图失败: " + e.getMessage(), e);
         }
     }
+
+    private <T> Thumbnails.Builder<T> thumbnailBuilder(Thumbnails.Builder<T> builder) {
+        return builder
+                .size(thumbnailProperties.getMaxSize(), thumbnailProperties.getMaxSize())
+                .outputFormat(thumbnailProperties.getFormat())
+                .outputQuality(thumbnailProperties.getQuality());
+    }
+
+    private static Orientation exifOrientation(ImageReader reader) {
+        try {
+            return ExifUtils.getExifOrientation(reader, 0);
+        } catch (Exception ignored) {
+            // 元数据损坏时按原方向生成
+            return null;
+        }
+    }
+
+    /**
+     * @param info      文件头信息
+     * @param thumbnail 编码后的缩略图
+     */
+    public record ProcessedImage(ImageInfo info, byte[] thumbnail) {
+    }
 }
@@ -0,0 +1,178 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.VectorSearchProperties;
+import com.tamakara.bakabooru.module.gallery.dto.VectorBenchmarkDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 以库内随机图片为查询，对比原始向量索引与各量化索引（含精确重排）的 recall@k 与耗时。
+ * 召回率基准为物化全部向量后的精确排序，各方式按查询交替执行，缓存冷热对各方式的影响一致
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VectorBenchmarkService {
+
+    private static final int MAX_QUERIES = 200;
+    private static final int MAX_K = 100;
+    private static final String QUERY_VECTOR = "(SELECT src.embedding FROM images src WHERE src.id = :sourceImageId)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final VectorSearchPlanner vectorSearchPlanner;
+    private final VectorSearchProperties properties;
+
+    public VectorBenchmarkDto run(int queries, int k) {
+        int queryCount = Math.min(Math.max(1, queries), MAX_QUERIES);
+        int limit = Math.min(Math.max(1, k), MAX_K);
+        int multiplier = Math.max(1, properties.getRerankMultiplier());
+
+        List<VectorQuantization> modes = new ArrayList<>();
+        modes.add(VectorQuantization.NONE);
+        if (vectorSearchPlanner.supportsQuantization()) {
+            modes.add(VectorQuantization.HALFVEC);
+            modes.add(VectorQuantization.BINARY);
+        }
+
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        stats.put("exact", new Stats());
+        modes.forEach(mode -> stats.put(mode.label(), new Stats()));
+
+        List<Long> sample = sample(queryCount);
+        for (Long sourceImageId : sample) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("sourceImageId", sourceImageId)
+                    .addValue("k", limit)
+                    .addValue("rerankCandidates", limit * multiplier);
+
+            long startedAt = System.nanoTime();
+            List<Long> truth = execute(exactSql(), params, 0);
+            stats.get("exact").record(System.nanoTime() - startedAt, 1.0);
+
+            Set<Long> expected = new HashSet<>(truth);
+            for (VectorQuantization mode : modes) {
+                startedAt = System.nanoTime();
+                List<Long> found = execute(indexSql(mode), params, mode == VectorQuantization.NONE ? limit : limit * multiplier);
+                long elapsed = System.nanoTime() - startedAt;
+                long hits = found.stream().filter(expected::contains).count();
+                stats.get(mode.label()).record(elapsed, expected.isEmpty() ? 1.0 : (double) hits / expected.size());
+            }
+        }
+
+        List<VectorBenchmarkDto.ModeResult> results = new ArrayList<>();
+        stats.forEach((mode, stat) -> results.add(stat.toResult(mode)));
+        log.info("向量检索基准完成 - 查询数: {}, k: {}, 结果: {}", sample.size(), limit, results);
+        return new VectorBenchmarkDto(sample.size(), limit, multiplier, results);
+    }
+
+    /**
+     * 借助 (random_key, id) 索引从随机起点取样，避免 ORDER BY random() 全表排序
+     */
+    private List<Long> sample(int count) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE))
+                .addValue("count", count);
+        List<Long> ids = new ArrayList<>(jdbcTemplate.queryForList("""
+                SELECT id FROM images
+                WHERE random_key >= :start AND embedding IS NOT NULL
+                ORDER BY random_key, id
+                LIMIT :count
+                """, params, Long.class));
+        if (ids.size() < count) {
+            params.addValue("count", count - ids.size());
+            ids.addAll(jdbcTemplate.queryForList("""
+                    SELECT id FROM images
+                    WHERE random_key < :start AND embedding IS NOT NULL
+                    ORDER BY random_key, id
+                    LIMIT :count
+                    """, params, Long.class));
+        }
+        return ids;
+    }
+
+    private List<Long> execute(String sql, MapSqlParameterSource params, int efSearch) {
+        return transactionTemplate.execute(status -> {
+            if (efSearch > 0) {
+                vectorSearchPlanner.prepare(new VectorSearchPlanner.VectorPlan(VectorStrategy.INDEX, efSearch));
+            }
+            return jdbcTemplate.queryForList(sql, params, Long.class);
+        });
+    }
+
+    private static String exactSql() {
+        return """
+                WITH candidates AS MATERIALIZED (
+                    SELECT i.id, i.embedding FROM images i
+                    WHERE i.embedding IS NOT NULL AND i.id <> :sourceImageId
+                )
+                SELECT i.id FROM candidates i
+                ORDER BY i.embedding <=> %s, i.id
+                LIMIT :k
+                """.formatted(QUERY_VECTOR);
+    }
+
+    private static String indexSql(VectorQuantization mode) {
+        String exact = VectorQuantization.NONE.distance("i.embedding", QUERY_VECTOR);
+        if (mode == VectorQuantization.NONE) {
+            return """
+                    SELECT i.id FROM images i
+                    WHERE i.embedding IS NOT NULL AND i.id <> :sourceImageId
+                    ORDER BY %s
+                    LIMIT :k
+                    """.formatted(exact);
+        }
+        return """
+                SELECT i.id FROM (
+                    SELECT i.id, i.embedding FROM images i
+                    WHERE i.embedding IS NOT NULL AND i.id <> :sourceImageId
+                    ORDER BY %s
+                    LIMIT :rerankCandidates
+                ) i
+                ORDER BY %s, i.id
+                LIMIT :k
+                """.formatted(mode.distance("i.embedding", QUERY_VECTOR), exact);
+    }
+
+    static final class Stats {
+        private final List<Long> latencies = new ArrayList<>();
+        private double recallSum;
+
+        void record(long nanos, double recall) {
+            latencies.add(nanos);
+            recallSum += recall;
+        }
+
+        VectorBenchmarkDto.ModeResult toResult(String mode) {
+            if (latencies.isEmpty()) {
+                return new VectorBenchmarkDto.ModeResult(mode, null, null, null, null);
+            }
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            double mean = Arrays.stream(sorted).average().orElse(0);
+            return new VectorBenchmarkDto.ModeResult(mode, recallSum / sorted.length,
+                    toMillis(mean), toMillis(percentile(sorted, 0.5)), toMillis(percentile(sorted, 0.95)));
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+        }
+
+        private static double toMillis(double nanos) {
+            return Math.round(nanos / 10_000.0) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+
+/**
+ * 进程内向量检索引擎。只处理向量 + 标签位图 + 尺寸范围条件，
+ * 返回 null 表示无法回答（未就绪、来源图片不在索引中），调用方回退到 pgvector
+ */
+public interface VectorEngine {
+
+    /**
+     * 按余弦距离升序返回至多 limit 个结果
+     */
+    List<VectorHit> search(VectorQuery query);
+
+    String label();
+
+    record VectorHit(long imageId, double distance) {
+    }
+
+    /**
+     * @param vector        查询向量，为 null 时使用 sourceImageId 在索引中的向量
+     * @param sourceImageId 以库内图片检索时的来源图片，结果中排除自身
+     * @param candidates    标签位图求得的候选 ID，null 表示不限
+     * @param maxDistance   距离阈值，null 表示不限
+     * @param afterDistance 游标位置，只返回 (距离, id) 大于该位置的结果
+     */
+    record VectorQuery(float[] vector, Long sourceImageId, RoaringBitmap candidates,
+                       AttributeRange width, AttributeRange height, AttributeRange size,
+                       Double maxDistance, Double afterDistance, Long afterId, int limit) {
+    }
+
+    record AttributeRange(long min, long max) {
+        public static final AttributeRange ALL = new AttributeRange(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        public static AttributeRange of(Number min, Number max) {
+            if (min == null && max == null) return ALL;
+            return new AttributeRange(min == null ? Long.MIN_VALUE : min.longValue(),
+                    max == null ? Long.MAX_VALUE : max.longValue());
+        }
+
+        boolean contains(long value) {
+            return value >= min && value <= max;
+        }
+    }
+}
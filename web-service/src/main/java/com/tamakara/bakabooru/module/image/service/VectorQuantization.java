@@ -0,0 +1,36 @@
+package com.tamakara.bakabooru.module.image.service;
+
+/**
+ * 向量检索候选阶段使用的量化方式，候选取回后统一按原始 vector 精确重排
+ */
+public enum VectorQuantization {
+    /**
+     * 直接使用原始 vector(512) 的 HNSW 索引
+     */
+    NONE,
+    /**
+     * 半精度表达式索引 (embedding::halfvec(512))，索引体积约为原来的一半
+     */
+    HALFVEC,
+    /**
+     * 二值量化表达式索引 (binary_quantize(embedding)::bit(512))，按汉明距离取候选，索引体积约为原来的 1/32
+     */
+    BINARY;
+
+    static final int DIMENSIONS = 512;
+
+    /**
+     * 候选阶段的距离表达式，必须与 V12 迁移中的索引表达式完全一致才能走索引
+     */
+    String distance(String column, String query) {
+        return switch (this) {
+            case NONE -> "(%s <=> %s)".formatted(column, query);
+            case HALFVEC -> "(%s::halfvec(%d) <=> %s::halfvec(%d))".formatted(column, DIMENSIONS, query, DIMENSIONS);
+            case BINARY -> "(binary_quantize(%s)::bit(%d) <~> binary_quantize(%s))".formatted(column, DIMENSIONS, query);
+        };
+    }
+
+    public String label() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,176 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.VectorSearchProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 向量检索执行计划
+ * <p>
+ * HNSW 索引扫描默认只返回 ef_search 个近邻，再叠加选择性强的过滤条件时结果会被"饿死"。
+ * 这里先用位图候选数或有界 COUNT 估算过滤后的候选规模：小候选集物化后精确排序；
+ * 大候选集使用 pgvector 0.8 的迭代扫描（strict_order 保证距离顺序与游标分页一致），
+ * 旧版本则按估算选择率放大 ef_search 后再过滤，放大后超过 ef_search 上限时改为精确排序。
+ * 走 HNSW 的执行方式可以改用量化表达式索引取候选（体积更小，更容易常驻 shared_buffers），再按原始向量精确重排。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VectorSearchPlanner {
+
+    private static final int MAX_EF_SEARCH = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final VectorSearchProperties properties;
+
+    private volatile String extensionVersion;
+
+    /**
+     * @param wanted 本次需要取回的行数（OFFSET 或游标之前已返回的行数 + LIMIT）
+     * @param paged  是否带游标或 OFFSET，此时即便没有属性过滤也需要越过前几页的近邻
+     */
+    VectorPlan plan(ImageSearchService.SearchFilter filter, int wanted, boolean paged) {
+        if (wanted > MAX_EF_SEARCH && !supportsIterativeScan()) {
+            // 非迭代扫描最多返回 ef_search 上限个近邻，更深的页只能精确排序
+            return new VectorPlan(VectorStrategy.EXACT, wanted);
+        }
+        if (!filter.attributeFiltered()) {
+            if ((paged || wanted > MAX_EF_SEARCH) && supportsIterativeScan()) {
+                return indexPlan(VectorStrategy.ITERATIVE, wanted);
+            }
+            return indexPlan(VectorStrategy.INDEX, wanted);
+        }
+
+        RoaringBitmap candidates = filter.tagCandidates();
+        if (candidates != null && candidates.getCardinality() <= properties.getExactLimit()) {
+            return new VectorPlan(VectorStrategy.EXACT, wanted);
+        }
+        long matched = probe(filter);
+        if (matched <= properties.getExactLimit()) {
+            return new VectorPlan(VectorStrategy.EXACT, wanted);
+        }
+        if (supportsIterativeScan()) {
+            return indexPlan(VectorStrategy.ITERATIVE, wanted);
+        }
+        // 命中数只知道下界，按下界估算选择率
+        double selectivity = Math.min(1.0, (double) matched / Math.max(matched, tableRows()));
+        double needed = Math.ceil(wanted / selectivity);
+        if (needed > Math.min(MAX_EF_SEARCH, properties.getMaxOversample())) {
+            // 放大后超过 ef_search 上限，截断取回的近邻过滤后可能凑不满一页，只能精确排序
+            return new VectorPlan(VectorStrategy.EXACT, wanted);
+        }
+        return new VectorPlan(VectorStrategy.OVERSAMPLED, (int) Math.max(wanted, needed));
+    }
+
+    private VectorPlan indexPlan(VectorStrategy strategy, int wanted) {
+        VectorQuantization quantization = properties.getQuantization();
+        if (quantization == null || quantization == VectorQuantization.NONE || !supportsQuantization()) {
+            return new VectorPlan(strategy, wanted);
+        }
+        int candidates = (int) Math.min(Integer.MAX_VALUE, (long) wanted * Math.max(1, properties.getRerankMultiplier()));
+        if (candidates > MAX_EF_SEARCH && !supportsIterativeScan()) {
+            // 非迭代扫描至多返回 ef_search 上限个候选；调用方已保证 wanted 不超过该上限
+            candidates = Math.max(wanted, MAX_EF_SEARCH);
+        }
+        return new VectorPlan(strategy, candidates, quantization);
+    }
+
+    /**
+     * 在当前事务内设置本次检索需要的 pgvector 参数（SET LOCAL，事务结束即失效）
+     */
+    void prepare(VectorPlan plan) {
+        if (plan.strategy() == VectorStrategy.EXACT) return;
+        int efSearch = Math.min(MAX_EF_SEARCH, Math.max(properties.getEfSearch(), plan.candidates()));
+        execute("SET LOCAL hnsw.ef_search = " + efSearch);
+        // 候选数超过 ef_search 上限时只有迭代扫描能取够重排所需的候选
+        if (plan.strategy() == VectorStrategy.ITERATIVE || (plan.quantized() && plan.candidates() > MAX_EF_SEARCH)) {
+            execute("SET LOCAL hnsw.iterative_scan = strict_order");
+            execute("SET LOCAL hnsw.max_scan_tuples = " + properties.getMaxScanTuples());
+        }
+    }
+
+    boolean supportsIterativeScan() {
+        return isAtLeast(extensionVersion(), 0, 8);
+    }
+
+    /**
+     * halfvec 与 binary_quantize 自 pgvector 0.7 起可用，低版本时 V12 迁移也不会创建量化索引
+     */
+    boolean supportsQuantization() {
+        return isAtLeast(extensionVersion(), 0, 7);
+    }
+
+    private String extensionVersion() {
+        String version = extensionVersion;
+        if (version == null) {
+            version = detectVersion();
+            extensionVersion = version;
+        }
+        return version;
+    }
+
+    private String detectVersion() {
+        try {
+            String version = jdbcTemplate.getJdbcTemplate().queryForObject(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'", String.class);
+            log.info("pgvector 版本 {}，迭代索引扫描{}", version, isAtLeast(version, 0, 8) ? "可用" : "不可用");
+            return version == null ? "" : version;
+        } catch (Exception e) {
+            log.warn("无法获取 pgvector 版本，禁用迭代索引扫描与量化索引: {}", e.getMessage());
+            return "";
+        }
+    }
+
+    static boolean isAtLeast(String version, int major, int minor) {
+        if (version == null) return false;
+        String[] parts = version.split("\\.");
+        try {
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private long probe(ImageSearchService.SearchFilter filter) {
+        MapSqlParameterSource params = filter.params()
+                .addValue("vectorProbe", properties.getExactLimit() + 1);
+        Long matched = jdbcTemplate.queryForObject("""
+                SELECT COUNT(*) FROM (SELECT 1 FROM images i WHERE %s LIMIT :vectorProbe) matched
+                """.formatted(filter.where()), params, Long.class);
+        return matched == null ? 0 : matched;
+    }
+
+    private long tableRows() {
+        Double reltuples = jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT reltuples FROM pg_class WHERE oid = 'images'::regclass", Double.class);
+        return reltuples == null ? 0 : reltuples.longValue();
+    }
+
+    private void execute(String sql) {
+        jdbcTemplate.getJdbcTemplate().execute(sql);
+    }
+
+    /**
+     * @param candidates   需要 HNSW 返回的近邻数，量化检索时为重排前的候选数
+     * @param quantization 候选阶段使用的量化索引
+     */
+    record VectorPlan(VectorStrategy strategy, int candidates, VectorQuantization quantization) {
+        VectorPlan(VectorStrategy strategy, int candidates) {
+            this(strategy, candidates, VectorQuantization.NONE);
+        }
+
+        boolean quantized() {
+            return quantization != VectorQuantization.NONE;
+        }
+
+        String label() {
+            return quantized() ? strategy.label() + "+" + quantization.label() : strategy.label();
+        }
+    }
+}
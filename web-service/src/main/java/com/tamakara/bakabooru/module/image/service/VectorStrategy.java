@@ -0,0 +1,27 @@
+package com.tamakara.bakabooru.module.image.service;
+
+/**
+ * 向量检索执行方式
+ */
+public enum VectorStrategy {
+    /**
+     * 没有属性过滤，直接按 HNSW 近邻顺序扫描
+     */
+    INDEX,
+    /**
+     * 过滤后候选集较小，物化候选集后精确计算距离排序
+     */
+    EXACT,
+    /**
+     * 候选集较大，使用 pgvector 迭代索引扫描边扫边过滤，保证返回足量结果
+     */
+    ITERATIVE,
+    /**
+     * pgvector 不支持迭代扫描时，放大取回近邻数后再过滤
+     */
+    OVERSAMPLED;
+
+    public String label() {
+        return name().toLowerCase();
+    }
+}
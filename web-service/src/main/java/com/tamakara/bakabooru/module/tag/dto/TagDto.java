@@ -1,5 +1,6 @@
 package com.tamakara.bakabooru.module.tag.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,5 +12,11 @@ public class TagDto {
     private Long id;
     private String name;
     private String type;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long count;  // 关联的图片数，仅标签列表返回
+
+    public TagDto(Long id, String name, String type) {
+        this(id, name, type, null);
+    }
 }
 
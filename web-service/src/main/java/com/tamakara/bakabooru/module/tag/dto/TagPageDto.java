@@ -0,0 +1,16 @@
+package com.tamakara.bakabooru.module.tag.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TagPageDto {
+    private List<TagDto> content;
+    private Integer total;  // 当前类型过滤下的标签总数
+    private String nextCursor;  // 没有下一页时为空
+}
@@ -3,9 +3,11 @@ package com.tamakara.bakabooru.module.tag.mapper;
 import com.tamakara.bakabooru.module.tag.dto.TagDto;
 import com.tamakara.bakabooru.module.tag.entity.Tag;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface TagMapper {
+    @Mapping(target = "count", ignore = true)
     TagDto toDto(Tag tag);
 }
 
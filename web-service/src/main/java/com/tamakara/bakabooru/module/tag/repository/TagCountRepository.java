@@ -0,0 +1,74 @@
+package com.tamakara.bakabooru.module.tag.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 物化的标签图片数（tag_image_counts）。计数由 image_tag_relation 上的语句级触发器在关联变更的同一事务中维护，
+ * 每个标签分为多个条带，读取时求和
+ */
+@Repository
+@RequiredArgsConstructor
+public class TagCountRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 全部图片数大于 0 的标签
+     */
+    public Map<Long, Long> findAll() {
+        Map<Long, Long> counts = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT tag_id, SUM(image_count) AS image_count
+                FROM tag_image_counts
+                GROUP BY tag_id
+                HAVING SUM(image_count) > 0
+                """, rs -> {
+            counts.put(rs.getLong("tag_id"), rs.getLong("image_count"));
+        });
+        return counts;
+    }
+
+    public long count(long tagId) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(image_count), 0) FROM tag_image_counts WHERE tag_id = ?", Long.class, tagId);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 以关联表为准校正计数，返回校正的标签数。
+     * <p>
+     * 实际值与物化值在同一条语句的同一快照中计算，差值以增量写回：之后提交的变更由触发器各自累加，
+     * 不会被覆盖，因此无需停写。
+     */
+    public int reconcile() {
+        return jdbcTemplate.update("""
+                WITH actual AS (
+                    SELECT tag_id, COUNT(*) AS image_count
+                    FROM image_tag_relation
+                    GROUP BY tag_id
+                ),
+                stored AS (
+                    SELECT tag_id, SUM(image_count) AS image_count
+                    FROM tag_image_counts
+                    GROUP BY tag_id
+                ),
+                drift AS (
+                    SELECT COALESCE(a.tag_id, s.tag_id) AS tag_id,
+                           COALESCE(a.image_count, 0) - COALESCE(s.image_count, 0) AS delta
+                    FROM actual a
+                             FULL JOIN stored s ON s.tag_id = a.tag_id
+                    WHERE COALESCE(a.image_count, 0) <> COALESCE(s.image_count, 0)
+                )
+                INSERT INTO tag_image_counts AS c (tag_id, stripe, image_count)
+                SELECT tag_id, 0, delta
+                FROM drift
+                ORDER BY tag_id
+                ON CONFLICT (tag_id, stripe) DO UPDATE SET image_count = c.image_count + EXCLUDED.image_count
+                """);
+    }
+}
@@ -0,0 +1,402 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.repository.TagCountRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 标签自动补全
+ * <p>
+ * 标签名与查询经同一个 {@link #normalize} 归一（小写、空白折叠为 {@code _}）。每个标签按归一后的名称及其中
+ * 每个以 {@code _} 或括号开头的单词后缀生成补全键（{@code long_hair} 同时以 {@code long_hair} 与 {@code hair} 入索引），所有键排序后放在平行数组中，前缀查询是一次二分得到的连续区间。
+ * 区间上建一棵按图片数取最大值的线段树，按图片数降序取前 N 个只需 O(N log M)，与匹配的标签总数无关。
+ * 图片数随本实例的标签关联事件增量更新，并定期从 {@code tag_image_counts} 对齐（包括其他实例提交的变更）；
+ * 标签新增、改名或改类型（标签字典版本变化）时整体重建；未就绪时回退到 {@link TagDictionary} 的字母序前缀匹配。
+ */
+@Slf4j
+@Component
+public class TagAutocomplete {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TagDictionary tagDictionary;
+    private final TagCountRepository tagCountRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    // 标签集合或任一计数变化时递增，供标签列表判断快照是否过期
+    private final AtomicLong version = new AtomicLong();
+    // index 的计数部分受 lock 保护，引用本身只在重建时整体替换
+    private volatile Index index;
+    private volatile boolean stale;
+    // 构建索引时标签字典的版本，字典因改名、改类型而替换后需要重建
+    private volatile long dictionaryVersion;
+
+    public TagAutocomplete(JdbcTemplate jdbcTemplate, TagDictionary tagDictionary, TagCountRepository tagCountRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tagDictionary = tagDictionary;
+        this.tagCountRepository = tagCountRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread loader = new Thread(this::rebuild, "tag-autocomplete-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 按图片数降序返回前缀匹配的标签，空白视为下划线
+     */
+    public List<TagDto> search(String query, int limit) {
+        String prefix = normalize(query);
+        Index current = index;
+        if (current == null) {
+            return tagDictionary.prefixSearch(prefix, limit);
+        }
+        if (prefix.isEmpty() || limit <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            return current.top(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 全部标签及其图片数的副本，未构建时返回 null
+     */
+    public List<TagDto> tagsWithCounts() {
+        Index current = index;
+        if (current == null) return null;
+        lock.readLock().lock();
+        try {
+            return current.tagsWithCounts();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTagsChanged(ImageTagsChangedEvent event) {
+        adjust(event.addedTagIds(), 1);
+        adjust(event.removedTagIds(), -1);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onImageDeleted(ImageDeletedEvent event) {
+        adjust(event.tagIds(), -1);
+    }
+
+    /**
+     * 新标签在下次检查时整体重建；否则从物化计数表对齐图片数，补上其他实例的关联变更与重建期间丢失的增量
+     */
+    @Scheduled(
+            fixedDelayString = "${app.tag-autocomplete.check-interval-ms:60000}",
+            initialDelayString = "${app.tag-autocomplete.check-interval-ms:60000}"
+    )
+    public void rebuildIfStale() {
+        Index current = index;
+        if (current == null || stale || current.size() != tagDictionary.size()
+                || dictionaryVersion != tagDictionary.version()) {
+            rebuild();
+            return;
+        }
+        try {
+            refreshCounts(current, tagCountRepository.findAll());
+        } catch (Exception e) {
+            log.warn("标签自动补全图片数对齐失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void refreshCounts(Index current, Map<Long, Long> imageCounts) {
+        lock.writeLock().lock();
+        try {
+            if (current != index) return;
+            if (current.reconcile(imageCounts)) {
+                version.incrementAndGet();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(
+            fixedDelayString = "${app.tag-autocomplete.rebuild-interval-ms:21600000}",
+            initialDelayString = "${app.tag-autocomplete.rebuild-interval-ms:21600000}"
+    )
+    public void rebuild() {
+        if (!loading.compareAndSet(false, true)) return;
+        try {
+            long startedAt = System.currentTimeMillis();
+            stale = false;
+            long builtDictionaryVersion = tagDictionary.version();
+            List<TagDto> tags = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            // 图片数取自物化计数表，不扫描关联表
+            Map<Long, Long> imageCounts = tagCountRepository.findAll();
+            jdbcTemplate.query("SELECT id, name, type FROM tags", rs -> {
+                long id = rs.getLong("id");
+                tags.add(new TagDto(id, rs.getString("name"), rs.getString("type")));
+                counts.add((int) Math.min(Integer.MAX_VALUE, imageCounts.getOrDefault(id, 0L)));
+            });
+            install(tags, counts.stream().mapToInt(Integer::intValue).toArray(), builtDictionaryVersion);
+            log.info("标签自动补全索引已构建，{} 个标签，耗时 {}ms", tags.size(), System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            stale = true;
+            log.warn("标签自动补全索引构建失败，回退到字母序前缀匹配: {}", e.getMessage(), e);
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    void install(List<TagDto> tags, int[] counts) {
+        install(tags, counts, tagDictionary.version());
+    }
+
+    private void install(List<TagDto> tags, int[] counts, long builtDictionaryVersion) {
+        index = Index.of(tags, counts);
+        dictionaryVersion = builtDictionaryVersion;
+        version.incrementAndGet();
+    }
+
+    private void adjust(List<Long> tagIds, int delta) {
+        Index current = index;
+        if (current == null || tagIds == null || tagIds.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            for (Long tagId : tagIds) {
+                if (!current.adjust(tagId, delta)) {
+                    // 新建的标签还不在索引中
+                    stale = true;
+                }
+            }
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static String normalize(String query) {
+        if (query == null) return "";
+        return query.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", "_");
+    }
+
+    private static boolean isWordSeparator(char c) {
+        return c == '_' || c == '(';
+    }
+
+    private static final class Index {
+        // 标签数组按加载顺序排列并相互平行
+        private final TagDto[] tags;
+        private final int[] counts;
+        private final Map<Long, Integer> positions;
+        // 补全键按字典序排列，entryTags 指向 tags 中的位置，tagEntries 为反向映射
+        private final String[] keys;
+        private final int[] entryTags;
+        private final int[][] tagEntries;
+        // 以键为叶子的最大值线段树，tree[capacity + i] 为第 i 个键所属标签的图片数，空叶子为 -1
+        private final int capacity;
+        private final int[] tree;
+
+        private Index(TagDto[] tags, int[] counts, Map<Long, Integer> positions, String[] keys, int[] entryTags,
+                      int[][] tagEntries) {
+            this.tags = tags;
+            this.counts = counts;
+            this.positions = positions;
+            this.keys = keys;
+            this.entryTags = entryTags;
+            this.tagEntries = tagEntries;
+            this.capacity = Math.max(1, Integer.highestOneBit(Math.max(1, keys.length - 1)) << 1);
+            this.tree = new int[capacity * 2];
+            Arrays.fill(tree, -1);
+            for (int entry = 0; entry < keys.length; entry++) {
+                tree[capacity + entry] = counts[entryTags[entry]];
+            }
+            for (int node = capacity - 1; node >= 1; node--) {
+                tree[node] = Math.max(tree[node * 2], tree[node * 2 + 1]);
+            }
+        }
+
+        static Index of(List<TagDto> tagList, int[] counts) {
+            TagDto[] tags = tagList.toArray(new TagDto[0]);
+            Map<Long, Integer> positions = new HashMap<>(tags.length * 2);
+            List<String> keyList = new ArrayList<>(tags.length * 2);
+            List<Integer> ownerList = new ArrayList<>(tags.length * 2);
+            for (int position = 0; position < tags.length; position++) {
+                positions.put(tags[position].getId(), position);
+                for (String key : keysOf(tags[position].getName())) {
+                    keyList.add(key);
+                    ownerList.add(position);
+                }
+            }
+
+            Integer[] order = new Integer[keyList.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (left, right) -> keyList.get(left).compareTo(keyList.get(right)));
+            String[] keys = new String[order.length];
+            int[] entryTags = new int[order.length];
+            int[] entryCounts = new int[tags.length];
+            for (int entry = 0; entry < order.length; entry++) {
+                keys[entry] = keyList.get(order[entry]);
+                entryTags[entry] = ownerList.get(order[entry]);
+                entryCounts[entryTags[entry]]++;
+            }
+            int[][] tagEntries = new int[tags.length][];
+            for (int position = 0; position < tags.length; position++) {
+                tagEntries[position] = new int[entryCounts[position]];
+            }
+            int[] filled = new int[tags.length];
+            for (int entry = 0; entry < entryTags.length; entry++) {
+                int owner = entryTags[entry];
+                tagEntries[owner][filled[owner]++] = entry;
+            }
+            return new Index(tags, counts.clone(), positions, keys, entryTags, tagEntries);
+        }
+
+        /**
+         * 归一后的完整名称与每个单词开头的后缀，同一标签内去重
+         */
+        static Set<String> keysOf(String name) {
+            String lowered = normalize(name);
+            Set<String> keys = new LinkedHashSet<>();
+            keys.add(lowered);
+            for (int i = 0; i < lowered.length() - 1; i++) {
+                if (isWordSeparator(lowered.charAt(i)) && !isWordSeparator(lowered.charAt(i + 1))) {
+                    keys.add(lowered.substring(i + 1));
+                }
+            }
+            return keys;
+        }
+
+        int size() {
+            return tags.length;
+        }
+
+        List<TagDto> tagsWithCounts() {
+            List<TagDto> result = new ArrayList<>(tags.length);
+            for (int position = 0; position < tags.length; position++) {
+                TagDto tag = tags[position];
+                result.add(new TagDto(tag.getId(), tag.getName(), tag.getType(), (long) counts[position]));
+            }
+            return result;
+        }
+
+        boolean adjust(long tagId, int delta) {
+            Integer position = positions.get(tagId);
+            if (position == null) return false;
+            set(position, Math.max(0, counts[position] + delta));
+            return true;
+        }
+
+        /**
+         * 以物化计数覆盖各标签的图片数，返回是否有变化
+         */
+        boolean reconcile(Map<Long, Long> imageCounts) {
+            boolean changed = false;
+            for (int position = 0; position < tags.length; position++) {
+                long stored = imageCounts.getOrDefault(tags[position].getId(), 0L);
+                int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, stored));
+                if (count != counts[position]) {
+                    set(position, count);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private void set(int position, int count) {
+            counts[position] = count;
+            for (int entry : tagEntries[position]) {
+                int node = capacity + entry;
+                tree[node] = count;
+                for (node >>= 1; node >= 1; node >>= 1) {
+                    tree[node] = Math.max(tree[node * 2], tree[node * 2 + 1]);
+                }
+            }
+        }
+
+        /**
+         * 最优优先遍历：从覆盖前缀区间的 O(log M) 个节点出发，每次展开最大值最高的节点，
+         * 先弹出的叶子即图片数最高的键；同值时靠左（字典序在前）的优先
+         */
+        List<TagDto> top(String prefix, int limit) {
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            List<TagDto> result = new ArrayList<>(Math.min(limit, to - from));
+            if (from >= to) return result;
+
+            PriorityQueue<Integer> queue = new PriorityQueue<>((left, right) -> {
+                int compare = Integer.compare(tree[right], tree[left]);
+                return compare != 0 ? compare : Integer.compare(start(left), start(right));
+            });
+            for (int left = from + capacity, right = to + capacity; left < right; left >>= 1, right >>= 1) {
+                if ((left & 1) == 1) queue.add(left++);
+                if ((right & 1) == 1) queue.add(--right);
+            }
+            BitSet seen = new BitSet(tags.length);
+            while (!queue.isEmpty() && result.size() < limit) {
+                int node = queue.poll();
+                if (node < capacity) {
+                    queue.add(node * 2);
+                    queue.add(node * 2 + 1);
+                    continue;
+                }
+                int owner = entryTags[node - capacity];
+                // 同一标签可能经由多个单词命中
+                if (!seen.get(owner)) {
+                    seen.set(owner);
+                    result.add(new TagDto(tags[owner].getId(), tags[owner].getName(), tags[owner].getType()));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 节点覆盖区间的第一个叶子下标
+         */
+        private int start(int node) {
+            int depth = Integer.numberOfTrailingZeros(capacity) - (31 - Integer.numberOfLeadingZeros(node));
+            return (node << depth) - capacity;
+        }
+
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle].compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
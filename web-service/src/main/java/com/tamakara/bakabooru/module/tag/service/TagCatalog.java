@@ -0,0 +1,288 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamakara.bakabooru.config.TagCatalogProperties;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.dto.TagPageDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 标签列表快照
+ * <p>
+ * 全部标签（含图片数）按名称排序后预先序列化为 JSON 并 gzip 压缩，ETag 取自 JSON 内容摘要，两种编码各用一个 ETag。
+ * 快照以 {@link TagAutocomplete#version()} 判断是否过期，计数变化后最多每 min-rebuild-interval 重建一次。
+ * 只有第一次构建在请求线程上进行；之后过期的快照照常返回，同时在后台线程重建，请求不会等待重建。
+ * 稳态下列表请求只比对 ETag 或直接写出预压缩的字节；分页与类型过滤在同一快照的数组上完成。
+ */
+@Slf4j
+@Component
+public class TagCatalog {
+
+    private static final Comparator<TagDto> NAME_ORDER = Comparator
+            .comparing((TagDto tag) -> tag.getName().toLowerCase(Locale.ROOT))
+            .thenComparing(TagDto::getName);
+
+    private final TagAutocomplete tagAutocomplete;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TagCatalogProperties properties;
+    // 单线程重建，排队中已有任务时丢弃新的触发
+    private final ThreadPoolExecutor refresher;
+
+    private volatile Snapshot snapshot;
+
+    public TagCatalog(TagAutocomplete tagAutocomplete, JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+                      TagCatalogProperties properties) {
+        this.tagAutocomplete = tagAutocomplete;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.refresher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "tag-catalog-refresher");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * 当前快照；过期时仍返回旧快照并在后台重建
+     */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return refresh();
+        }
+        if (!isFresh(current)) {
+            refresher.execute(this::refresh);
+        }
+        return current;
+    }
+
+    /**
+     * 快照过期（或尚未构建）时重建，返回最新的快照
+     */
+    synchronized Snapshot refresh() {
+        Snapshot current = snapshot;
+        if (isFresh(current)) return current;
+        try {
+            snapshot = build();
+        } catch (RuntimeException e) {
+            if (current == null) throw e;
+            log.warn("标签列表快照重建失败，继续使用旧快照: {}", e.getMessage());
+        }
+        return snapshot;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private boolean isFresh(Snapshot current) {
+        if (current == null) return false;
+        if (current.version() == tagAutocomplete.version()) return true;
+        return System.currentTimeMillis() - current.builtAt() < properties.getMinRebuildInterval().toMillis();
+    }
+
+    private Snapshot build() {
+        long startedAt = System.currentTimeMillis();
+        long version = tagAutocomplete.version();
+        List<TagDto> tags = tagAutocomplete.tagsWithCounts();
+        if (tags == null) {
+            // 自动补全索引尚未构建，先提供不含计数的列表
+            tags = jdbcTemplate.query("SELECT id, name, type FROM tags",
+                    (rs, rowNum) -> new TagDto(rs.getLong("id"), rs.getString("name"), rs.getString("type")));
+        }
+        Snapshot built = Snapshot.of(tags, version, properties, objectMapper);
+        log.info("标签列表快照已构建，{} 个标签，{} 字节（压缩后 {} 字节），耗时 {}ms", built.size(), built.json().length,
+                built.gzip().length, System.currentTimeMillis() - startedAt);
+        return built;
+    }
+
+    public static final class Snapshot {
+        private final TagDto[] tags;
+        // 类型 -> 该类型标签在 tags 中的位置，升序
+        private final Map<String, int[]> typePositions;
+        private final byte[] json;
+        private final byte[] gzip;
+        private final String etag;
+        private final String gzipEtag;
+        private final long version;
+        private final long builtAt;
+        private final int defaultPageSize;
+        private final int maxPageSize;
+
+        private Snapshot(TagDto[] tags, Map<String, int[]> typePositions, byte[] json, byte[] gzip, long version,
+                         TagCatalogProperties properties) {
+            this.tags = tags;
+            this.typePositions = typePositions;
+            this.json = json;
+            this.gzip = gzip;
+            String digest = DigestUtils.sha256Hex(json).substring(0, 32);
+            this.etag = quote(digest);
+            // 压缩与未压缩的响应字节不同，强 ETag 不能共用
+            this.gzipEtag = quote(digest + "-gzip");
+            this.version = version;
+            this.builtAt = System.currentTimeMillis();
+            this.defaultPageSize = properties.getDefaultPageSize();
+            this.maxPageSize = properties.getMaxPageSize();
+        }
+
+        static Snapshot of(List<TagDto> tagList, long version, TagCatalogProperties properties,
+                           ObjectMapper objectMapper) {
+            TagDto[] tags = tagList.toArray(new TagDto[0]);
+            Arrays.sort(tags, NAME_ORDER);
+            Map<String, List<Integer>> grouped = new HashMap<>();
+            for (int position = 0; position < tags.length; position++) {
+                grouped.computeIfAbsent(tags[position].getType(), type -> new ArrayList<>()).add(position);
+            }
+            Map<String, int[]> typePositions = new HashMap<>();
+            grouped.forEach((type, positions) ->
+                    typePositions.put(type, positions.stream().mapToInt(Integer::intValue).toArray()));
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(tags);
+                return new Snapshot(tags, typePositions, json, compress(json), version, properties);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("标签列表序列化失败", e);
+            }
+        }
+
+        public byte[] json() {
+            return json;
+        }
+
+        public byte[] gzip() {
+            return gzip;
+        }
+
+        /**
+         * 全量列表未压缩响应的强 ETag
+         */
+        public String etag() {
+            return etag;
+        }
+
+        /**
+         * 全量列表 gzip 响应的强 ETag
+         */
+        public String gzipEtag() {
+            return gzipEtag;
+        }
+
+        public int size() {
+            return tags.length;
+        }
+
+        long version() {
+            return version;
+        }
+
+        long builtAt() {
+            return builtAt;
+        }
+
+        /**
+         * 同一快照下分页参数相同则响应字节相同，ETag 由快照 ETag 与参数共同决定
+         */
+        public String pageEtag(String type, String cursor, Integer size) {
+            return quote(DigestUtils.sha256Hex(etag + '\u0001' + normalizeType(type) + '\u0001'
+                    + (cursor == null ? "" : cursor) + '\u0001' + pageSize(size)).substring(0, 32));
+        }
+
+        /**
+         * 按名称排序的游标分页，游标为上一页最后一个标签的名称
+         */
+        public TagPageDto page(String type, String cursor, Integer size) {
+            String normalizedType = normalizeType(type);
+            int[] positions = normalizedType.isEmpty() ? null : typePositions.getOrDefault(normalizedType, new int[0]);
+            int total = positions == null ? tags.length : positions.length;
+            int limit = pageSize(size);
+
+            int from = 0;
+            if (StringUtils.hasText(cursor)) {
+                TagDto after = new TagDto(null, decodeCursor(cursor), null);
+                from = upperBound(positions, total, after);
+            }
+            int to = Math.min(total, from + limit);
+            List<TagDto> content = new ArrayList<>(Math.max(0, to - from));
+            for (int index = from; index < to; index++) {
+                content.add(tags[positions == null ? index : positions[index]]);
+            }
+            String nextCursor = to < total ? encodeCursor(content.get(content.size() - 1).getName()) : null;
+            return new TagPageDto(content, total, nextCursor);
+        }
+
+        private int upperBound(int[] positions, int total, TagDto after) {
+            int low = 0;
+            int high = total;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                TagDto tag = tags[positions == null ? middle : positions[middle]];
+                if (NAME_ORDER.compare(tag, after) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int pageSize(Integer size) {
+            if (size == null || size <= 0) return defaultPageSize;
+            return Math.min(size, maxPageSize);
+        }
+
+        private static String normalizeType(String type) {
+            return StringUtils.hasText(type) ? type.trim() : "";
+        }
+
+        private static String encodeCursor(String name) {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String decodeCursor(String cursor) {
+            try {
+                return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("无效的标签游标", e);
+            }
+        }
+
+        private static String quote(String value) {
+            return "\"" + value + "\"";
+        }
+
+        private static byte[] compress(byte[] json) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buffer.toByteArray();
+        }
+    }
+}
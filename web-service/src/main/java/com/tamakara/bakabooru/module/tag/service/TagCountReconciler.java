@@ -0,0 +1,40 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.tag.repository.TagCountRepository;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定期以 image_tag_relation 为准校正物化的标签图片数。触发器在正常路径上保持计数精确，
+ * 这里兜底绕过触发器的手工修改（如 TRUNCATE、session_replication_role=replica 下的导入）
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TagCountReconciler {
+
+    private final TagCountRepository tagCountRepository;
+    private final BusinessMetrics metrics;
+
+    @Scheduled(
+            fixedDelayString = "${app.tag-count.repair-interval-ms:86400000}",
+            initialDelayString = "${app.tag-count.repair-initial-delay-ms:600000}"
+    )
+    public void reconcile() {
+        try {
+            long startedAt = System.currentTimeMillis();
+            int repaired = tagCountRepository.reconcile();
+            metrics.tagCountsRepaired(repaired);
+            if (repaired > 0) {
+                log.warn("标签图片数存在偏差，已校正 {} 个标签，耗时 {}ms", repaired, System.currentTimeMillis() - startedAt);
+            } else {
+                log.info("标签图片数校验完成，无偏差，耗时 {}ms", System.currentTimeMillis() - startedAt);
+            }
+        } catch (Exception e) {
+            log.warn("标签图片数校正失败: {}", e.getMessage(), e);
+        }
+    }
+}
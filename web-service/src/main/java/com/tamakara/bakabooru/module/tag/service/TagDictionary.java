@@ -0,0 +1,257 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存标签字典
+ * <p>
+ * 把 tags 表整体装入按名称排序的并行数组：名称 -> ID 走二分查找，ID -> 名称/类型走按 ID 排序的索引数组，
+ * 类型以字节编码存储。搜索、自动补全和 AI 打标都从这里解析标签，不再访问数据库。
+ * 启动时加载，之后定期比对 (数量, 最大 ID, 校验和) 签名，变化时整体替换快照；校验和覆盖 (id, name, type)，
+ * 标签改名或改类型（包括其他实例做的）同样会被发现。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TagDictionary {
+
+    public static final long NOT_FOUND = -1L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Snapshot snapshot;
+    // 每次替换快照时递增，供自动补全判断标签名称或类型是否变化
+    private final AtomicLong version = new AtomicLong();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        refresh();
+    }
+
+    @Scheduled(
+            fixedDelayString = "${app.tag-dictionary.refresh-interval-ms:60000}",
+            initialDelayString = "${app.tag-dictionary.refresh-interval-ms:60000}"
+    )
+    public void refreshIfChanged() {
+        Snapshot current = snapshot;
+        if (current == null || !current.signature().equals(loadSignature())) {
+            refresh();
+        }
+    }
+
+    public synchronized void refresh() {
+        Signature signature = loadSignature();
+        List<TagDto> tags = jdbcTemplate.query("SELECT id, name, type FROM tags",
+                (rs, rowNum) -> new TagDto(rs.getLong("id"), rs.getString("name"), rs.getString("type")));
+        replace(tags, signature);
+        log.info("标签字典已加载，共 {} 个标签", tags.size());
+    }
+
+    /**
+     * 精确名称 -> ID，不存在返回 {@link #NOT_FOUND}
+     */
+    public long idOf(String name) {
+        if (name == null) return NOT_FOUND;
+        Snapshot current = snapshot();
+        int position = current.positionOf(name);
+        return position < 0 ? NOT_FOUND : current.ids[position];
+    }
+
+    /**
+     * 批量解析名称，忽略空白与未知标签
+     */
+    public List<Long> resolveIds(Collection<String> names) {
+        if (names == null || names.isEmpty()) return List.of();
+        List<Long> ids = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (!StringUtils.hasText(name)) continue;
+            long id = idOf(name.trim());
+            if (id != NOT_FOUND) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    public TagDto get(long id) {
+        Snapshot current = snapshot();
+        int position = current.positionOfId(id);
+        return position < 0 ? null : current.toDto(position);
+    }
+
+    /**
+     * 大小写不敏感的前缀匹配，按名称排序
+     */
+    public List<TagDto> prefixSearch(String prefix, int limit) {
+        Snapshot current = snapshot();
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<TagDto> result = new ArrayList<>(Math.min(limit, 64));
+        for (int position = current.lowerBound(key);
+             position < current.size() && result.size() < limit && current.keys[position].startsWith(key);
+             position++) {
+            result.add(current.toDto(position));
+        }
+        return result;
+    }
+
+    public int size() {
+        return snapshot().size();
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    void replace(List<TagDto> tags, Signature signature) {
+        snapshot = Snapshot.of(tags, signature);
+        version.incrementAndGet();
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            // 启动预热之前的请求同步加载一次
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    private Signature loadSignature() {
+        // tags 表没有更新时间列，按行哈希求和，与行顺序无关，不需要排序
+        return jdbcTemplate.queryForObject("""
+                        SELECT COUNT(*), COALESCE(MAX(id), 0),
+                               COALESCE(SUM(hashtext(id || ':' || name || ':' || COALESCE(type, ''))), 0)
+                        FROM tags
+                        """,
+                (rs, rowNum) -> new Signature(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+    }
+
+    record Signature(long count, long maxId, long checksum) {
+    }
+
+    private static final class Snapshot {
+        // 以下数组按 (小写名称, 名称) 排序并相互平行
+        private final String[] keys;
+        private final String[] names;
+        private final long[] ids;
+        private final byte[] typeCodes;
+        private final String[] typeTable;
+        // 按 ID 升序排列的 ID 与其在名称数组中的位置
+        private final long[] sortedIds;
+        private final int[] idPositions;
+        private final Signature signature;
+
+        private Snapshot(String[] keys, String[] names, long[] ids, byte[] typeCodes, String[] typeTable,
+                         long[] sortedIds, int[] idPositions, Signature signature) {
+            this.keys = keys;
+            this.names = names;
+            this.ids = ids;
+            this.typeCodes = typeCodes;
+            this.typeTable = typeTable;
+            this.sortedIds = sortedIds;
+            this.idPositions = idPositions;
+            this.signature = signature;
+        }
+
+        static Snapshot of(List<TagDto> tags, Signature signature) {
+            int size = tags.size();
+            TagDto[] sorted = tags.toArray(new TagDto[0]);
+            String[] lowered = new String[size];
+            Arrays.sort(sorted, (left, right) -> {
+                int compare = left.getName().toLowerCase(Locale.ROOT).compareTo(right.getName().toLowerCase(Locale.ROOT));
+                return compare != 0 ? compare : left.getName().compareTo(right.getName());
+            });
+
+            String[] names = new String[size];
+            long[] ids = new long[size];
+            byte[] typeCodes = new byte[size];
+            Map<String, Byte> typeIndex = new HashMap<>();
+            List<String> typeTable = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                TagDto tag = sorted[i];
+                names[i] = tag.getName();
+                lowered[i] = tag.getName().toLowerCase(Locale.ROOT);
+                ids[i] = tag.getId();
+                typeCodes[i] = typeIndex.computeIfAbsent(tag.getType(), type -> {
+                    if (typeTable.size() >= Byte.MAX_VALUE) {
+                        throw new IllegalStateException("标签类型过多: " + typeTable.size());
+                    }
+                    typeTable.add(type);
+                    return (byte) (typeTable.size() - 1);
+                });
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (left, right) -> Long.compare(ids[left], ids[right]));
+            long[] sortedIds = new long[size];
+            int[] idPositions = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = ids[order[i]];
+                idPositions[i] = order[i];
+            }
+
+            return new Snapshot(lowered, names, ids, typeCodes, typeTable.toArray(new String[0]),
+                    sortedIds, idPositions, signature);
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        Signature signature() {
+            return signature;
+        }
+
+        int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle].compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int positionOf(String name) {
+            String key = name.toLowerCase(Locale.ROOT);
+            for (int position = lowerBound(key); position < keys.length && keys[position].equals(key); position++) {
+                if (names[position].equals(name)) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        int positionOfId(long id) {
+            int index = Arrays.binarySearch(sortedIds, id);
+            return index < 0 ? -1 : idPositions[index];
+        }
+
+        TagDto toDto(int position) {
+            return new TagDto(ids[position], names[position], typeTable[typeCodes[position]]);
+        }
+    }
+}
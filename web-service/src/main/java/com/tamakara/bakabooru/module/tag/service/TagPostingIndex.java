@@ -0,0 +1,461 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.config.TagIndexProperties;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 标签倒排索引
+ * <p>
+ * 每个标签一个 Roaring Bitmap，记录拥有该标签的图片 ID。正向标签在内存中求交、反向标签求差，
+ * 搜索只把结果候选集（或其 ID 范围）交给 PostgreSQL，避免对热门标签做 GROUP BY / 反连接。
+ * 本进程的关联变化通过事务提交后的事件立即应用；其他实例提交的变化由触发器写入 image_tag_changes，
+ * 按 changed_at 水位定期补齐。启动时优先加载快照文件并从其中记录的水位补齐，否则后台全量重建。
+ * 索引未就绪，或距上次成功补齐超过 max-lag 时 {@link #match} 返回 null，调用方回退到纯 SQL 过滤。
+ */
+@Slf4j
+@Component
+public class TagPostingIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x54504958;
+    private static final int SNAPSHOT_VERSION = 2;
+    /**
+     * 补齐时水位向前回退的时间（微秒），覆盖写入时间早于水位、提交却晚于上次补齐的事务
+     */
+    private static final long CATCH_UP_OVERLAP_MICROS = 5L * 60 * 1_000_000;
+    private static final long NEVER = Long.MIN_VALUE;
+    private static final String EPOCH_MICROS = "(EXTRACT(EPOCH FROM changed_at) * 1000000)::bigint";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TagIndexProperties properties;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    // 以下字段受 lock 保护
+    private Map<Long, RoaringBitmap> postings = new HashMap<>();
+    private List<Change> pendingChanges;
+    // 已应用到 postings 的变更日志水位（纪元微秒）
+    private long watermark;
+
+    private volatile boolean ready;
+    private volatile boolean dirty;
+    // 上次成功补齐（或构建）的时间，System.nanoTime()；NEVER 表示加载快照后尚未补齐
+    private volatile long syncedAt = NEVER;
+
+    public TagPostingIndex(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                           TagIndexProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(10_000);
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) return;
+        Thread loader = new Thread(() -> {
+            if (!loadSnapshot() || !catchUp()) {
+                rebuild();
+            }
+        }, "tag-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 已就绪且最近补齐过其他实例的变更
+     */
+    private boolean trusted() {
+        long synced = syncedAt;
+        return ready && synced != NEVER && System.nanoTime() - synced <= properties.getMaxLag().toNanos();
+    }
+
+    /**
+     * 正向标签求交、再减去反向标签的并集。索引不可信或没有正向标签时返回 null。
+     */
+    public RoaringBitmap match(List<Long> positiveTagIds, List<Long> negativeTagIds) {
+        if (!trusted() || positiveTagIds.isEmpty()) return null;
+        lock.readLock().lock();
+        try {
+            RoaringBitmap[] positives = new RoaringBitmap[positiveTagIds.size()];
+            for (int i = 0; i < positives.length; i++) {
+                RoaringBitmap bitmap = postings.get(positiveTagIds.get(i));
+                if (bitmap == null || bitmap.isEmpty()) {
+                    return new RoaringBitmap();
+                }
+                positives[i] = bitmap;
+            }
+            // 从最稀疏的标签开始求交
+            Arrays.sort(positives, Comparator.comparingInt(RoaringBitmap::getCardinality));
+            RoaringBitmap result = positives.length == 1 ? positives[0].clone() : FastAggregation.and(positives);
+            for (Long tagId : negativeTagIds) {
+                RoaringBitmap bitmap = postings.get(tagId);
+                if (bitmap != null) {
+                    result.andNot(bitmap);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 统计候选集中每个标签的图片数；candidates 为 null 时统计全库。索引不可信时返回 null。
+     */
+    public Map<Long, Long> countTags(RoaringBitmap candidates) {
+        if (!trusted()) return null;
+        lock.readLock().lock();
+        try {
+            Map<Long, Long> counts = new HashMap<>();
+            for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+                long count = candidates == null
+                        ? entry.getValue().getLongCardinality()
+                        : RoaringBitmap.andCardinality(candidates, entry.getValue());
+                if (count > 0) {
+                    counts.put(entry.getKey(), count);
+                }
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTagsChanged(ImageTagsChangedEvent event) {
+        apply(new Change(event.imageId(), event.addedTagIds(), event.removedTagIds()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onImageDeleted(ImageDeletedEvent event) {
+        apply(new Change(event.imageId(), List.of(), event.tagIds()));
+    }
+
+    @Scheduled(
+            fixedDelayString = "${app.tag-index.rebuild-interval-ms:21600000}",
+            initialDelayString = "${app.tag-index.rebuild-interval-ms:21600000}"
+    )
+    public void rebuild() {
+        if (!properties.isEnabled() || !loading.compareAndSet(false, true)) return;
+        try {
+            long startedAt = System.currentTimeMillis();
+            long syncStartedAt = System.nanoTime();
+            beginLoad();
+            Map<Long, RoaringBitmap> built = new HashMap<>();
+            // 水位取自流式读取之前，读取期间提交的变更由下一次补齐重放
+            Long builtWatermark = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(MAX(" + EPOCH_MICROS + "), 0) FROM image_tag_changes", Long.class);
+            transactionTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query(
+                    "SELECT tag_id, image_id FROM image_tag_relation ORDER BY tag_id, image_id",
+                    rs -> {
+                        built.computeIfAbsent(rs.getLong(1), tagId -> new RoaringBitmap())
+                                .add(toIndexId(rs.getLong(2)));
+                    }));
+            built.values().forEach(RoaringBitmap::runOptimize);
+            install(built, builtWatermark == null ? 0 : builtWatermark, syncStartedAt);
+            dirty = true;
+            log.info("标签倒排索引重建完成，{} 个标签，耗时 {}ms", built.size(), System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("标签倒排索引重建失败，搜索回退到 SQL 过滤: {}", e.getMessage(), e);
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * 补齐水位之后提交的关联变更（包括其他实例的），每对 (图片, 标签) 以日志中最后一次变更为准。
+     * 水位早于变更日志的保留期时无法补齐，改为全量重建
+     */
+    @Scheduled(
+            fixedDelayString = "${app.tag-index.sync-interval-ms:5000}",
+            initialDelayString = "${app.tag-index.sync-interval-ms:5000}"
+    )
+    public void synchronize() {
+        if (!properties.isEnabled() || !ready) return;
+        if (!catchUp()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return 水位已超出保留期或补齐失败时返回 false
+     */
+    boolean catchUp() {
+        long from;
+        lock.readLock().lock();
+        try {
+            from = watermark;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!loading.compareAndSet(false, true)) return true;
+        try {
+            long syncStartedAt = System.nanoTime();
+            Long horizon = jdbcTemplate.queryForObject(
+                    "SELECT (EXTRACT(EPOCH FROM LOCALTIMESTAMP - CAST(? AS INTERVAL)) * 1000000)::bigint",
+                    Long.class, properties.getChangeRetention().toString());
+            if (horizon != null && from < horizon) {
+                log.info("标签倒排索引水位早于变更日志保留期，改为全量重建");
+                return false;
+            }
+            beginLoad();
+            // 按 id 顺序折叠为每对 (图片, 标签) 的最终状态，重复应用是幂等的
+            Map<Long, Map<Long, Boolean>> latest = new HashMap<>();
+            long[] newest = {from};
+            int[] rows = {0};
+            transactionTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query("""
+                            SELECT image_id, tag_id, added, %s
+                            FROM image_tag_changes
+                            WHERE changed_at > TIMESTAMP 'epoch' + ? * INTERVAL '1 microsecond'
+                            ORDER BY id
+                            """.formatted(EPOCH_MICROS),
+                    rs -> {
+                        latest.computeIfAbsent(rs.getLong(1), imageId -> new HashMap<>())
+                                .put(rs.getLong(2), rs.getBoolean(3));
+                        newest[0] = Math.max(newest[0], rs.getLong(4));
+                        rows[0]++;
+                    },
+                    Math.max(0, from - CATCH_UP_OVERLAP_MICROS)));
+            lock.writeLock().lock();
+            try {
+                latest.forEach((imageId, tags) -> {
+                    List<Long> added = new ArrayList<>();
+                    List<Long> removed = new ArrayList<>();
+                    tags.forEach((tagId, present) -> (present ? added : removed).add(tagId));
+                    new Change(imageId, added, removed).applyTo(postings);
+                });
+                // 补齐期间到达的本地事件晚于上面的查询，最后重放
+                for (Change change : pendingChanges) {
+                    change.applyTo(postings);
+                }
+                pendingChanges = null;
+                if (newest[0] != watermark || rows[0] > 0) {
+                    dirty = true;
+                }
+                watermark = newest[0];
+                syncedAt = syncStartedAt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("标签倒排索引补齐变更失败: {}", e.getMessage());
+            return false;
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * 清理超过保留期的变更日志
+     */
+    @Scheduled(
+            fixedDelayString = "${app.tag-index.purge-interval-ms:3600000}",
+            initialDelayString = "${app.tag-index.purge-interval-ms:3600000}"
+    )
+    public void purgeChanges() {
+        if (!properties.isEnabled()) return;
+        int purged = jdbcTemplate.update(
+                "DELETE FROM image_tag_changes WHERE changed_at < LOCALTIMESTAMP - CAST(? AS INTERVAL)",
+                properties.getChangeRetention().toString());
+        if (purged > 0) {
+            log.info("已清理 {} 条过期的标签关联变更日志", purged);
+        }
+    }
+
+    @Scheduled(
+            fixedDelayString = "${app.tag-index.snapshot-interval-ms:600000}",
+            initialDelayString = "${app.tag-index.snapshot-interval-ms:600000}"
+    )
+    public void saveSnapshotIfDirty() {
+        if (ready && dirty) {
+            saveSnapshot();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        saveSnapshotIfDirty();
+    }
+
+    boolean loadSnapshot() {
+        Path path = Path.of(properties.getSnapshotPath());
+        if (!Files.isRegularFile(path) || !loading.compareAndSet(false, true)) return false;
+        try {
+            beginLoad();
+            Map<Long, RoaringBitmap> loaded;
+            long savedWatermark;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    abortLoad();
+                    return false;
+                }
+                savedWatermark = in.readLong();
+                int tagCount = in.readInt();
+                loaded = new HashMap<>(tagCount * 2);
+                for (int i = 0; i < tagCount; i++) {
+                    long tagId = in.readLong();
+                    RoaringBitmap bitmap = new RoaringBitmap();
+                    bitmap.deserialize(in);
+                    loaded.put(tagId, bitmap);
+                }
+            }
+            // 快照中的位图停在其水位，加载后由调用方立即补齐；补齐前不会被信任
+            install(loaded, savedWatermark, NEVER);
+            log.info("已从快照加载标签倒排索引，{} 个标签", loaded.size());
+            return true;
+        } catch (Exception e) {
+            abortLoad();
+            log.warn("标签倒排索引快照加载失败: {}", e.getMessage());
+            return false;
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    void saveSnapshot() {
+        Path path = Path.of(properties.getSnapshotPath());
+        lock.readLock().lock();
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "tag-index-", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                // 水位与位图只在写锁下一起变化，持有读锁期间二者对应同一时刻；
+                // 位图中可能已含水位之后的本地事件，加载后从水位重放日志时以最后一次变更为准
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(watermark);
+                out.writeInt(postings.size());
+                for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    entry.getValue().serialize(out);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (Exception e) {
+            log.warn("标签倒排索引快照写入失败: {}", e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void install(Map<Long, RoaringBitmap> loaded) {
+        install(loaded, 0, System.nanoTime());
+    }
+
+    private void install(Map<Long, RoaringBitmap> loaded, long loadedWatermark, long loadedSyncedAt) {
+        lock.writeLock().lock();
+        try {
+            // 加载期间到达的增量在新数据上重放，重复应用是幂等的
+            List<Change> replay = pendingChanges == null ? List.of() : pendingChanges;
+            pendingChanges = null;
+            for (Change change : replay) {
+                change.applyTo(loaded);
+            }
+            postings = loaded;
+            watermark = loadedWatermark;
+            syncedAt = loadedSyncedAt;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Change change) {
+        if (!properties.isEnabled()) return;
+        lock.writeLock().lock();
+        try {
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+            if (ready) {
+                change.applyTo(postings);
+                dirty = true;
+            }
+        } catch (IllegalStateException e) {
+            ready = false;
+            log.warn("标签倒排索引已停用: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void abortLoad() {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int toIndexId(long imageId) {
+        if (imageId < 0 || imageId > Integer.MAX_VALUE) {
+            throw new IllegalStateException("图片 ID 超出位图范围: " + imageId);
+        }
+        return (int) imageId;
+    }
+
+    private record Change(long imageId, List<Long> added, List<Long> removed) {
+        void applyTo(Map<Long, RoaringBitmap> target) {
+            int id = toIndexId(imageId);
+            for (Long tagId : added) {
+                target.computeIfAbsent(tagId, key -> new RoaringBitmap()).add(id);
+            }
+            for (Long tagId : removed) {
+                RoaringBitmap bitmap = target.get(tagId);
+                if (bitmap != null) {
+                    bitmap.remove(id);
+                }
+            }
+        }
+    }
+}
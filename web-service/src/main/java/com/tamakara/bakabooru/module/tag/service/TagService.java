@@ -2,10 +2,8 @@ package com.tamakara.bakabooru.module.tag.service;
 
 import com.tamakara.bakabooru.module.tag.dto.TagDto;
 import com.tamakara.bakabooru.module.tag.entity.Tag;
-import com.tamakara.bakabooru.module.tag.mapper.TagMapper;
 import com.tamakara.bakabooru.module.tag.repository.TagRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -15,16 +13,18 @@ import java.util.List;
 public class TagService {
 
     private final TagRepository tagRepository;
-    private final TagMapper tagMapper;
-
-    public List<TagDto> listTags() {
-        return tagRepository.findAll().stream().map(tagMapper::toDto).toList();
+    private final TagAutocomplete tagAutocomplete;
+    private final TagCatalog tagCatalog;
+
+    /**
+     * 全部标签的预序列化快照，稳态下不访问数据库
+     */
+    public TagCatalog.Snapshot listTags() {
+        return tagCatalog.current();
     }
 
     public List<TagDto> searchTags(String query) {
-        return tagRepository.searchTags(query, PageRequest.of(0, 20)).stream()
-                .map(tagMapper::toDto)
-                .toList();
+        return tagAutocomplete.search(query, 20);
     }
 
     public Tag getTagById(Long id) {
@@ -32,6 +32,13 @@ public class TagService {
                 .orElseThrow(() -> new RuntimeException("Tag not found: " + id));
     }
 
+    /**
+     * 获取不触发查询的标签引用，仅用于写入关联外键
+     */
+    public Tag getTagReference(Long id) {
+        return tagRepository.getReferenceById(id);
+    }
+
     public Tag getTagByName(String name) {
         return tagRepository.findByName(name)
                 .orElseThrow(() -> new RuntimeException("Tag not found: " + name));
@@ -1,19 +1,29 @@
 package com.tamakara.bakabooru.module.upload.controller;
 
 import com.tamakara.bakabooru.module.upload.dto.TasksInfoDto;
+import com.tamakara.bakabooru.module.upload.dto.UploadResultDto;
 import com.tamakara.bakabooru.module.upload.service.UploadJobService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/upload")
@@ -21,12 +31,42 @@ import java.util.UUID;
 @Tag(name = "上传", description = "图片上传操作")
 public class UploadController {
 
+    private static final String CONTENT_SHA256 = "X-Content-SHA256";
+
     private final UploadJobService uploadJobService;
 
-    @PostMapping
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "上传图片", description = "上传单个图片并创建持久化任务")
-    public void createTask(@RequestParam("file") MultipartFile file) {
-        uploadJobService.createTask(file);
+    public ResponseEntity<UploadResultDto> createTask(
+            @RequestParam("file") MultipartFile file,
+            @RequestHeader(value = CONTENT_SHA256, required = false) String sha256) {
+        return upload(() -> uploadJobService.createTask(file, sha256));
+    }
+
+    /**
+     * 请求体即文件内容，不经过 multipart 解析与 Tomcat 落盘，直接流向 MinIO staging
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "流式上传图片", description = "请求体为文件内容，文件名由 filename 参数给出；重复内容返回 409 与已有图片 ID")
+    public ResponseEntity<UploadResultDto> createTaskFromStream(
+            @RequestParam String filename,
+            @RequestHeader(value = CONTENT_SHA256, required = false) String sha256,
+            HttpServletRequest request) throws IOException {
+        InputStream body = request.getInputStream();
+        return upload(() -> uploadJobService.createTask(filename, request.getContentType(),
+                request.getContentLengthLong(), body, sha256));
+    }
+
+    private static ResponseEntity<UploadResultDto> upload(Supplier<UploadResultDto> action) {
+        try {
+            return ResponseEntity.ok(action.get());
+        } catch (UploadJobService.DuplicateUploadException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getExisting());
+        } catch (UploadJobService.UploadTooLargeException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     @GetMapping("/tasks")
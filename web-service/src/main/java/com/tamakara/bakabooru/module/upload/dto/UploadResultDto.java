@@ -0,0 +1,17 @@
+package com.tamakara.bakabooru.module.upload.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 上传结果。重复上传时 imageId 或 jobId 指向已有的图片或进行中的任务
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadResultDto {
+    private String jobId;
+    private String hash;
+    private Long imageId;
+}
@@ -32,6 +32,9 @@ public class UploadJob {
     @Column(nullable = false)
     private long size;
 
+    @Column(length = 64)
+    private String hash;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private UploadJobStatus status;
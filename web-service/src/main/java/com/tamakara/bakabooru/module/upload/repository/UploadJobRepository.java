@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -20,13 +21,15 @@ public interface UploadJobRepository extends JpaRepository<UploadJob, UUID> {
             WHERE status = 'PENDING'
                OR (status = 'PROCESSING' AND locked_until < :now)
             ORDER BY created_at
-            LIMIT 1
+            LIMIT :limit
             FOR UPDATE SKIP LOCKED
             """, nativeQuery = true)
-    Optional<UploadJob> findNextClaimable(@Param("now") Instant now);
+    List<UploadJob> findClaimable(@Param("now") Instant now, @Param("limit") int limit);
 
     long countByStatus(UploadJobStatus status);
 
+    Optional<UploadJob> findFirstByHashAndStatusIn(String hash, Collection<UploadJobStatus> statuses);
+
     Optional<UploadJob> findFirstByStatusOrderByCreatedAtAsc(UploadJobStatus status);
 
     List<UploadJob> findTop100ByStatusOrderByUpdatedAtDesc(UploadJobStatus status);
@@ -39,9 +42,10 @@ public interface UploadJobRepository extends JpaRepository<UploadJob, UUID> {
     @Query("""
             UPDATE UploadJob j
             SET j.lockedUntil = :lockedUntil, j.updatedAt = :now
-            WHERE j.status = :status AND j.lockedBy = :workerId
+            WHERE j.id IN :ids AND j.status = :status AND j.lockedBy = :workerId
             """)
-    int extendWorkerLocks(
+    int extendLocks(
+            @Param("ids") Collection<UUID> ids,
             @Param("workerId") String workerId,
             @Param("status") UploadJobStatus status,
             @Param("lockedUntil") Instant lockedUntil,
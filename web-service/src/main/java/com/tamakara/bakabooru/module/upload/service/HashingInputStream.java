@@ -0,0 +1,79 @@
+package com.tamakara.bakabooru.module.upload.service;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * 边读边计算 SHA-256 并统计字节数，超过上限时中止读取
+ */
+class HashingInputStream extends FilterInputStream {
+
+    private final MessageDigest digest = DigestUtils.getSha256Digest();
+    private final long maxBytes;
+    private long count;
+    private boolean exceeded;
+
+    HashingInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            digest.update((byte) value);
+            advance(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            digest.update(buffer, offset, read);
+            advance(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // 跳过的字节不会进入摘要
+        throw new IOException("不支持跳过");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void advance(int read) throws IOException {
+        count += read;
+        if (maxBytes > 0 && count > maxBytes) {
+            exceeded = true;
+            throw new IOException("文件超过大小上限");
+        }
+    }
+
+    long count() {
+        return count;
+    }
+
+    boolean exceeded() {
+        return exceeded;
+    }
+
+    /**
+     * 读取结束后调用，返回小写十六进制摘要
+     */
+    String sha256Hex() {
+        return Hex.encodeHexString(digest.digest());
+    }
+}
@@ -1,7 +1,11 @@
 package com.tamakara.bakabooru.module.upload.service;
 
+import com.tamakara.bakabooru.config.UploadProperties;
+import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.repository.ImageRepository;
 import com.tamakara.bakabooru.module.image.service.StorageService;
 import com.tamakara.bakabooru.module.upload.dto.TasksInfoDto;
+import com.tamakara.bakabooru.module.upload.dto.UploadResultDto;
 import com.tamakara.bakabooru.module.upload.dto.UploadTaskDto;
 import com.tamakara.bakabooru.module.upload.entity.UploadJob;
 import com.tamakara.bakabooru.module.upload.entity.UploadJobStatus;
@@ -9,60 +13,131 @@ import com.tamakara.bakabooru.module.upload.repository.UploadJobRepository;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.io.FilenameUtils;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
 public class UploadJobService {
 
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final List<UploadJobStatus> IN_FLIGHT = List.of(UploadJobStatus.PENDING, UploadJobStatus.PROCESSING);
+
     private final UploadJobRepository uploadJobRepository;
+    private final ImageRepository imageRepository;
     private final StorageService storageService;
+    private final UploadProperties uploadProperties;
     private final BusinessMetrics metrics;
 
-    public void createTask(MultipartFile file) {
+    public UploadResultDto createTask(MultipartFile file, String declaredHash) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return createTask(file.getOriginalFilename(), file.getContentType(), file.getSize(), inputStream, declaredHash);
+        } catch (IOException e) {
+            throw new RuntimeException("创建上传任务失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把请求体直接写入 staging，同时计算 SHA-256：已入库或已有进行中任务的内容立即拒绝并删除 staging，
+     * 否则创建带哈希的任务，Worker 不再重新计算。客户端预先声明哈希时，重复内容在读取请求体之前就被拒绝
+     *
+     * @param size         请求体长度，未知时为 -1
+     * @param declaredHash 客户端声明的 SHA-256，可为空；与实际内容不符时拒绝
+     */
+    public UploadResultDto createTask(String originalFilename, String contentType, long size, InputStream body,
+                                      String declaredHash) {
+        String expectedHash = normalizeHash(declaredHash);
+        if (expectedHash != null) {
+            rejectDuplicate(expectedHash, "declared");
+        }
+        long maxBytes = uploadProperties.getMaxFileSize().toBytes();
+        if (size > maxBytes) {
+            throw new UploadTooLargeException(maxBytes);
+        }
+
         UUID id = UUID.randomUUID();
         String stagingObjectName = "staging/" + id;
-        String filename = FilenameUtils.getName(file.getOriginalFilename());
+        String filename = FilenameUtils.getName(originalFilename);
         if (filename == null || filename.isBlank()) {
             filename = id.toString();
         }
 
-        try (InputStream inputStream = file.getInputStream()) {
-            storageService.uploadStream(
-                    stagingObjectName,
-                    inputStream,
-                    file.getSize(),
-                    file.getContentType()
-            );
+        HashingInputStream inputStream = new HashingInputStream(body, maxBytes);
+        try {
+            storageService.uploadStream(stagingObjectName, inputStream, size, contentType);
+            String hash = inputStream.sha256Hex();
+            if (expectedHash != null && !expectedHash.equals(hash)) {
+                throw new IllegalArgumentException("文件内容与声明的 SHA-256 不符");
+            }
+            rejectDuplicate(hash, "streamed");
 
             Instant now = Instant.now();
             UploadJob job = new UploadJob();
             job.setId(id);
             job.setFilename(filename);
             job.setStagingObjectName(stagingObjectName);
-            job.setSize(file.getSize());
+            job.setSize(inputStream.count());
+            job.setHash(hash);
             job.setStatus(UploadJobStatus.PENDING);
             job.setCreatedAt(now);
             job.setUpdatedAt(now);
-            uploadJobRepository.save(job);
-            metrics.uploadAccepted(file.getSize());
-        } catch (Exception e) {
+            try {
+                uploadJobRepository.saveAndFlush(job);
+            } catch (DataIntegrityViolationException e) {
+                // 另一个请求在检查之后抢先创建了相同内容的任务
+                rejectDuplicate(hash, "streamed");
+                throw e;
+            }
+            metrics.uploadAccepted(inputStream.count());
+            return new UploadResultDto(id.toString(), hash, null);
+        } catch (RuntimeException e) {
             try {
                 storageService.deleteFile(stagingObjectName);
             } catch (Exception ignored) {
                 // Best-effort compensation for a partially uploaded staging object.
             }
+            if (inputStream.exceeded()) {
+                throw new UploadTooLargeException(maxBytes);
+            }
+            if (e instanceof DuplicateUploadException || e instanceof IllegalArgumentException) {
+                throw e;
+            }
             throw new RuntimeException("创建上传任务失败: " + e.getMessage(), e);
         }
     }
 
+    private void rejectDuplicate(String hash, String stage) {
+        Long imageId = imageRepository.findByHash(hash).map(Image::getId).orElse(null);
+        if (imageId != null) {
+            metrics.uploadDuplicate(stage);
+            throw new DuplicateUploadException(new UploadResultDto(null, hash, imageId));
+        }
+        uploadJobRepository.findFirstByHashAndStatusIn(hash, IN_FLIGHT).ifPresent(job -> {
+            metrics.uploadDuplicate(stage);
+            throw new DuplicateUploadException(new UploadResultDto(job.getId().toString(), hash, null));
+        });
+    }
+
+    private static String normalizeHash(String hash) {
+        if (!StringUtils.hasText(hash)) return null;
+        String normalized = hash.trim().toLowerCase(Locale.ROOT);
+        if (!SHA256_HEX.matcher(normalized).matches()) {
+            throw new IllegalArgumentException("无效的 SHA-256");
+        }
+        return normalized;
+    }
+
     @Transactional(readOnly = true)
     public TasksInfoDto getTasksInfo() {
         UploadTaskDto processingTask = uploadJobRepository
@@ -91,6 +166,10 @@ public class UploadJobService {
         if (!storageService.existFile(job.getStagingObjectName())) {
             throw new RuntimeException("暂存文件不存在，请重新上传");
         }
+        if (job.getHash() != null
+                && uploadJobRepository.findFirstByHashAndStatusIn(job.getHash(), IN_FLIGHT).isPresent()) {
+            throw new RuntimeException("相同内容的上传任务正在处理");
+        }
 
         job.setStatus(UploadJobStatus.PENDING);
         job.setErrorMessage(null);
@@ -100,6 +179,30 @@ public class UploadJobService {
         uploadJobRepository.save(job);
     }
 
+    /**
+     * 内容已入库或已有进行中的任务
+     */
+    public static class DuplicateUploadException extends RuntimeException {
+        private final UploadResultDto existing;
+
+        public DuplicateUploadException(UploadResultDto existing) {
+            super(existing.getImageId() != null
+                    ? "图片已存在 (ID: " + existing.getImageId() + ")"
+                    : "相同内容的上传任务正在处理 (任务: " + existing.getJobId() + ")");
+            this.existing = existing;
+        }
+
+        public UploadResultDto getExisting() {
+            return existing;
+        }
+    }
+
+    public static class UploadTooLargeException extends RuntimeException {
+        public UploadTooLargeException(long maxBytes) {
+            super("文件超过大小上限 " + maxBytes + " 字节");
+        }
+    }
+
     public void clearFailedTasks() {
         List<UploadJob> failedJobs = uploadJobRepository
                 .findByStatusOrderByUpdatedAtDesc(UploadJobStatus.FAILED);
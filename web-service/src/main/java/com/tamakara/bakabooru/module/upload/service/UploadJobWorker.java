@@ -12,25 +12,46 @@ import com.tamakara.bakabooru.module.upload.entity.UploadJob;
 import com.tamakara.bakabooru.module.upload.entity.UploadJobStatus;
 import com.tamakara.bakabooru.module.upload.repository.UploadJobRepository;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 上传任务 Worker
+ * <p>
+ * 每次在一个事务中以 SKIP LOCKED 领取至多 batch-size 个任务并写入同一租约，交给线程池并发处理；
+ * 下载、复制、上传等 MinIO 步骤受 io-concurrency 限制，哈希、解码与缩略图生成受 cpu-concurrency 限制。
+ * staging 对象只下载一次：不超过 in-memory-max-size 时读入堆内存，否则以内存映射读取；读入堆内存的字节
+ * 从下载前到缩略图生成完成计入 in-memory-budget，等待 cpu 许可的任务不会让堆内缓冲无上限地堆积；
+ * 文件头解析与解码复用同一个解码器，缩略图在内存中编码后直接上传，原图由 MinIO 服务端复制。
+ * 处理中的任务不足一半时继续领取下一批。领取循环在专用的调度线程上等待空闲槽位，定时任务只负责唤起它，
+ * 不占用共享的 @Scheduled 线程；心跳同样有自己的线程，只为本实例仍在处理的任务续租，不会被其他定时任务饿死。
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class UploadJobWorker {
 
     private final UploadJobRepository uploadJobRepository;
@@ -44,22 +65,130 @@ public class UploadJobWorker {
     private final BusinessMetrics metrics;
 
     private final String workerId = UUID.randomUUID().toString();
+    private final ThreadPoolExecutor executor;
+    // 领取循环，同一时刻只有一个在运行，排队中已有唤起时丢弃新的
+    private final ThreadPoolExecutor dispatcher;
+    private final ScheduledThreadPoolExecutor heartbeat;
+    private final int batchSize;
+    // 空闲槽位，处理中的任务各占一个
+    private final Semaphore slots;
+    private final Semaphore ioPermits;
+    private final Semaphore cpuPermits;
+    // 堆内 staging 字节预算，以 KB 为单位
+    private final Semaphore heapBudget;
+    private final int heapBudgetKilobytes;
+    private final Set<UUID> activeJobs = ConcurrentHashMap.newKeySet();
 
+    public UploadJobWorker(UploadJobRepository uploadJobRepository, StorageService storageService,
+                           ImageService imageService, ThumbnailService thumbnailService, AiJobService aiJobService,
+                           UploadProperties uploadProperties, SystemSettingService systemSettingService,
+                           TransactionTemplate transactionTemplate, BusinessMetrics metrics) {
+        this.uploadJobRepository = uploadJobRepository;
+        this.storageService = storageService;
+        this.imageService = imageService;
+        this.thumbnailService = thumbnailService;
+        this.aiJobService = aiJobService;
+        this.uploadProperties = uploadProperties;
+        this.systemSettingService = systemSettingService;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+
+        this.batchSize = Math.max(1, uploadProperties.getBatchSize());
+        int cpuConcurrency = uploadProperties.getCpuConcurrency() > 0
+                ? uploadProperties.getCpuConcurrency() : Runtime.getRuntime().availableProcessors();
+        this.slots = new Semaphore(batchSize);
+        this.ioPermits = new Semaphore(Math.max(1, uploadProperties.getIoConcurrency()));
+        this.cpuPermits = new Semaphore(cpuConcurrency);
+        this.heapBudgetKilobytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                uploadProperties.getInMemoryBudget().toKilobytes()));
+        this.heapBudget = new Semaphore(heapBudgetKilobytes);
+        AtomicInteger sequence = new AtomicInteger();
+        // 线程数等于槽位数，等待许可的任务阻塞在各自线程上，不会占用其他任务的线程
+        this.executor = new ThreadPoolExecutor(batchSize, batchSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "upload-worker-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "upload-dispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        this.heartbeat = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "upload-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startHeartbeat() {
+        long interval = Math.max(1, uploadProperties.getHeartbeatIntervalMs());
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                extendActiveLocks();
+            } catch (RuntimeException e) {
+                // 抛出的异常会取消后续执行，这里只记录，下一次心跳重试
+                log.warn("上传任务续租失败: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 唤起领取循环后立即返回，等待槽位发生在调度线程上
+     */
     @Scheduled(
             fixedDelayString = "${app.upload.poll-interval-ms:1000}",
             initialDelayString = "${app.upload.initial-delay-ms:2000}"
     )
     public void processAvailableJobs() {
-        UUID jobId;
-        while ((jobId = claimNextJob()) != null) {
-            processJob(jobId);
+        dispatcher.execute(this::dispatch);
+    }
+
+    private void dispatch() {
+        int refillAt = Math.max(1, batchSize / 2);
+        while (!executor.isShutdown()) {
+            // 空出一半槽位后再领取，每批至少 batch-size / 2 个任务共享一次领取事务
+            try {
+                slots.acquire(refillAt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            slots.release(refillAt);
+
+            List<UUID> jobIds = claimJobs(slots.availablePermits());
+            if (jobIds.isEmpty()) return;
+            for (UUID jobId : jobIds) {
+                slots.acquireUninterruptibly();
+                activeJobs.add(jobId);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            processJob(jobId);
+                        } finally {
+                            activeJobs.remove(jobId);
+                            slots.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // 线程池已关闭，任务留给租约过期后重新领取
+                    activeJobs.remove(jobId);
+                    slots.release();
+                }
+            }
         }
     }
 
-    @Scheduled(fixedRateString = "${app.upload.heartbeat-interval-ms:30000}")
-    public void extendActiveLocks() {
+    void extendActiveLocks() {
+        List<UUID> jobIds = List.copyOf(activeJobs);
+        if (jobIds.isEmpty()) return;
         Instant now = Instant.now();
-        transactionTemplate.executeWithoutResult(status -> uploadJobRepository.extendWorkerLocks(
+        transactionTemplate.executeWithoutResult(status -> uploadJobRepository.extendLocks(
+                jobIds,
                 workerId,
                 UploadJobStatus.PROCESSING,
                 now.plus(uploadProperties.getLockDuration()),
@@ -83,54 +212,64 @@ public class UploadJobWorker {
         }
     }
 
-    private UUID claimNextJob() {
-        return transactionTemplate.execute(status -> {
+    private List<UUID> claimJobs(int limit) {
+        if (limit <= 0) return List.of();
+        List<UUID> jobIds = transactionTemplate.execute(status -> {
             Instant now = Instant.now();
-            return uploadJobRepository.findNextClaimable(now)
-                    .map(job -> {
-                        job.setStatus(UploadJobStatus.PROCESSING);
-                        job.setAttempts(job.getAttempts() + 1);
-                        job.setErrorMessage(null);
-                        job.setLockedBy(workerId);
-                        job.setLockedUntil(now.plus(uploadProperties.getLockDuration()));
-                        job.setUpdatedAt(now);
-                        uploadJobRepository.saveAndFlush(job);
-                        return job.getId();
-                    })
-                    .orElse(null);
+            List<UploadJob> jobs = uploadJobRepository.findClaimable(now, limit);
+            for (UploadJob job : jobs) {
+                job.setStatus(UploadJobStatus.PROCESSING);
+                job.setAttempts(job.getAttempts() + 1);
+                job.setErrorMessage(null);
+                job.setLockedBy(workerId);
+                job.setLockedUntil(now.plus(uploadProperties.getLockDuration()));
+                job.setUpdatedAt(now);
+            }
+            uploadJobRepository.saveAllAndFlush(jobs);
+            return jobs.stream().map(UploadJob::getId).toList();
         });
+        return jobIds == null ? List.of() : jobIds;
     }
 
     private void processJob(UUID jobId) {
         UploadJob job = uploadJobRepository.findById(jobId).orElse(null);
         if (job == null) return;
 
-        File stagingFile = null;
         try {
-            stagingFile = storageService.getFile(job.getStagingObjectName());
-            String hash = calculateHash(stagingFile);
-            if (imageService.existImageByHash(hash)) {
-                throw new RuntimeException("图片已存在 (Hash: " + hash + ")");
-            }
+            long heapLimit = uploadProperties.getInMemoryMaxSize().toBytes();
+            String hash;
+            ThumbnailService.ProcessedImage processed;
+            // 读入堆内存的字节在下载前占用预算，直到缩略图生成完成、原图字节不再被引用
+            int buffered = heapPermits(job.getSize(), heapLimit);
+            heapBudget.acquire(buffered);
+            try {
+                // staging 对象只读取一次，哈希、文件头解析、解码与缩略图编码共用同一份字节
+                ByteBuffer staged = withPermit(ioPermits,
+                        () -> storageService.getBuffer(job.getStagingObjectName(), job.getSize(), heapLimit));
+                // 上传时已随流计算哈希，只有迁移前创建的任务需要重新计算
+                hash = job.getHash() != null ? job.getHash()
+                        : withPermit(cpuPermits, () -> calculateHash(staged.duplicate()));
+                if (imageService.existImageByHash(hash)) {
+                    throw new RuntimeException("图片已存在 (Hash: " + hash + ")");
+                }
 
-            ImageInfo imageInfo = new ImageInfo(stagingFile);
-            if (imageInfo.isAnimated()) {
-                throw new UnsupportedOperationException("暂不支持动图");
+                processed = withPermit(cpuPermits, () -> thumbnailService.process(staged));
+            } finally {
+                heapBudget.release(buffered);
             }
 
-            storageService.copyFile(job.getStagingObjectName(), "original/" + hash);
-            thumbnailService.generateAndUploadThumbnail(stagingFile, hash);
+            withPermit(ioPermits, () -> {
+                storageService.copyFile(job.getStagingObjectName(), "original/" + hash);
+                thumbnailService.uploadThumbnail(processed.thumbnail(), hash);
+                return null;
+            });
 
-            transactionTemplate.execute(status -> completeJob(jobId, job, imageInfo, hash));
+            transactionTemplate.execute(status -> completeJob(jobId, job, processed.info(), hash));
             metrics.uploadProcessed("success", Duration.between(job.getCreatedAt(), Instant.now()));
         } catch (Exception e) {
             markFailed(jobId, e);
             metrics.uploadProcessed("failed", Duration.between(job.getCreatedAt(), Instant.now()));
             return;
-        } finally {
-            if (stagingFile != null && stagingFile.exists() && !stagingFile.delete()) {
-                log.warn("无法删除上传任务临时文件: {}", stagingFile);
-            }
         }
 
         try {
@@ -181,11 +320,50 @@ public class UploadJobWorker {
         }));
     }
 
-    private String calculateHash(File file) {
-        try (InputStream stream = new FileInputStream(file)) {
-            return DigestUtils.sha256Hex(stream);
-        } catch (Exception e) {
-            throw new RuntimeException("计算哈希失败", e);
+    /**
+     * 读入堆内存的对象占用的预算（KB），内存映射的大文件不计入；单个对象至多占满整个预算
+     */
+    private int heapPermits(long size, long heapLimit) {
+        if (size < 0 || size > heapLimit) return 0;
+        return (int) Math.min(heapBudgetKilobytes, Math.max(1, (size + 1023) / 1024));
+    }
+
+    private static <T> T withPermit(Semaphore permits, PermitTask<T> task) throws Exception {
+        permits.acquire();
+        try {
+            return task.run();
+        } finally {
+            permits.release();
         }
     }
+
+    @FunctionalInterface
+    private interface PermitTask<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * 等待处理中的任务结束；超时未完成的任务不标记失败，租约过期后由其他实例重新领取
+     */
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("上传 Worker 关闭时仍有 {} 个任务未完成", activeJobs.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // 等待期间仍在处理的任务继续续租
+            heartbeat.shutdownNow();
+        }
+    }
+
+    private static String calculateHash(ByteBuffer bytes) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(bytes);
+        return Hex.encodeHexString(digest.digest());
+    }
 }
@@ -51,6 +51,10 @@ public class BusinessMetrics {
         uploadBytes.increment(bytes);
     }
 
+    public void uploadDuplicate(String stage) {
+        Counter.builder("bakabooru.upload.duplicates").tag("stage", stage).register(registry).increment();
+    }
+
     public void uploadProcessed(String result, Duration duration) {
         Counter.builder("bakabooru.upload.jobs.processed").tag("result", result).register(registry).increment();
         Timer.builder("bakabooru.upload.job.duration").tag("result", result)
@@ -72,6 +76,44 @@ public class BusinessMetrics {
                 .record(elapsedNanos, TimeUnit.NANOSECONDS);
     }
 
+    public void embeddingCache(String result) {
+        Counter.builder("bakabooru.search.embedding.cache").tag("result", result).register(registry).increment();
+    }
+
+    public void imageEmbeddingSource(String source) {
+        Counter.builder("bakabooru.search.image.embedding").tag("source", source).register(registry).increment();
+    }
+
+    public void searchCache(String result) {
+        Counter.builder("bakabooru.search.cache").tag("result", result).register(registry).increment();
+    }
+
+    public void searchPlanCache(String result) {
+        Counter.builder("bakabooru.search.plan.cache").tag("result", result).register(registry).increment();
+    }
+
+    public void searchStage(String stage, long elapsedNanos) {
+        Timer.builder("bakabooru.search.stage.duration").tag("stage", stage)
+                .publishPercentileHistogram().register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void slowSearch(String type) {
+        Counter.builder("bakabooru.search.slow").tag("type", type).register(registry).increment();
+    }
+
+    public void tagCountsRepaired(int tags) {
+        Counter.builder("bakabooru.tag.counts.repaired").register(registry).increment(tags);
+    }
+
+    /**
+     * 缓存命中省下的检索耗时（按原始检索耗时累计）
+     */
+    public void searchCacheSaved(long nanos) {
+        Counter.builder("bakabooru.search.cache.saved").baseUnit("seconds").register(registry)
+                .increment(nanos / 1_000_000_000.0);
+    }
+
     private static String label(Enum<?> value) {
         return value.name().toLowerCase(Locale.ROOT);
     }
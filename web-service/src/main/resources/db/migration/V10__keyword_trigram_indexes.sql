@@ -0,0 +1,9 @@
+-- 关键字检索：LIKE '%kw%' 的前导通配符无法走 B-tree，改用 pg_trgm GIN 表达式索引。
+-- 三元组按字符切分，CJK 文件名同样适用；不足三个字符的关键字由索引召回后再复核，结果仍然精确。
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS idx_images_title_trgm
+    ON images USING gin (LOWER(title) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS idx_images_file_name_trgm
+    ON images USING gin (LOWER(file_name) gin_trgm_ops);
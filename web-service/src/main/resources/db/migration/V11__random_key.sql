@@ -0,0 +1,6 @@
+-- 随机浏览：每张图片持有一个固定的随机键，种子只决定起点和方向，翻页是 (random_key, id) 上的范围扫描
+ALTER TABLE images
+    ADD COLUMN IF NOT EXISTS random_key INTEGER NOT NULL DEFAULT floor(random() * 2147483647)::integer;
+
+CREATE INDEX IF NOT EXISTS idx_images_random_key_id
+    ON images (random_key, id);
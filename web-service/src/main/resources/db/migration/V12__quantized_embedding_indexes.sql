@@ -0,0 +1,18 @@
+-- 量化候选索引：只索引表达式，不在表中另存副本。halfvec 与 binary_quantize 需要 pgvector 0.7+
+DO $$
+DECLARE
+    version TEXT;
+BEGIN
+    SELECT extversion INTO version FROM pg_extension WHERE extname = 'vector';
+    IF string_to_array(version, '.')::int[] < ARRAY[0, 7] THEN
+        RAISE NOTICE 'pgvector % 不支持 halfvec/binary_quantize，跳过量化索引', version;
+        RETURN;
+    END IF;
+
+    CREATE INDEX IF NOT EXISTS idx_images_embedding_halfvec
+        ON images USING hnsw ((embedding::halfvec(512)) halfvec_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+    CREATE INDEX IF NOT EXISTS idx_images_embedding_binary
+        ON images USING hnsw ((binary_quantize(embedding)::bit(512)) bit_hamming_ops) WITH (m = 16, ef_construction = 64);
+END
+$$;
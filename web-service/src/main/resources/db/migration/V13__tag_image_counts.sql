@@ -0,0 +1,76 @@
+-- 每个标签关联的图片数，按 image_id 分成 16 个条带：并发写入同一热门标签的不同图片落在不同行上，
+-- 不会在同一行锁上排队。标签的图片数为其所有条带之和，单个条带可以为负。
+CREATE TABLE tag_image_counts
+(
+    tag_id      BIGINT   NOT NULL REFERENCES tags (id) ON DELETE CASCADE,
+    stripe      SMALLINT NOT NULL,
+    image_count BIGINT   NOT NULL,
+    PRIMARY KEY (tag_id, stripe)
+);
+
+INSERT INTO tag_image_counts (tag_id, stripe, image_count)
+SELECT tag_id, (image_id % 16)::smallint, COUNT(*)
+FROM image_tag_relation
+GROUP BY tag_id, image_id % 16;
+
+-- 语句级触发器：一条语句内的变更先按 (tag_id, stripe) 聚合成增量再写入，批量插入只更新一次；
+-- 按主键顺序写入，并发语句以相同顺序加锁，避免死锁。与关联变更处于同一事务，随之提交或回滚。
+CREATE OR REPLACE FUNCTION apply_tag_image_count_delta() RETURNS trigger AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO tag_image_counts AS c (tag_id, stripe, image_count)
+        SELECT tag_id, (image_id % 16)::smallint, COUNT(*)
+        FROM inserted_rows
+        GROUP BY tag_id, image_id % 16
+        ORDER BY 1, 2
+        ON CONFLICT (tag_id, stripe) DO UPDATE SET image_count = c.image_count + EXCLUDED.image_count;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO tag_image_counts AS c (tag_id, stripe, image_count)
+        SELECT tag_id, (image_id % 16)::smallint, -COUNT(*)
+        FROM deleted_rows
+        GROUP BY tag_id, image_id % 16
+        ORDER BY 1, 2
+        ON CONFLICT (tag_id, stripe) DO UPDATE SET image_count = c.image_count + EXCLUDED.image_count;
+    ELSE
+        -- 只有标签或图片改变的行才影响计数
+        INSERT INTO tag_image_counts AS c (tag_id, stripe, image_count)
+        SELECT tag_id, stripe, SUM(delta)
+        FROM (SELECT o.tag_id, (o.image_id % 16)::smallint AS stripe, -1 AS delta
+              FROM deleted_rows o
+                       JOIN inserted_rows n ON n.id = o.id
+              WHERE (o.tag_id, o.image_id) IS DISTINCT FROM (n.tag_id, n.image_id)
+              UNION ALL
+              SELECT n.tag_id, (n.image_id % 16)::smallint, 1
+              FROM deleted_rows o
+                       JOIN inserted_rows n ON n.id = o.id
+              WHERE (o.tag_id, o.image_id) IS DISTINCT FROM (n.tag_id, n.image_id)) changes
+        GROUP BY tag_id, stripe
+        HAVING SUM(delta) <> 0
+        ORDER BY 1, 2
+        ON CONFLICT (tag_id, stripe) DO UPDATE SET image_count = c.image_count + EXCLUDED.image_count;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_image_tag_relation_count_insert
+    AFTER INSERT
+    ON image_tag_relation
+    REFERENCING NEW TABLE AS inserted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION apply_tag_image_count_delta();
+
+CREATE TRIGGER trg_image_tag_relation_count_delete
+    AFTER DELETE
+    ON image_tag_relation
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION apply_tag_image_count_delta();
+
+CREATE TRIGGER trg_image_tag_relation_count_update
+    AFTER UPDATE
+    ON image_tag_relation
+    REFERENCING OLD TABLE AS deleted_rows NEW TABLE AS inserted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION apply_tag_image_count_delta();
@@ -0,0 +1,8 @@
+-- 上传请求边写 staging 边计算 SHA-256，Worker 不再重新下载计算
+ALTER TABLE upload_jobs
+    ADD COLUMN hash VARCHAR(64);
+
+-- 同一内容同时只允许一个待处理或处理中的任务，多实例并发上传相同文件时由该索引去重
+CREATE UNIQUE INDEX uk_upload_jobs_inflight_hash
+    ON upload_jobs (hash)
+    WHERE status IN ('PENDING', 'PROCESSING');
@@ -0,0 +1,7 @@
+-- 向量写入时间。进程内向量索引按水位补齐其他副本写入、或本进程退出前未落盘的向量变更
+ALTER TABLE images
+    ADD COLUMN embedding_updated_at TIMESTAMP;
+
+CREATE INDEX idx_images_embedding_updated_at
+    ON images (embedding_updated_at)
+    WHERE embedding_updated_at IS NOT NULL;
@@ -0,0 +1,61 @@
+-- 标签关联变更日志：各实例的标签倒排索引按 changed_at 水位补齐其他实例提交的关联变更。
+-- 同一 (image_id, tag_id) 的变更受唯一索引与行锁串行化，按 id 排序即为它们的提交顺序。
+-- 超过保留期的记录定期清理，水位早于保留期的索引改为全量重建。
+CREATE TABLE image_tag_changes
+(
+    id         BIGSERIAL PRIMARY KEY,
+    image_id   BIGINT    NOT NULL,
+    tag_id     BIGINT    NOT NULL,
+    added      BOOLEAN   NOT NULL,
+    changed_at TIMESTAMP NOT NULL DEFAULT LOCALTIMESTAMP
+);
+CREATE INDEX idx_image_tag_changes_changed_at ON image_tag_changes (changed_at);
+
+-- 语句级触发器，与关联变更处于同一事务；更新只记录标签或图片改变的行，先记删除再记新增
+CREATE OR REPLACE FUNCTION log_image_tag_changes() RETURNS trigger AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO image_tag_changes (image_id, tag_id, added)
+        SELECT image_id, tag_id, TRUE
+        FROM inserted_rows;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO image_tag_changes (image_id, tag_id, added)
+        SELECT image_id, tag_id, FALSE
+        FROM deleted_rows;
+    ELSE
+        INSERT INTO image_tag_changes (image_id, tag_id, added)
+        SELECT o.image_id, o.tag_id, FALSE
+        FROM deleted_rows o
+                 JOIN inserted_rows n ON n.id = o.id
+        WHERE (o.tag_id, o.image_id) IS DISTINCT FROM (n.tag_id, n.image_id);
+        INSERT INTO image_tag_changes (image_id, tag_id, added)
+        SELECT n.image_id, n.tag_id, TRUE
+        FROM deleted_rows o
+                 JOIN inserted_rows n ON n.id = o.id
+        WHERE (o.tag_id, o.image_id) IS DISTINCT FROM (n.tag_id, n.image_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_image_tag_relation_log_insert
+    AFTER INSERT
+    ON image_tag_relation
+    REFERENCING NEW TABLE AS inserted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION log_image_tag_changes();
+
+CREATE TRIGGER trg_image_tag_relation_log_delete
+    AFTER DELETE
+    ON image_tag_relation
+    REFERENCING OLD TABLE AS deleted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION log_image_tag_changes();
+
+CREATE TRIGGER trg_image_tag_relation_log_update
+    AFTER UPDATE
+    ON image_tag_relation
+    REFERENCING OLD TABLE AS deleted_rows NEW TABLE AS inserted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION log_image_tag_changes();
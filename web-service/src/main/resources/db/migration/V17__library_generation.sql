@@ -0,0 +1,64 @@
+-- 图库版本号：各实例的检索结果缓存以此判断库内容是否变化（包括其他实例提交的变更）。
+-- 分成 16 个条带，按会话进程号选择条带，并发事务不会在同一行锁上排队；版本号为所有条带之和。
+CREATE TABLE library_generation
+(
+    stripe     SMALLINT PRIMARY KEY,
+    generation BIGINT NOT NULL
+);
+
+INSERT INTO library_generation (stripe, generation)
+SELECT s, 0
+FROM generate_series(0, 15) s;
+
+-- 语句级触发器，与变更处于同一事务，随之提交或回滚
+CREATE OR REPLACE FUNCTION bump_library_generation() RETURNS trigger AS
+$$
+BEGIN
+    UPDATE library_generation SET generation = generation + 1 WHERE stripe = pg_backend_pid() % 16;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- 浏览量更新经实体保存会同时改写 view_count 与 updated_at，只有检索可见的列变化才递增版本号
+CREATE OR REPLACE FUNCTION bump_library_generation_on_image_update() RETURNS trigger AS
+$$
+BEGIN
+    IF EXISTS (SELECT 1
+               FROM deleted_rows o
+                        JOIN inserted_rows n ON n.id = o.id
+               WHERE (o.file_name, o.extension, o.size, o.width, o.height, o.title, o.hash, o.random_key,
+                      o.ai_status, o.ai_error, o.embedding_updated_at)
+                         IS DISTINCT FROM
+                     (n.file_name, n.extension, n.size, n.width, n.height, n.title, n.hash, n.random_key,
+                      n.ai_status, n.ai_error, n.embedding_updated_at)) THEN
+        UPDATE library_generation SET generation = generation + 1 WHERE stripe = pg_backend_pid() % 16;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_images_generation_insert_delete
+    AFTER INSERT OR DELETE
+    ON images
+    FOR EACH STATEMENT
+EXECUTE FUNCTION bump_library_generation();
+
+CREATE TRIGGER trg_images_generation_update
+    AFTER UPDATE
+    ON images
+    REFERENCING OLD TABLE AS deleted_rows NEW TABLE AS inserted_rows
+    FOR EACH STATEMENT
+EXECUTE FUNCTION bump_library_generation_on_image_update();
+
+CREATE TRIGGER trg_image_tag_relation_generation
+    AFTER INSERT OR UPDATE OR DELETE
+    ON image_tag_relation
+    FOR EACH STATEMENT
+EXECUTE FUNCTION bump_library_generation();
+
+-- 标签改名、改类型或删除会改变按标签名检索的结果
+CREATE TRIGGER trg_tags_generation
+    AFTER UPDATE OF name, type OR DELETE
+    ON tags
+    FOR EACH STATEMENT
+EXECUTE FUNCTION bump_library_generation();
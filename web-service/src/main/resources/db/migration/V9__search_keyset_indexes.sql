@@ -0,0 +1,24 @@
+-- Keyset 分页：每种排序都需要 (排序列, id) 复合索引，B-tree 可双向扫描，ASC/DESC 共用
+DROP INDEX IF EXISTS idx_images_created_at;
+DROP INDEX IF EXISTS idx_images_size;
+
+CREATE INDEX IF NOT EXISTS idx_images_created_at_id
+    ON images (created_at, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_updated_at_id
+    ON images (updated_at, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_title_id
+    ON images (title, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_view_count_id
+    ON images (view_count, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_size_id
+    ON images (size, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_width_id
+    ON images (width, id);
+
+CREATE INDEX IF NOT EXISTS idx_images_height_id
+    ON images (height, id);
@@ -7,8 +7,10 @@ import com.tamakara.bakabooru.module.ai.entity.AiJob;
 import com.tamakara.bakabooru.module.ai.entity.AiJobStatus;
 import com.tamakara.bakabooru.module.ai.repository.AiJobRepository;
 import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.repository.ImageEmbeddingRepository;
 import com.tamakara.bakabooru.module.image.repository.ImageRepository;
 import com.tamakara.bakabooru.module.system.service.SystemSettingService;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
 import com.tamakara.bakabooru.module.tag.service.TagService;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,6 +20,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
@@ -31,6 +34,7 @@ import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -42,11 +46,14 @@ class AiJobWorkerTest {
 
     @Mock private AiJobRepository aiJobRepository;
     @Mock private ImageRepository imageRepository;
+    @Mock private ImageEmbeddingRepository imageEmbeddingRepository;
     @Mock private AiServiceClient aiServiceClient;
     @Mock private TagService tagService;
+    @Mock private TagDictionary tagDictionary;
     @Mock private SystemSettingService systemSettingService;
     @Mock private TransactionTemplate transactionTemplate;
     @Mock private BusinessMetrics metrics;
+    @Mock private ApplicationEventPublisher eventPublisher;
 
     private AiJobProperties properties;
     private AiJobWorker worker;
@@ -55,8 +62,8 @@ class AiJobWorkerTest {
     @SuppressWarnings("unchecked")
     void setUp() {
         properties = new AiJobProperties();
-        worker = new AiJobWorker(aiJobRepository, imageRepository, aiServiceClient, tagService,
-                systemSettingService, properties, transactionTemplate, metrics);
+        worker = new AiJobWorker(aiJobRepository, imageRepository, imageEmbeddingRepository, aiServiceClient, tagService,
+                tagDictionary, systemSettingService, properties, transactionTemplate, metrics, eventPublisher);
         when(systemSettingService.getAiMaxAttempts()).thenReturn(5);
         when(systemSettingService.getAiRetryBaseDelaySeconds()).thenReturn(30L);
         when(systemSettingService.getAiRetryMaxDelaySeconds()).thenReturn(1800L);
@@ -110,6 +117,7 @@ class AiJobWorkerTest {
         worker.completeJob(1L, response);
 
         verify(imageRepository, never()).save(any());
+        verify(imageEmbeddingRepository, never()).update(anyLong(), any());
         assertThat(job.getStatus()).isEqualTo(AiJobStatus.RUNNING);
     }
 
@@ -0,0 +1,64 @@
+package com.tamakara.bakabooru.module.ai.service;
+
+import com.tamakara.bakabooru.config.EmbeddingCacheProperties;
+import com.tamakara.bakabooru.module.ai.client.AiServiceClient;
+import com.tamakara.bakabooru.module.ai.dto.ImageEmbeddingResponseDto;
+import com.tamakara.bakabooru.module.image.repository.ImageEmbeddingRepository;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingServiceTest {
+
+    private final AiServiceClient aiServiceClient = mock(AiServiceClient.class);
+    private final ImageEmbeddingRepository imageEmbeddingRepository = mock(ImageEmbeddingRepository.class);
+    private final BusinessMetrics metrics = mock(BusinessMetrics.class);
+    private EmbeddingService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new EmbeddingService(aiServiceClient, imageEmbeddingRepository, metrics, new EmbeddingCacheProperties());
+        when(imageEmbeddingRepository.findReadyByHash(anyString())).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void libraryImageReusesStoredEmbedding() {
+        byte[] content = {1, 2, 3};
+        when(imageEmbeddingRepository.findReadyByHash(DigestUtils.sha256Hex(content)))
+                .thenReturn(Optional.of(new float[]{0.25f, 0.5f}));
+
+        float[] embedding = service.generateImageEmbedding(new MockMultipartFile("file", content));
+
+        assertThat(embedding).containsExactly(0.25f, 0.5f);
+        verify(aiServiceClient, never()).imageEmbedding(any());
+        verify(metrics).imageEmbeddingSource("library");
+    }
+
+    @Test
+    void unknownUploadIsInferredOnceAndCached() {
+        ImageEmbeddingResponseDto response = new ImageEmbeddingResponseDto();
+        response.setEmbedding(Collections.nCopies(512, 0.1));
+        when(aiServiceClient.imageEmbedding(any())).thenReturn(response);
+
+        float[] first = service.generateImageEmbedding(new MockMultipartFile("file", new byte[]{9}));
+        float[] second = service.generateImageEmbedding(new MockMultipartFile("other", new byte[]{9}));
+
+        assertThat(second).isSameAs(first).hasSize(512);
+        verify(aiServiceClient, times(1)).imageEmbedding(any());
+        verify(metrics).imageEmbeddingSource("cache");
+    }
+}
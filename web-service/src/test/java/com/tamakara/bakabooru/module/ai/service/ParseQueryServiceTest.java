@@ -0,0 +1,75 @@
+package com.tamakara.bakabooru.module.ai.service;
+
+import com.tamakara.bakabooru.config.EmbeddingCacheProperties;
+import com.tamakara.bakabooru.module.ai.client.AiServiceClient;
+import com.tamakara.bakabooru.module.ai.dto.EmbeddingResponseDto;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ParseQueryServiceTest {
+
+    private final AiServiceClient aiServiceClient = mock(AiServiceClient.class);
+    private final BusinessMetrics metrics = mock(BusinessMetrics.class);
+    private ParseQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ParseQueryService(aiServiceClient, metrics, new EmbeddingCacheProperties());
+    }
+
+    @Test
+    void repeatedQueriesHitTheCache() {
+        when(aiServiceClient.generateEmbedding(any())).thenReturn(response());
+
+        float[] first = service.generateEmbedding("Blue  Sky");
+        float[] second = service.generateEmbedding("  blue sky ");
+
+        assertThat(second).isSameAs(first).hasSize(512);
+        verify(aiServiceClient, times(1)).generateEmbedding(any());
+        verify(metrics).embeddingCache("miss");
+        verify(metrics).embeddingCache("hit");
+    }
+
+    @Test
+    void concurrentIdenticalQueriesShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aiServiceClient.generateEmbedding(any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return response();
+        });
+
+        CompletableFuture<float[]> leader = CompletableFuture.supplyAsync(() -> service.generateEmbedding("cat"));
+        verify(aiServiceClient, timeout(5000)).generateEmbedding(any());
+        CompletableFuture<float[]> follower = CompletableFuture.supplyAsync(() -> service.generateEmbedding("CAT"));
+        verify(metrics, timeout(5000)).embeddingCache("coalesced");
+        release.countDown();
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isSameAs(leader.get(5, TimeUnit.SECONDS));
+        verify(aiServiceClient, times(1)).generateEmbedding(any());
+    }
+
+    @Test
+    void normalizesWhitespaceCaseAndWidth() {
+        assertThat(ParseQueryService.normalize("  Ｈｅｌｌｏ\t World ")).isEqualTo("hello world");
+    }
+
+    private static EmbeddingResponseDto response() {
+        EmbeddingResponseDto response = new EmbeddingResponseDto();
+        response.setEmbedding(Collections.nCopies(512, 0.5));
+        return response;
+    }
+}
@@ -0,0 +1,45 @@
+package com.tamakara.bakabooru.module.gallery.controller;
+
+import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.service.SearchService;
+import com.tamakara.bakabooru.module.image.service.ImageService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ImageControllerTest {
+
+    private final SearchService searchService = mock(SearchService.class);
+    private final ImageController controller = new ImageController(mock(ImageService.class), searchService);
+
+    @Test
+    void similarSearchWithoutSourceEmbeddingIsNotFound() {
+        when(searchService.searchSimilar(eq(7L), any(), any()))
+                .thenThrow(new NoSuchElementException("图片不存在或尚未完成 AI 处理"));
+
+        assertThatThrownBy(() -> controller.findSimilar(7L, new SearchRequestDto(), null))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        error -> assertThat(error.getStatusCode())
+                                .isEqualTo(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void malformedCursorIsBadRequest() {
+        when(searchService.searchSimilar(eq(7L), any(), any()))
+                .thenThrow(new IllegalArgumentException("无效的搜索游标"));
+
+        assertThatThrownBy(() -> controller.findSimilar(7L, new SearchRequestDto(), null))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        error -> assertThat(error.getStatusCode())
+                                .isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}
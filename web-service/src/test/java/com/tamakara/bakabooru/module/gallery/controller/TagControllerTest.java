@@ -0,0 +1,22 @@
+package com.tamakara.bakabooru.module.gallery.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TagControllerTest {
+
+    @Test
+    void honoursAcceptEncodingQualityValues() {
+        assertThat(TagController.acceptsGzip("gzip, deflate, br")).isTrue();
+        assertThat(TagController.acceptsGzip("br;q=1.0, GZIP;q=0.5")).isTrue();
+        assertThat(TagController.acceptsGzip("*")).isTrue();
+        // q=0 表示明确拒绝，gzip 条目优先于通配符
+        assertThat(TagController.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(TagController.acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(TagController.acceptsGzip("*;q=0")).isFalse();
+        assertThat(TagController.acceptsGzip("x-gzip, deflate")).isFalse();
+        assertThat(TagController.acceptsGzip("identity")).isFalse();
+        assertThat(TagController.acceptsGzip(null)).isFalse();
+    }
+}
@@ -0,0 +1,131 @@
+package com.tamakara.bakabooru.module.gallery.service;
+
+import com.tamakara.bakabooru.config.SearchBatchProperties;
+import com.tamakara.bakabooru.module.ai.service.ParseQueryService;
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.BatchSearchResultDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchSearchServiceTest {
+
+    private SearchService searchService;
+    private ParseQueryService parseQueryService;
+    private SearchBatchProperties properties;
+    private BatchSearchService batchSearchService;
+
+    @BeforeEach
+    void setUp() {
+        searchService = mock(SearchService.class);
+        parseQueryService = mock(ParseQueryService.class);
+        properties = new SearchBatchProperties();
+        properties.setMaxQueries(5);
+        batchSearchService = new BatchSearchService(searchService, parseQueryService, properties,
+                mock(PlatformTransactionManager.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchSearchService.shutdown();
+    }
+
+    @Test
+    void returnsResultsInOrderAndSharesDuplicateWork() {
+        float[] embedding = new float[]{1f};
+        when(parseQueryService.generateEmbedding("cat")).thenReturn(embedding);
+        SearchResultDto<ImageThumbnailDto> semantic =
+                new SearchResultDto<>(List.of(), 0, 20, false);
+        SearchResultDto<ImageThumbnailDto> tagged =
+                new SearchResultDto<>(List.of(), 0, 20, true);
+        when(searchService.search(argThat(request -> request != null && request.getSemanticQuery() != null), eq(embedding)))
+                .thenReturn(semantic);
+        when(searchService.search(argThat(request -> request != null && "a".equals(request.getTags())), isNull()))
+                .thenReturn(tagged);
+        when(searchService.search(argThat(request -> request != null && "missing".equals(request.getTags())), isNull()))
+                .thenThrow(new NoSuchElementException("图片不存在"));
+
+        BatchSearchResultDto result = batchSearchService.search(batch(
+                query("a", null), query(null, "cat"), query(null, " cat "), query("a", null), query("missing", null)));
+
+        assertThat(result.getResults()).extracting(BatchSearchResultDto.Item::getStatus)
+                .containsExactly(200, 200, 200, 200, 404);
+        assertThat(result.getResults().get(0).getResult()).isSameAs(tagged);
+        assertThat(result.getResults().get(1).getResult()).isSameAs(semantic);
+        assertThat(result.getResults().get(4).getError()).isEqualTo("图片不存在");
+        verify(parseQueryService, times(1)).generateEmbedding(any());
+        verify(searchService, times(1)).search(argThat(request -> request != null && "a".equals(request.getTags())), isNull());
+    }
+
+    @Test
+    void rejectsEmptyOrOversizedBatches() {
+        assertThatThrownBy(() -> batchSearchService.search(batch()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> batchSearchService.search(batch(
+                query("1", null), query("2", null), query("3", null), query("4", null), query("5", null), query("6", null))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void cancelsQueriesPastTheDeadlineAndRejectsWhenQueueIsFull() {
+        batchSearchService.shutdown();
+        properties.setParallelism(1);
+        properties.setQueueCapacity(1);
+        properties.setTimeout(Duration.ofMillis(300));
+        batchSearchService = new BatchSearchService(searchService, parseQueryService, properties,
+                mock(PlatformTransactionManager.class));
+        CountDownLatch release = new CountDownLatch(1);
+        when(searchService.search(argThat(request -> request != null && "slow".equals(request.getTags())), isNull()))
+                .thenAnswer(invocation -> {
+                    release.await();
+                    return new SearchResultDto<>(List.of(), 0, 20, false);
+                });
+
+        try {
+            BatchSearchResultDto result = batchSearchService.search(batch(
+                    query("slow", null), query("queued", null), query("rejected", null)));
+
+            assertThat(result.getResults()).extracting(BatchSearchResultDto.Item::getStatus)
+                    .containsExactly(504, 504, 503);
+        } finally {
+            release.countDown();
+        }
+        verify(searchService, after(200).never())
+                .search(argThat(request -> request != null && "queued".equals(request.getTags())), any());
+    }
+
+    private static BatchSearchRequestDto batch(SearchRequestDto... queries) {
+        BatchSearchRequestDto request = new BatchSearchRequestDto();
+        request.setQueries(List.of(queries));
+        return request;
+    }
+
+    private static SearchRequestDto query(String tags, String semanticQuery) {
+        SearchRequestDto request = new SearchRequestDto();
+        request.setTags(tags);
+        request.setSemanticQuery(semanticQuery);
+        return request;
+    }
+}
@@ -0,0 +1,85 @@
+package com.tamakara.bakabooru.module.gallery.service;
+
+import com.tamakara.bakabooru.module.ai.service.EmbeddingService;
+import com.tamakara.bakabooru.module.ai.service.ParseQueryService;
+import com.tamakara.bakabooru.module.gallery.dto.SearchRequestDto;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.image.repository.ImageRepository;
+import com.tamakara.bakabooru.module.image.service.SearchExportService;
+import com.tamakara.bakabooru.module.image.service.SearchFacetService;
+import com.tamakara.bakabooru.module.image.service.SearchProfiler;
+import com.tamakara.bakabooru.module.image.service.SearchResultCache;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchServiceTest {
+
+    private SearchResultCache searchResultCache;
+    private ImageRepository imageRepository;
+    private SearchProfiler searchProfiler;
+    private SearchService searchService;
+
+    @BeforeEach
+    void setUp() {
+        searchResultCache = mock(SearchResultCache.class);
+        imageRepository = mock(ImageRepository.class);
+        searchProfiler = mock(SearchProfiler.class);
+        searchService = new SearchService(searchResultCache, mock(SearchFacetService.class),
+                mock(SearchExportService.class), mock(ParseQueryService.class), mock(EmbeddingService.class),
+                imageRepository, mock(BusinessMetrics.class), searchProfiler);
+    }
+
+    @Test
+    void similarSearchRequiresSourceEmbedding() {
+        when(imageRepository.hasEmbedding(7L)).thenReturn(false);
+
+        assertThatThrownBy(() -> searchService.searchSimilar(7L, new SearchRequestDto(), null))
+                .isInstanceOf(NoSuchElementException.class);
+        verify(searchResultCache, never()).search(any());
+        verify(searchProfiler).complete(eq("similar"), eq("failed"), any(), any(Long.class));
+    }
+
+    @Test
+    void similarSearchKeepsFiltersAndCursor() {
+        when(imageRepository.hasEmbedding(7L)).thenReturn(true);
+        SearchResultDto<ImageThumbnailDto> page = new SearchResultDto<>(List.of(), 0, 10, false);
+        when(searchResultCache.search(any())).thenReturn(page);
+        SearchRequestDto request = new SearchRequestDto();
+        request.setTags("cat -dog");
+        request.setSize(10);
+        request.setCursor("next-page");
+        // 相似检索总是按距离排序，忽略请求中的排序
+        request.setSort("title,ASC");
+
+        assertThat(searchService.searchSimilar(7L, request, 0.8)).isSameAs(page);
+
+        ArgumentCaptor<SearchDto> captor = ArgumentCaptor.forClass(SearchDto.class);
+        verify(searchResultCache).search(captor.capture());
+        SearchDto searchDto = captor.getValue();
+        assertThat(searchDto.getSourceImageId()).isEqualTo(7L);
+        assertThat(searchDto.getEmbedding()).isNull();
+        assertThat(searchDto.getSortProperty()).isEqualTo("similarity");
+        assertThat(searchDto.getCursor()).isEqualTo("next-page");
+        assertThat(searchDto.getSize()).isEqualTo(10);
+        assertThat(searchDto.getPositiveTags()).containsExactly("cat");
+        assertThat(searchDto.getNegativeTags()).containsExactly("dog");
+        assertThat(searchDto.getDistanceThreshold()).isCloseTo(0.2, within(1e-9));
+    }
+}
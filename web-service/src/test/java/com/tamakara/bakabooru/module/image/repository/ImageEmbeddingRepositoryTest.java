@@ -0,0 +1,30 @@
+package com.tamakara.bakabooru.module.image.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageEmbeddingRepositoryTest {
+
+    @Test
+    void decodesPgvectorBinaryFormat() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 3 * Float.BYTES)
+                .putShort((short) 3)
+                .putShort((short) 0)
+                .putFloat(0.25f)
+                .putFloat(-1.5f)
+                .putFloat(Float.MIN_VALUE);
+
+        assertThat(ImageEmbeddingRepository.decode(buffer.array())).containsExactly(0.25f, -1.5f, Float.MIN_VALUE);
+    }
+
+    @Test
+    void rejectsTruncatedVector() {
+        byte[] truncated = ByteBuffer.allocate(4 + Float.BYTES).putShort((short) 2).array();
+
+        assertThatThrownBy(() -> ImageEmbeddingRepository.decode(truncated)).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,163 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.TagIndexProperties;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
+import com.tamakara.bakabooru.module.tag.service.TagPostingIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageSearchServiceTest {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+    private final VectorEngine vectorEngine = mock(VectorEngine.class);
+    private final ImageSearchService service = new ImageSearchService(jdbcTemplate, mock(ImageUrlService.class),
+            mock(TagDictionary.class), mock(TagPostingIndex.class), new TagIndexProperties(),
+            mock(VectorSearchPlanner.class), vectorEngine, mock(SearchShapeStats.class));
+
+    @Test
+    void similarSearchExcludesSourceImage() {
+        ImageSearchService.SearchFilter filter = service.buildFilter(similar(7L, null));
+
+        assertThat(filter.predicates()).contains("i.embedding IS NOT NULL", "i.id <> :sourceImageId");
+        assertThat(filter.params().getValue("sourceImageId")).isEqualTo(7L);
+        // 按库内向量检索，不绑定查询向量
+        assertThat(filter.params().hasValue("embedding")).isFalse();
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(vectorEngine.label()).thenReturn("mmap");
+    }
+
+    @Test
+    void similarSearchPagesWithCursor() {
+        when(vectorEngine.search(any())).thenReturn(List.of(
+                new VectorEngine.VectorHit(11L, 0.1), new VectorEngine.VectorHit(12L, 0.2),
+                new VectorEngine.VectorHit(13L, 0.3)));
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), ArgumentMatchers.<RowMapper<ImageThumbnailDto>>any()))
+                .thenReturn(List.of(thumbnail(11L), thumbnail(12L)));
+
+        SearchResultDto<ImageThumbnailDto> first = service.searchImages(similar(7L, null));
+
+        assertThat(first.getContent()).extracting(ImageThumbnailDto::getId).containsExactly(11L, 12L);
+        assertThat(first.getHasNext()).isTrue();
+        SearchCursor cursor = SearchCursor.decode(first.getNextCursor());
+        assertThat(cursor).isEqualTo(new SearchCursor("similar:7:mmap", "0.2", 12L, 2L));
+
+        service.searchImages(similar(7L, first.getNextCursor()));
+
+        ArgumentCaptor<VectorEngine.VectorQuery> queries = ArgumentCaptor.forClass(VectorEngine.VectorQuery.class);
+        verify(vectorEngine, times(2)).search(queries.capture());
+        VectorEngine.VectorQuery next = queries.getAllValues().get(1);
+        assertThat(next.sourceImageId()).isEqualTo(7L);
+        assertThat(next.vector()).isNull();
+        assertThat(next.afterDistance()).isEqualTo(0.2);
+        assertThat(next.afterId()).isEqualTo(12L);
+        assertThat(next.limit()).isEqualTo(3);
+    }
+
+    @Test
+    void rejectsCursorFromAnotherSourceImage() {
+        String token = new SearchCursor("similar:8", "0.2", 12L, 2L).encode();
+
+        assertThatThrownBy(() -> service.searchImages(similar(7L, token)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsCursorFromAnotherQueryVector() {
+        SearchDto searchDto = new SearchDto();
+        searchDto.setEmbedding(new float[]{0.1f, 0.2f});
+        searchDto.setCursor(new SearchCursor("similarity:" + Arrays.hashCode(new float[]{0.3f, 0.4f}),
+                "0.2", 12L, 2L).encode());
+
+        assertThatThrownBy(() -> service.searchImages(searchDto))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("不匹配");
+    }
+
+    @Test
+    void rejectsEngineCursorWhenEngineCannotContinue() {
+        when(vectorEngine.search(any())).thenReturn(null);
+        String token = new SearchCursor("similar:7:mmap", "0.2", 12L, 2L).encode();
+
+        // 不把引擎算出的距离当作 pgvector 的游标继续翻页
+        assertThatThrownBy(() -> service.searchImages(similar(7L, token)))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(jdbcTemplate, never()).query(anyString(), any(SqlParameterSource.class),
+                ArgumentMatchers.<RowMapper<ImageThumbnailDto>>any());
+    }
+
+    @Test
+    void shortKeywordsSkipTheTrigramPredicate() {
+        SearchDto shortKeyword = new SearchDto();
+        shortKeyword.setKeyword(" Ab ");
+        ImageSearchService.SearchFilter filter = service.buildFilter(shortKeyword);
+        assertThat(filter.where()).contains("strpos(LOWER(i.title), :keywordText)").doesNotContain("LIKE");
+        assertThat(filter.params().getValue("keywordText")).isEqualTo("ab");
+
+        SearchDto longKeyword = new SearchDto();
+        longKeyword.setKeyword("初音ミ");
+        assertThat(service.buildFilter(longKeyword).where()).contains("LOWER(i.title) LIKE :keyword");
+    }
+
+    @Test
+    void escapesLikeWildcards() {
+        assertThat(ImageSearchService.escapeLike("100%_done\\")).isEqualTo("100\\%\\_done\\\\");
+        assertThat(ImageSearchService.escapeLike("初音ミク")).isEqualTo("初音ミク");
+    }
+
+    @Test
+    void randomSeedMapsToStableSpreadStartPoints() {
+        assertThat(ImageSearchService.RandomWalk.of("abc")).isEqualTo(ImageSearchService.RandomWalk.of("abc"));
+
+        Set<Integer> starts = new HashSet<>();
+        Set<Boolean> directions = new HashSet<>();
+        IntStream.range(0, 64).mapToObj(i -> ImageSearchService.RandomWalk.of("seed-" + i)).forEach(walk -> {
+            assertThat(walk.start()).isNotNegative();
+            starts.add(walk.start());
+            directions.add(walk.ascending());
+        });
+        assertThat(starts).hasSize(64);
+        assertThat(directions).containsExactlyInAnyOrder(true, false);
+    }
+
+    private static SearchDto similar(long sourceImageId, String cursor) {
+        SearchDto searchDto = new SearchDto();
+        searchDto.setSourceImageId(sourceImageId);
+        searchDto.setSortProperty("similarity");
+        searchDto.setSize(2);
+        searchDto.setCursor(cursor);
+        return searchDto;
+    }
+
+    private static ImageThumbnailDto thumbnail(long id) {
+        ImageThumbnailDto dto = new ImageThumbnailDto();
+        dto.setId(id);
+        return dto;
+    }
+}
@@ -0,0 +1,150 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.VectorIndexProperties;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageEmbeddingUpdatedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MappedVectorIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedVectorIndex index;
+    private VectorIndexProperties properties;
+    private Path path;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        path = directory.resolve("vector-index.bin");
+        properties = new VectorIndexProperties();
+        properties.setEnabled(true);
+        properties.setPath(path.toString());
+        properties.setProbes(1);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.getDataSource()).thenReturn(mock(DataSource.class));
+        index = new MappedVectorIndex(jdbcTemplate, mock(TransactionTemplate.class), properties);
+
+        MappedVectorIndex.Segment segment = MappedVectorIndex.Segment.create(path, 2);
+        // 两组方向明显不同的向量，id 1-3 靠近第 0 维，id 4-6 靠近第 1 维
+        for (int id = 1; id <= 6; id++) {
+            segment.append(id, 100 * id, 100, 1000L * id,
+                    MappedVectorIndex.normalize(vector(id <= 3 ? 0 : 1, id * 0.01f)), false);
+        }
+        segment.train(100, 5, new Random(7));
+        index.install(segment, null);
+    }
+
+    @Test
+    void returnsNearestNeighboursInDistanceOrder() {
+        List<VectorEngine.VectorHit> hits = index.search(query(vector(0, 0), null, null, 3));
+
+        assertThat(hits).extracting(VectorEngine.VectorHit::imageId).containsExactly(1L, 2L, 3L);
+        assertThat(hits.get(0).distance()).isLessThan(hits.get(2).distance());
+    }
+
+    @Test
+    void keepsScanningFartherListsUntilFiltersAreSatisfied() {
+        RoaringBitmap candidates = RoaringBitmap.bitmapOf(5, 6);
+        List<VectorEngine.VectorHit> hits = index.search(query(vector(0, 0), null, candidates, 3));
+        assertThat(hits).extracting(VectorEngine.VectorHit::imageId).containsExactly(5L, 6L);
+
+        VectorEngine.VectorQuery wide = new VectorEngine.VectorQuery(vector(0, 0), null, null,
+                VectorEngine.AttributeRange.of(250, null), VectorEngine.AttributeRange.ALL,
+                VectorEngine.AttributeRange.of(null, 4000), null, null, null, 10);
+        assertThat(index.search(wide)).extracting(VectorEngine.VectorHit::imageId).containsExactly(3L, 4L);
+    }
+
+    @Test
+    void givesUpOnUnboundedExtendedScans() {
+        properties.setMaxScanSlots(0);
+        VectorEngine.VectorQuery wide = new VectorEngine.VectorQuery(vector(0, 0), null, null,
+                VectorEngine.AttributeRange.of(450, null), VectorEngine.AttributeRange.ALL,
+                VectorEngine.AttributeRange.ALL, null, null, null, 2);
+        assertThat(index.search(wide)).isNull();
+
+        // 候选位图足够小时直接逐个计算，不受扩展扫描上限影响
+        RoaringBitmap candidates = RoaringBitmap.bitmapOf(6, 42);
+        assertThat(index.search(query(vector(0, 0), null, candidates, 2)))
+                .extracting(VectorEngine.VectorHit::imageId).containsExactly(6L);
+    }
+
+    @Test
+    void similarSearchUsesStoredVectorAndCursor() {
+        List<VectorEngine.VectorHit> first = index.search(query(null, 1L, null, 1));
+        assertThat(first).extracting(VectorEngine.VectorHit::imageId).containsExactly(2L);
+
+        VectorEngine.VectorHit last = first.get(0);
+        VectorEngine.VectorQuery next = new VectorEngine.VectorQuery(null, 1L, null, VectorEngine.AttributeRange.ALL,
+                VectorEngine.AttributeRange.ALL, VectorEngine.AttributeRange.ALL, null,
+                last.distance(), last.imageId(), 1);
+        assertThat(index.search(next)).extracting(VectorEngine.VectorHit::imageId).containsExactly(3L);
+
+        assertThat(index.search(query(null, 99L, null, 1))).isNull();
+    }
+
+    @Test
+    void appliesCommittedChangesAndReopensFromFile() throws Exception {
+        index.onEmbeddingUpdated(new ImageEmbeddingUpdatedEvent(7L, 1, 1, 1, vector(0, 0)));
+        index.onEmbeddingUpdated(new ImageEmbeddingUpdatedEvent(2L, 1, 1, 1, vector(1, 0)));
+        index.onImageDeleted(new ImageDeletedEvent(1L, List.of()));
+
+        assertThat(index.search(query(vector(0, 0), null, null, 2)))
+                .extracting(VectorEngine.VectorHit::imageId).containsExactly(7L, 3L);
+
+        index.shutdown();
+        MappedVectorIndex.Segment reopened = MappedVectorIndex.Segment.open(path);
+        assertThat(reopened).isNotNull();
+        assertThat(reopened.slotOf(1L)).isNegative();
+        assertThat(reopened.slotOf(2L)).isEqualTo(7);
+        assertThat(reopened.maxLiveId()).isEqualTo(7L);
+        reopened.close();
+    }
+
+    @Test
+    void segmentReconcilesWithDatabaseState() throws Exception {
+        index.shutdown();
+        MappedVectorIndex.Segment segment = MappedVectorIndex.Segment.open(path);
+        float[] stored = MappedVectorIndex.normalize(vector(0, 0.01f));
+        assertThat(segment.holds(1L, 100, 100, 1000L, stored)).isTrue();
+        assertThat(segment.holds(1L, 100, 100, 1000L, MappedVectorIndex.normalize(vector(1, 0)))).isFalse();
+        assertThat(segment.holds(1L, 200, 100, 1000L, stored)).isFalse();
+
+        assertThat(segment.retainAll(RoaringBitmap.bitmapOf(1, 2, 3, 4))).isEqualTo(2);
+        assertThat(segment.liveIdSum()).isEqualTo(10L);
+        segment.setWatermark(123_456L);
+        segment.close();
+
+        MappedVectorIndex.Segment reopened = MappedVectorIndex.Segment.open(path);
+        assertThat(reopened.slotOf(5L)).isNegative();
+        assertThat(reopened.liveIdSum()).isEqualTo(10L);
+        assertThat(reopened.watermark).isEqualTo(123_456L);
+        reopened.close();
+    }
+
+    private static VectorEngine.VectorQuery query(float[] vector, Long sourceImageId, RoaringBitmap candidates, int limit) {
+        return new VectorEngine.VectorQuery(vector, sourceImageId, candidates, VectorEngine.AttributeRange.ALL,
+                VectorEngine.AttributeRange.ALL, VectorEngine.AttributeRange.ALL, null, null, null, limit);
+    }
+
+    private static float[] vector(int axis, float offset) {
+        float[] vector = new float[VectorQuantization.DIMENSIONS];
+        vector[axis] = 1;
+        vector[2] = offset;
+        return vector;
+    }
+}
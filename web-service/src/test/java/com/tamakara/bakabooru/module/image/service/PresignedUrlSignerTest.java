@@ -0,0 +1,70 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.MinioConfig;
+import com.tamakara.bakabooru.config.UrlSigningProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PresignedUrlSignerTest {
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2024-01-01T01:00:00Z"));
+
+    @Test
+    void urlsAreIdenticalWithinTimeBucket() {
+        PresignedUrlSigner signer = signer();
+
+        String first = signer.sign("original/abc", "1_title.png", Duration.ofHours(24));
+        now.set(Instant.parse("2024-01-01T05:59:59Z"));
+        String second = signer.sign("original/abc", "1_title.png", Duration.ofHours(24));
+        now.set(Instant.parse("2024-01-01T06:00:00Z"));
+        String third = signer.sign("original/abc", "1_title.png", Duration.ofHours(24));
+
+        assertThat(first).startsWith("/oss/images/original/abc?")
+                .contains("X-Amz-Date=20240101T000000Z", "X-Amz-Expires=108000", "X-Amz-Signature=");
+        assertThat(second).isEqualTo(first);
+        assertThat(third).isNotEqualTo(first).contains("X-Amz-Date=20240101T060000Z");
+    }
+
+    @Test
+    void onlyContentAddressedObjectsAreImmutable() {
+        PresignedUrlSigner signer = signer();
+
+        assertThat(signer.sign("thumbnail/1024/abc.jpg", "abc.jpg", Duration.ofHours(24)))
+                .contains("response-cache-control=public%2C%20max-age%3D86400%2C%20immutable");
+        assertThat(signer.sign("staging/abc", "abc", Duration.ofHours(24)))
+                .doesNotContain("response-cache-control");
+    }
+
+    private PresignedUrlSigner signer() {
+        MinioConfig minioConfig = new MinioConfig();
+        minioConfig.setEndpoint("http://minio:9000");
+        minioConfig.setAccessKey("access");
+        minioConfig.setSecretKey("secret");
+        minioConfig.setBucketName("images");
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        return new PresignedUrlSigner(minioConfig, new UrlSigningProperties(), clock);
+    }
+}
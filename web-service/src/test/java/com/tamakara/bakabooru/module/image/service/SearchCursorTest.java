@@ -0,0 +1,43 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SearchCursorTest {
+
+    @Test
+    void roundTripsSortKeyAndId() {
+        SearchCursor cursor = new SearchCursor("title:asc", "東方 / title, with 特殊字符", 42L, 60L);
+
+        String token = cursor.encode();
+
+        assertThat(token).doesNotContain("+", "/", "=");
+        assertThat(SearchCursor.decode(token)).isEqualTo(cursor);
+    }
+
+    @Test
+    void decodesCursorsWithoutRank() throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(1);
+            out.writeUTF("similarity");
+            out.writeUTF("0.25");
+            out.writeLong(7L);
+        }
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+
+        assertThat(SearchCursor.decode(token)).isEqualTo(new SearchCursor("similarity", "0.25", 7L, 0L));
+    }
+
+    @Test
+    void rejectsMalformedToken() {
+        assertThatThrownBy(() -> SearchCursor.decode("not-a-cursor"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,133 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamakara.bakabooru.config.SearchExportProperties;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchExportServiceTest {
+
+    @Test
+    void streamsRowsAsNdjsonThroughFetchSizedCursor() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getLong("id")).thenReturn(1L, 2L);
+        when(rs.getString("hash")).thenReturn("h1", "h2");
+        when(rs.getString("title")).thenReturn("a \"b\"", "c");
+        when(rs.getString("file_name")).thenReturn("a.png", "c.png");
+        when(rs.getString("extension")).thenReturn("png");
+        when(rs.getInt("width")).thenReturn(10);
+        when(rs.getInt("height")).thenReturn(20);
+        when(rs.getLong("size")).thenReturn(30L);
+        when(rs.getString("ai_status")).thenReturn("READY");
+        when(rs.getTimestamp("created_at")).thenReturn(Timestamp.valueOf(LocalDateTime.of(2024, 1, 2, 3, 4, 5)));
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).thenReturn(rs);
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        ImageSearchService imageSearchService = mock(ImageSearchService.class);
+        SearchDto searchDto = new SearchDto();
+        when(imageSearchService.buildFilter(searchDto)).thenReturn(new ImageSearchService.SearchFilter(
+                List.of("1 = 1"), new MapSqlParameterSource(), false, true, false, null));
+        when(imageSearchService.exportOrderBy(searchDto)).thenReturn("i.id ASC");
+        SearchExportProperties properties = new SearchExportProperties();
+        properties.setFetchSize(500);
+        SearchExportService service = new SearchExportService(imageSearchService, dataSource, new ObjectMapper(), properties);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = service.export(searchDto, ExportFormat.NDJSON, out);
+
+        assertThat(rows).isEqualTo(2);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).startsWith("{\"id\":1,\"hash\":\"h1\",\"title\":\"a \\\"b\\\"\"")
+                .endsWith("\"createdAt\":\"2024-01-02T03:04:05\"}");
+        assertThat(lines[1]).startsWith("{\"id\":2,");
+        verify(statement).setFetchSize(500);
+    }
+
+    @Test
+    void writesOnlyCsvHeaderWhenTagsCannotMatch() {
+        ImageSearchService imageSearchService = mock(ImageSearchService.class);
+        SearchDto searchDto = new SearchDto();
+        when(imageSearchService.buildFilter(searchDto)).thenReturn(ImageSearchService.SearchFilter.EMPTY);
+        SearchExportService service = new SearchExportService(imageSearchService, mock(DataSource.class),
+                new ObjectMapper(), new SearchExportProperties());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(service.export(searchDto, ExportFormat.CSV, out)).isZero();
+        assertThat(out.toString(StandardCharsets.UTF_8))
+                .isEqualTo(String.join(",", SearchExportService.COLUMNS) + "\r\n");
+    }
+
+    @Test
+    void ranksVectorExportsExactlyWithinRowCap() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).thenReturn(rs);
+        Statement setting = mock(Statement.class);
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(connection.createStatement()).thenReturn(setting);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        ImageSearchService imageSearchService = mock(ImageSearchService.class);
+        SearchDto searchDto = new SearchDto();
+        when(imageSearchService.buildFilter(searchDto)).thenReturn(new ImageSearchService.SearchFilter(
+                List.of("1 = 1"), new MapSqlParameterSource(), false, false, false, null));
+        when(imageSearchService.vectorOrdered(searchDto)).thenReturn(true);
+        when(imageSearchService.exportOrderBy(searchDto)).thenReturn("(i.embedding <=> i.embedding) ASC");
+        SearchExportProperties properties = new SearchExportProperties();
+        properties.setMaxVectorRows(50);
+        SearchExportService service = new SearchExportService(imageSearchService, dataSource, new ObjectMapper(), properties);
+
+        assertThat(service.export(searchDto, ExportFormat.NDJSON, new ByteArrayOutputStream())).isZero();
+        verify(setting).execute("SET LOCAL enable_indexscan = off");
+        verify(connection).prepareStatement(argThat(sql -> sql.strip().endsWith("LIMIT 50")));
+    }
+
+    @Test
+    void limitsConcurrentExports() {
+        SearchExportProperties properties = new SearchExportProperties();
+        properties.setMaxConcurrent(1);
+        SearchExportService service = new SearchExportService(mock(ImageSearchService.class), mock(DataSource.class),
+                new ObjectMapper(), properties);
+
+        service.acquire();
+        assertThatThrownBy(service::acquire).isInstanceOf(SearchExportService.ExportBusyException.class);
+        service.release();
+        service.acquire();
+    }
+
+    @Test
+    void quotesCsvFieldsOnlyWhenNeeded() {
+        assertThat(SearchExportService.escapeCsv("plain")).isEqualTo("plain");
+        assertThat(SearchExportService.escapeCsv("a,b")).isEqualTo("\"a,b\"");
+        assertThat(SearchExportService.escapeCsv("say \"hi\"\n")).isEqualTo("\"say \"\"hi\"\"\n\"");
+        assertThat(SearchExportService.escapeCsv(null)).isEmpty();
+    }
+}
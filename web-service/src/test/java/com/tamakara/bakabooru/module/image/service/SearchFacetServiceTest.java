@@ -0,0 +1,72 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SearchFacetProperties;
+import com.tamakara.bakabooru.module.gallery.dto.TagFacetsDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.service.TagDictionary;
+import com.tamakara.bakabooru.module.tag.service.TagPostingIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class SearchFacetServiceTest {
+
+    private final ImageSearchService imageSearchService = mock(ImageSearchService.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+    private final TagPostingIndex tagPostingIndex = mock(TagPostingIndex.class);
+    private final TagDictionary tagDictionary = mock(TagDictionary.class);
+    private SearchFacetService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new SearchFacetService(imageSearchService, jdbcTemplate, tagPostingIndex, tagDictionary,
+                new SearchFacetProperties());
+        when(tagDictionary.get(1L)).thenReturn(new TagDto(1L, "hatsune_miku", "character"));
+        when(tagDictionary.get(2L)).thenReturn(new TagDto(2L, "long_hair", "general"));
+        when(tagDictionary.get(3L)).thenReturn(new TagDto(3L, "twintails", "general"));
+        when(tagDictionary.get(4L)).thenReturn(new TagDto(4L, "smile", "general"));
+    }
+
+    @Test
+    void tagOnlySearchCountsFromBitmapIndex() {
+        SearchDto searchDto = new SearchDto();
+        RoaringBitmap candidates = RoaringBitmap.bitmapOf(1, 2, 3);
+        List<String> predicates = new ArrayList<>(List.of("1 = 1", "i.id = ANY(:candidateIds)"));
+        when(imageSearchService.buildFilter(searchDto)).thenReturn(new ImageSearchService.SearchFilter(
+                predicates, new MapSqlParameterSource(), false, true, true, candidates));
+        when(tagPostingIndex.countTags(candidates)).thenReturn(Map.of(1L, 3L, 2L, 2L, 3L, 2L, 4L, 1L));
+
+        TagFacetsDto facets = service.facets(searchDto, 2);
+
+        assertThat(facets.getExact()).isTrue();
+        assertThat(facets.getTypes().keySet()).containsExactly("character", "general");
+        assertThat(facets.getTypes().get("general"))
+                .extracting(TagFacetsDto.TagCount::getName)
+                .containsExactly("long_hair", "twintails");
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void emptyFilterReturnsExactEmptyFacets() {
+        SearchDto searchDto = new SearchDto();
+        when(imageSearchService.buildFilter(searchDto)).thenReturn(ImageSearchService.SearchFilter.EMPTY);
+
+        TagFacetsDto facets = service.facets(searchDto, null);
+
+        assertThat(facets.getExact()).isTrue();
+        assertThat(facets.getTypes()).isEmpty();
+        verifyNoInteractions(jdbcTemplate, tagPostingIndex);
+    }
+}
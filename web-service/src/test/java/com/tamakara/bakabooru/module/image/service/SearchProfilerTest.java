@@ -0,0 +1,85 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SlowSearchProperties;
+import com.tamakara.bakabooru.module.gallery.dto.SlowSearchDto;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class SearchProfilerTest {
+
+    private final BusinessMetrics metrics = mock(BusinessMetrics.class);
+    private final NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+
+    private SearchProfiler profiler(int capacity) {
+        SlowSearchProperties properties = new SlowSearchProperties();
+        properties.setThreshold(Duration.ofMillis(100));
+        properties.setCapacity(capacity);
+        return new SearchProfiler(jdbcTemplate, mock(PlatformTransactionManager.class),
+                mock(VectorSearchPlanner.class), properties, metrics);
+    }
+
+    @Test
+    void sqlStageExcludesRowMappingAndSigning() {
+        try (SearchTrace trace = SearchTrace.begin()) {
+            trace.row(100, 50);
+            trace.row(100, 50);
+            trace.jdbc(1_000);
+
+            assertThat(SearchTrace.current()).isSameAs(trace);
+            assertThat(trace.stages()).containsEntry(SearchTrace.SQL, 700L)
+                    .containsEntry(SearchTrace.MAPPING, 200L)
+                    .containsEntry(SearchTrace.URL_SIGNING, 100L);
+        }
+        assertThat(SearchTrace.current()).isNull();
+    }
+
+    @Test
+    void fastSearchesOnlyRecordStageTimers() {
+        SearchProfiler profiler = profiler(10);
+        try (SearchTrace trace = SearchTrace.begin()) {
+            trace.stage(SearchTrace.PARSE, 1_000);
+            profiler.complete("normal", "success", trace, TimeUnit.MILLISECONDS.toNanos(5));
+        }
+
+        verify(metrics).searchStage(SearchTrace.PARSE, 1_000);
+        verify(metrics, never()).slowSearch("normal");
+        assertThat(profiler.recent()).isEmpty();
+    }
+
+    @Test
+    void slowSearchesAreCapturedNewestFirstInABoundedBuffer() {
+        SearchProfiler profiler = profiler(2);
+        for (int i = 0; i < 3; i++) {
+            try (SearchTrace trace = SearchTrace.begin()) {
+                trace.query("SELECT i.id\n    FROM images i\n    WHERE i.id = ANY(:ids)",
+                        new MapSqlParameterSource("ids", new long[]{i}).addValue("embedding", new float[512]),
+                        "sort=i.id", null);
+                profiler.complete("semantic", "success", trace, TimeUnit.MILLISECONDS.toNanos(200 + i));
+            }
+        }
+
+        List<SlowSearchDto> recent = profiler.recent();
+        assertThat(recent).extracting(SlowSearchDto::getTotalMs).containsExactly(202.0, 201.0);
+        assertThat(recent.get(0).getSql()).isEqualTo("SELECT i.id FROM images i WHERE i.id = ANY(:ids)");
+        assertThat(recent.get(0).getParams()).containsEntry("ids", "long[1] [2]")
+                .containsEntry("embedding", "float[512]");
+        assertThat(recent.get(0).getExplain()).isNull();
+        verifyNoInteractions(jdbcTemplate);
+
+        profiler.clear();
+        assertThat(profiler.recent()).isEmpty();
+    }
+}
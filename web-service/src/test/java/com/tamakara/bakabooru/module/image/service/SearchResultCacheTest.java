@@ -0,0 +1,119 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SearchCacheProperties;
+import com.tamakara.bakabooru.module.gallery.dto.SearchResultDto;
+import com.tamakara.bakabooru.module.image.dto.ImageThumbnailDto;
+import com.tamakara.bakabooru.module.image.dto.SearchDto;
+import com.tamakara.bakabooru.module.image.event.ImageChangedEvent;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchResultCacheTest {
+
+    private final ImageSearchService imageSearchService = mock(ImageSearchService.class);
+    private final BusinessMetrics metrics = mock(BusinessMetrics.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final LibraryGeneration generation = new LibraryGeneration(jdbcTemplate);
+    private SearchResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        SearchCacheProperties properties = new SearchCacheProperties();
+        properties.setPrefetch(false);
+        cache = new SearchResultCache(imageSearchService, generation, metrics, properties);
+        when(imageSearchService.searchImages(any())).thenAnswer(invocation ->
+                new SearchResultDto<ImageThumbnailDto>(List.of(new ImageThumbnailDto()), 0, 20, false));
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void servesRepeatedSearchesFromCacheUntilLibraryChanges() {
+        cache.search(search("b", "a"));
+        SearchResultDto<ImageThumbnailDto> cached = cache.search(search("a", "b"));
+        verify(imageSearchService, times(1)).searchImages(any());
+        verify(metrics).searchCache("hit");
+
+        // 调用方修改返回对象不影响缓存
+        cached.setNextCursor("mutated");
+        assertThat(cache.search(search("a", "b")).getNextCursor()).isNull();
+
+        generation.onImageChanged(new ImageChangedEvent(1L));
+        cache.search(search("a", "b"));
+        verify(imageSearchService, times(2)).searchImages(any());
+    }
+
+    @Test
+    void invalidatesWhenAnotherInstanceChangesTheLibrary() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(5L, 5L, 6L);
+        generation.poll();
+        cache.search(search("a"));
+        generation.poll();
+        cache.search(search("a"));
+        verify(imageSearchService, times(1)).searchImages(any());
+
+        // 其他实例提交的变更只体现在库内计数上
+        generation.poll();
+        cache.search(search("a"));
+        verify(imageSearchService, times(2)).searchImages(any());
+    }
+
+    @Test
+    void prefetchesNextPage() {
+        SearchCacheProperties properties = new SearchCacheProperties();
+        SearchResultCache prefetching = new SearchResultCache(imageSearchService, generation, metrics, properties);
+        when(imageSearchService.searchImages(any())).thenAnswer(invocation -> {
+            SearchDto dto = invocation.getArgument(0);
+            return new SearchResultDto<ImageThumbnailDto>(List.of(), dto.getPage(), 20, dto.getCursor() == null,
+                    dto.getCursor() == null ? "next" : null, null, null);
+        });
+
+        prefetching.search(search("a"));
+        verify(metrics, timeout(5000)).searchCache("prefetched");
+        SearchDto next = search("a");
+        next.setPage(1);
+        next.setCursor("next");
+        prefetching.search(next);
+
+        verify(metrics).searchCache("prefetch_hit");
+        verify(imageSearchService, times(2)).searchImages(any());
+        prefetching.shutdown();
+    }
+
+    @Test
+    void cacheKeyIgnoresTagOrderAndKeywordCase() {
+        SearchDto first = search("x", "y");
+        first.setKeyword(" Miku ");
+        SearchDto second = search("y", "x");
+        second.setKeyword("miku");
+        assertThat(SearchResultCache.cacheKey(1, first)).isEqualTo(SearchResultCache.cacheKey(1, second));
+        assertThat(SearchResultCache.cacheKey(1, first)).isNotEqualTo(SearchResultCache.cacheKey(2, first));
+    }
+
+    private static SearchDto search(String... tags) {
+        SearchDto dto = new SearchDto();
+        Set<String> positive = new LinkedHashSet<>(List.of(tags));
+        dto.setPositiveTags(positive);
+        return dto;
+    }
+}
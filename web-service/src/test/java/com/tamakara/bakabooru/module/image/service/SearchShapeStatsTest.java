@@ -0,0 +1,26 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.SearchCacheProperties;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class SearchShapeStatsTest {
+
+    private final BusinessMetrics metrics = mock(BusinessMetrics.class);
+    private final SearchShapeStats stats = new SearchShapeStats(new SearchCacheProperties(), metrics);
+
+    @Test
+    void countsRepeatedShapesAsHits() {
+        stats.record("SELECT 1 WHERE i.id = ANY(:candidateIds) LIMIT :limit");
+        // 同一形状的 SQL 文本完全一致
+        stats.record("SELECT 1 WHERE i.id = ANY(:candidateIds) LIMIT :limit");
+        stats.record("SELECT 1 WHERE i.width >= :widthMin LIMIT :limit");
+
+        verify(metrics, times(2)).searchPlanCache("miss");
+        verify(metrics, times(1)).searchPlanCache("hit");
+    }
+}
@@ -0,0 +1,54 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.ThumbnailProperties;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class ThumbnailServiceTest {
+
+    @Test
+    void readsHeaderAndEncodesThumbnailFromOneBuffer() throws Exception {
+        byte[] png = encode(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png");
+        ByteBuffer staged = ByteBuffer.wrap(png).asReadOnlyBuffer();
+
+        ThumbnailService.ProcessedImage processed = service().process(staged);
+
+        assertThat(processed.info().getFormat()).isEqualTo("png");
+        assertThat(processed.info().getWidth()).isEqualTo(300);
+        assertThat(processed.info().getHeight()).isEqualTo(200);
+        assertThat(processed.info().getSize()).isEqualTo(png.length);
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(processed.thumbnail()));
+        assertThat(thumbnail.getWidth()).isEqualTo(100);
+        assertThat(thumbnail.getHeight()).isEqualTo(67);
+        // 调用方还要用同一缓冲区计算哈希
+        assertThat(staged.position()).isZero();
+    }
+
+    @Test
+    void rejectsNonImages() {
+        ByteBuffer staged = ByteBuffer.wrap("not an image".getBytes());
+
+        assertThatThrownBy(() -> service().process(staged)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private ThumbnailService service() {
+        ThumbnailProperties properties = new ThumbnailProperties();
+        properties.setMaxSize(100);
+        return new ThumbnailService(mock(StorageService.class), mock(ImageUrlService.class), properties);
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, format, output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.module.gallery.dto.VectorBenchmarkDto;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorBenchmarkServiceTest {
+
+    @Test
+    void summarizesRecallAndLatencyPercentiles() {
+        VectorBenchmarkService.Stats stats = new VectorBenchmarkService.Stats();
+        for (int i = 1; i <= 20; i++) {
+            stats.record(i * 1_000_000L, i % 2 == 0 ? 1.0 : 0.5);
+        }
+
+        VectorBenchmarkDto.ModeResult result = stats.toResult("halfvec");
+
+        assertThat(result.getMode()).isEqualTo("halfvec");
+        assertThat(result.getRecall()).isEqualTo(0.75);
+        assertThat(result.getMeanMs()).isEqualTo(10.5);
+        assertThat(result.getP50Ms()).isEqualTo(10.0);
+        assertThat(result.getP95Ms()).isEqualTo(19.0);
+    }
+
+    @Test
+    void quantizedDistanceMatchesIndexExpressions() {
+        assertThat(VectorQuantization.HALFVEC.distance("i.embedding", "q"))
+                .isEqualTo("(i.embedding::halfvec(512) <=> q::halfvec(512))");
+        assertThat(VectorQuantization.BINARY.distance("i.embedding", "q"))
+                .isEqualTo("(binary_quantize(i.embedding)::bit(512) <~> binary_quantize(q))");
+    }
+}
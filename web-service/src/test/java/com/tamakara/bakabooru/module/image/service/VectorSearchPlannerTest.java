@@ -0,0 +1,131 @@
+package com.tamakara.bakabooru.module.image.service;
+
+import com.tamakara.bakabooru.config.VectorSearchProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VectorSearchPlannerTest {
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private VectorSearchPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        when(namedJdbcTemplate.getJdbcTemplate()).thenReturn(jdbcTemplate);
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class))).thenReturn("0.8.0");
+        planner = new VectorSearchPlanner(namedJdbcTemplate, new VectorSearchProperties());
+    }
+
+    @Test
+    void comparesExtensionVersions() {
+        assertThat(VectorSearchPlanner.isAtLeast("0.8.0", 0, 8)).isTrue();
+        assertThat(VectorSearchPlanner.isAtLeast("0.10", 0, 8)).isTrue();
+        assertThat(VectorSearchPlanner.isAtLeast("0.7.4", 0, 8)).isFalse();
+        assertThat(VectorSearchPlanner.isAtLeast(null, 0, 8)).isFalse();
+    }
+
+    @Test
+    void unfilteredFirstPageUsesPlainIndexScan() {
+        assertThat(planner.plan(filter(false, null), 21, false).strategy()).isEqualTo(VectorStrategy.INDEX);
+        assertThat(planner.plan(filter(false, null), 21, true).strategy()).isEqualTo(VectorStrategy.ITERATIVE);
+    }
+
+    @Test
+    void smallCandidateSetIsRankedExactly() {
+        RoaringBitmap candidates = RoaringBitmap.bitmapOf(1, 2, 3);
+        assertThat(planner.plan(filter(true, candidates), 21, false).strategy()).isEqualTo(VectorStrategy.EXACT);
+    }
+
+    @Test
+    void largeFilteredSetUsesIterativeScan() {
+        when(namedJdbcTemplate.queryForObject(anyString(), any(MapSqlParameterSource.class), eq(Long.class)))
+                .thenReturn(10_001L);
+        assertThat(planner.plan(filter(true, null), 21, false).strategy()).isEqualTo(VectorStrategy.ITERATIVE);
+    }
+
+    @Test
+    void selectiveFiltersWithoutIterativeScanFallBackToExactBeyondEfSearch() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class))).thenReturn("0.7.4");
+        when(namedJdbcTemplate.queryForObject(anyString(), any(MapSqlParameterSource.class), eq(Long.class)))
+                .thenReturn(10_001L);
+        VectorSearchPlanner legacy = new VectorSearchPlanner(namedJdbcTemplate, new VectorSearchProperties());
+
+        // 选择率约 1/5，21 行放大到 105 个近邻
+        when(jdbcTemplate.queryForObject(anyString(), eq(Double.class))).thenReturn(50_005.0);
+        VectorSearchPlanner.VectorPlan oversampled = legacy.plan(filter(true, null), 21, false);
+        assertThat(oversampled.strategy()).isEqualTo(VectorStrategy.OVERSAMPLED);
+        assertThat(oversampled.candidates()).isEqualTo(105);
+
+        // 选择率约 1/100，需要 2100 个近邻，超过 ef_search 上限
+        when(jdbcTemplate.queryForObject(anyString(), eq(Double.class))).thenReturn(1_000_100.0);
+        assertThat(legacy.plan(filter(true, null), 21, false).strategy()).isEqualTo(VectorStrategy.EXACT);
+    }
+
+    @Test
+    void deepPagesWithoutIterativeScanAreRankedExactly() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class))).thenReturn("0.7.4");
+        VectorSearchPlanner legacy = new VectorSearchPlanner(namedJdbcTemplate, new VectorSearchProperties());
+
+        VectorSearchPlanner.VectorPlan shallow = legacy.plan(filter(false, null), 81, true);
+        assertThat(shallow.strategy()).isEqualTo(VectorStrategy.INDEX);
+        assertThat(shallow.candidates()).isEqualTo(81);
+        assertThat(legacy.plan(filter(false, null), 1021, true).strategy()).isEqualTo(VectorStrategy.EXACT);
+    }
+
+    @Test
+    void quantizedIndexPlansFetchRerankCandidates() {
+        VectorSearchProperties properties = new VectorSearchProperties();
+        properties.setQuantization(VectorQuantization.HALFVEC);
+        properties.setRerankMultiplier(5);
+        VectorSearchPlanner quantized = new VectorSearchPlanner(namedJdbcTemplate, properties);
+
+        VectorSearchPlanner.VectorPlan plan = quantized.plan(filter(false, null), 21, false);
+        assertThat(plan.quantization()).isEqualTo(VectorQuantization.HALFVEC);
+        assertThat(plan.candidates()).isEqualTo(105);
+        assertThat(plan.label()).isEqualTo("index+halfvec");
+        // 精确排序不经过 HNSW，不使用量化索引
+        assertThat(quantized.plan(filter(true, RoaringBitmap.bitmapOf(1)), 21, false).quantized()).isFalse();
+
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class))).thenReturn("0.6.2");
+        VectorSearchPlanner legacy = new VectorSearchPlanner(namedJdbcTemplate, properties);
+        assertThat(legacy.plan(filter(false, null), 21, false).quantized()).isFalse();
+    }
+
+    @Test
+    void rerankCandidatesBeyondEfSearchUseIterativeScan() {
+        VectorSearchProperties properties = new VectorSearchProperties();
+        properties.setQuantization(VectorQuantization.BINARY);
+        properties.setRerankMultiplier(5);
+
+        VectorSearchPlanner.VectorPlan deep = new VectorSearchPlanner(namedJdbcTemplate, properties)
+                .plan(filter(false, null), 301, false);
+        assertThat(deep.candidates()).isEqualTo(1505);
+        new VectorSearchPlanner(namedJdbcTemplate, properties).prepare(deep);
+        verify(jdbcTemplate).execute("SET LOCAL hnsw.ef_search = 1000");
+        verify(jdbcTemplate).execute("SET LOCAL hnsw.iterative_scan = strict_order");
+
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class))).thenReturn("0.7.4");
+        VectorSearchPlanner legacy = new VectorSearchPlanner(namedJdbcTemplate, properties);
+        assertThat(legacy.plan(filter(false, null), 301, false).candidates()).isEqualTo(1000);
+    }
+
+    private ImageSearchService.SearchFilter filter(boolean attributeFiltered, RoaringBitmap candidates) {
+        return new ImageSearchService.SearchFilter(List.of("1 = 1", "i.embedding IS NOT NULL"),
+                new MapSqlParameterSource(), false, false, attributeFiltered, candidates);
+    }
+}
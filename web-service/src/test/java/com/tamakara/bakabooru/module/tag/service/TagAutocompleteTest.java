@@ -0,0 +1,133 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.repository.TagCountRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TagAutocompleteTest {
+
+    private TagDictionary tagDictionary;
+    private TagCountRepository tagCountRepository;
+    private TagAutocomplete autocomplete;
+
+    @BeforeEach
+    void setUp() {
+        tagDictionary = mock(TagDictionary.class);
+        tagCountRepository = mock(TagCountRepository.class);
+        autocomplete = new TagAutocomplete(mock(JdbcTemplate.class), tagDictionary, tagCountRepository);
+        autocomplete.install(List.of(
+                new TagDto(1L, "long_hair", "general"),
+                new TagDto(2L, "hair_ornament", "general"),
+                new TagDto(3L, "hairband", "general"),
+                new TagDto(4L, "short_hair", "general"),
+                new TagDto(5L, "hatsune_miku_(cosplay)", "character"),
+                new TagDto(6L, "Hair_Hair", "general")
+        ), new int[]{500, 120, 30, 300, 7, 1});
+    }
+
+    @Test
+    void ranksPrefixAndWordMatchesByImageCount() {
+        assertThat(names(autocomplete.search("hair", 10)))
+                .containsExactly("long_hair", "short_hair", "hair_ornament", "hairband", "Hair_Hair");
+        assertThat(names(autocomplete.search("HAIR", 2))).containsExactly("long_hair", "short_hair");
+        assertThat(names(autocomplete.search("long h", 10))).containsExactly("long_hair");
+        assertThat(names(autocomplete.search("cosplay", 10))).containsExactly("hatsune_miku_(cosplay)");
+        assertThat(names(autocomplete.search("miku", 10))).containsExactly("hatsune_miku_(cosplay)");
+        assertThat(autocomplete.search("zzz", 10)).isEmpty();
+    }
+
+    @Test
+    void matchesNamesWithSpacesLikeUnderscores() {
+        autocomplete.install(List.of(
+                new TagDto(1L, "blue sky", "general"),
+                new TagDto(2L, "Blue_Eyes", "general")
+        ), new int[]{10, 20});
+
+        assertThat(names(autocomplete.search("blue s", 10))).containsExactly("blue sky");
+        assertThat(names(autocomplete.search("blue_", 10))).containsExactly("Blue_Eyes", "blue sky");
+        assertThat(names(autocomplete.search("sky", 10))).containsExactly("blue sky");
+    }
+
+    @Test
+    void appliesCountChangesIncrementally() {
+        for (int i = 0; i < 600; i++) {
+            autocomplete.onTagsChanged(ImageTagsChangedEvent.added(i, List.of(3L)));
+        }
+        autocomplete.onImageDeleted(new ImageDeletedEvent(1L, List.of(1L)));
+        autocomplete.onTagsChanged(ImageTagsChangedEvent.removed(2L, List.of(4L)));
+
+        assertThat(names(autocomplete.search("hair", 3))).containsExactly("hairband", "long_hair", "short_hair");
+    }
+
+    @Test
+    void refreshesCountsFromMaterializedTableOnCheck() {
+        when(tagDictionary.size()).thenReturn(6);
+        // 其他实例给 hairband 新增了大量关联，本实例没有收到事件
+        when(tagCountRepository.findAll()).thenReturn(Map.of(1L, 500L, 2L, 120L, 3L, 900L, 4L, 300L, 5L, 7L, 6L, 1L));
+        long version = autocomplete.version();
+
+        autocomplete.rebuildIfStale();
+
+        assertThat(names(autocomplete.search("hair", 2))).containsExactly("hairband", "long_hair");
+        assertThat(autocomplete.version()).isGreaterThan(version);
+        version = autocomplete.version();
+        autocomplete.rebuildIfStale();
+        assertThat(autocomplete.version()).isEqualTo(version);
+    }
+
+    @Test
+    void rebuildsWhenTheDictionaryChanges() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        TagAutocomplete renamed = new TagAutocomplete(jdbcTemplate, tagDictionary, tagCountRepository);
+        renamed.install(List.of(new TagDto(1L, "long_hair", "general")), new int[]{1});
+        when(tagDictionary.size()).thenReturn(1);
+        // 标签数量不变，字典因改名而替换
+        when(tagDictionary.version()).thenReturn(1L);
+
+        renamed.rebuildIfStale();
+
+        verify(jdbcTemplate).query(eq("SELECT id, name, type FROM tags"), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void findsTopTagsAmongManyMatches() {
+        List<TagDto> tags = new ArrayList<>();
+        int[] counts = new int[5000];
+        for (int i = 0; i < counts.length; i++) {
+            tags.add(new TagDto((long) i, "tag_" + i, "general"));
+            counts[i] = (i * 7919) % 5000;
+        }
+        autocomplete.install(tags, counts);
+
+        // 计数取值为 0..4999 的一个排列，最高的三个分别为 4999、4998、4997
+        List<TagDto> top = autocomplete.search("tag", 3);
+        assertThat(top).extracting(tag -> counts[tag.getId().intValue()]).containsExactly(4999, 4998, 4997);
+    }
+
+    @Test
+    void fallsBackToDictionaryUntilBuilt() {
+        TagAutocomplete empty = new TagAutocomplete(mock(JdbcTemplate.class), tagDictionary, mock(TagCountRepository.class));
+        empty.search("Long Hair", 20);
+        verify(tagDictionary).prefixSearch("long_hair", 20);
+    }
+
+    private static List<String> names(List<TagDto> tags) {
+        return tags.stream().map(TagDto::getName).toList();
+    }
+}
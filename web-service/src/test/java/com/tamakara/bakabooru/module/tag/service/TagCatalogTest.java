@@ -0,0 +1,99 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamakara.bakabooru.config.TagCatalogProperties;
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import com.tamakara.bakabooru.module.tag.dto.TagPageDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TagCatalogTest {
+
+    private TagAutocomplete tagAutocomplete;
+    private TagCatalogProperties properties;
+    private TagCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        tagAutocomplete = mock(TagAutocomplete.class);
+        when(tagAutocomplete.version()).thenReturn(1L);
+        when(tagAutocomplete.tagsWithCounts()).thenReturn(List.of(
+                new TagDto(1L, "long_hair", "general", 5L),
+                new TagDto(2L, "Alice", "character", 2L),
+                new TagDto(3L, "bow", "general", 1L),
+                new TagDto(4L, "artist_x", "artist", 0L),
+                new TagDto(5L, "cat", "general", 9L)));
+        properties = new TagCatalogProperties();
+        properties.setMinRebuildInterval(Duration.ZERO);
+        catalog = new TagCatalog(tagAutocomplete, mock(JdbcTemplate.class), new ObjectMapper(), properties);
+    }
+
+    @Test
+    void servesPrecompressedSnapshotWithStableEtag() throws Exception {
+        TagCatalog.Snapshot snapshot = catalog.current();
+
+        assertThat(catalog.current()).isSameAs(snapshot);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(snapshot.gzip()))) {
+            assertThat(gzip.readAllBytes()).isEqualTo(snapshot.json());
+        }
+        assertThat(new String(snapshot.json())).startsWith("[{\"id\":2,\"name\":\"Alice\",\"type\":\"character\",\"count\":2}");
+        assertThat(snapshot.etag()).startsWith("\"").endsWith("\"");
+        assertThat(snapshot.gzipEtag()).isNotEqualTo(snapshot.etag()).endsWith("-gzip\"");
+
+        // 计数变化但内容相同时 ETag 不变
+        when(tagAutocomplete.version()).thenReturn(2L);
+        TagCatalog.Snapshot rebuilt = catalog.refresh();
+        assertThat(rebuilt).isNotSameAs(snapshot);
+        assertThat(rebuilt.etag()).isEqualTo(snapshot.etag());
+
+        when(tagAutocomplete.version()).thenReturn(3L);
+        when(tagAutocomplete.tagsWithCounts()).thenReturn(List.of(new TagDto(1L, "long_hair", "general", 6L)));
+        assertThat(catalog.refresh().etag()).isNotEqualTo(snapshot.etag());
+    }
+
+    @Test
+    void servesStaleSnapshotWhileRefreshingInBackground() {
+        TagCatalog.Snapshot snapshot = catalog.current();
+        when(tagAutocomplete.version()).thenReturn(2L);
+        when(tagAutocomplete.tagsWithCounts()).thenReturn(List.of(new TagDto(1L, "long_hair", "general", 6L)));
+
+        assertThat(catalog.current()).isSameAs(snapshot);
+        await().atMost(Duration.ofSeconds(5)).until(() -> catalog.current() != snapshot);
+        assertThat(catalog.current().size()).isEqualTo(1);
+        catalog.shutdown();
+    }
+
+    @Test
+    void pagesByNameWithTypeFilter() {
+        TagCatalog.Snapshot snapshot = catalog.current();
+
+        TagPageDto first = snapshot.page(null, null, 2);
+        assertThat(first.getContent()).extracting(TagDto::getName).containsExactly("Alice", "artist_x");
+        assertThat(first.getTotal()).isEqualTo(5);
+        TagPageDto second = snapshot.page(null, first.getNextCursor(), 2);
+        assertThat(second.getContent()).extracting(TagDto::getName).containsExactly("bow", "cat");
+
+        TagPageDto general = snapshot.page("general", null, 2);
+        assertThat(general.getContent()).extracting(TagDto::getName).containsExactly("bow", "cat");
+        TagPageDto last = snapshot.page("general", general.getNextCursor(), 2);
+        assertThat(last.getContent()).extracting(TagDto::getName).containsExactly("long_hair");
+        assertThat(last.getNextCursor()).isNull();
+
+        assertThat(snapshot.page("unknown", null, 10).getContent()).isEmpty();
+        assertThat(snapshot.pageEtag("general", null, 2)).isEqualTo(snapshot.pageEtag("general", null, 2))
+                .isNotEqualTo(snapshot.pageEtag("general", general.getNextCursor(), 2));
+        assertThatThrownBy(() -> snapshot.page(null, "***", 2)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,34 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.tag.repository.TagCountRepository;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TagCountReconcilerTest {
+
+    @Test
+    void recordsRepairedTags() {
+        TagCountRepository repository = mock(TagCountRepository.class);
+        BusinessMetrics metrics = mock(BusinessMetrics.class);
+        when(repository.reconcile()).thenReturn(3);
+
+        new TagCountReconciler(repository, metrics).reconcile();
+
+        verify(metrics).tagCountsRepaired(3);
+    }
+
+    @Test
+    void swallowsFailuresSoTheScheduleKeepsRunning() {
+        TagCountRepository repository = mock(TagCountRepository.class);
+        BusinessMetrics metrics = mock(BusinessMetrics.class);
+        when(repository.reconcile()).thenThrow(new IllegalStateException("db down"));
+
+        new TagCountReconciler(repository, metrics).reconcile();
+
+        verify(repository).reconcile();
+    }
+}
@@ -0,0 +1,74 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.module.tag.dto.TagDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class TagDictionaryTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private TagDictionary dictionary;
+
+    @BeforeEach
+    void setUp() {
+        dictionary = new TagDictionary(jdbcTemplate);
+        dictionary.replace(List.of(
+                new TagDto(3L, "long_hair", "general"),
+                new TagDto(1L, "hatsune_miku", "character"),
+                new TagDto(7L, "Long_Hair_Variant", "general"),
+                new TagDto(2L, "vocaloid", "copyright")
+        ), new TagDictionary.Signature(4, 7, 11));
+    }
+
+    @Test
+    void resolvesNamesAndIdsInMemory() {
+        assertThat(dictionary.idOf("long_hair")).isEqualTo(3L);
+        assertThat(dictionary.idOf("Long_Hair_Variant")).isEqualTo(7L);
+        assertThat(dictionary.idOf("missing")).isEqualTo(TagDictionary.NOT_FOUND);
+        assertThat(dictionary.resolveIds(List.of("vocaloid", " hatsune_miku ", "missing", "")))
+                .containsExactly(2L, 1L);
+        assertThat(dictionary.get(1L)).isEqualTo(new TagDto(1L, "hatsune_miku", "character"));
+        assertThat(dictionary.get(99L)).isNull();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reloadsWhenATagIsRenamed() {
+        // 数量与最大 ID 不变，只有校验和变化
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class)))
+                .thenReturn(new TagDictionary.Signature(4, 7, 12));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class))).thenReturn(List.of(
+                new TagDto(3L, "long_hair", "general"),
+                new TagDto(1L, "miku", "character"),
+                new TagDto(7L, "Long_Hair_Variant", "general"),
+                new TagDto(2L, "vocaloid", "copyright")));
+        long version = dictionary.version();
+
+        dictionary.refreshIfChanged();
+
+        assertThat(dictionary.idOf("miku")).isEqualTo(1L);
+        assertThat(dictionary.idOf("hatsune_miku")).isEqualTo(TagDictionary.NOT_FOUND);
+        assertThat(dictionary.version()).isGreaterThan(version);
+    }
+
+    @Test
+    void prefixSearchIsCaseInsensitiveAndSorted() {
+        assertThat(dictionary.prefixSearch("LONG", 20))
+                .extracting(TagDto::getName)
+                .containsExactly("long_hair", "Long_Hair_Variant");
+        assertThat(dictionary.prefixSearch("long", 1)).hasSize(1);
+        assertThat(dictionary.prefixSearch("zzz", 20)).isEmpty();
+    }
+}
@@ -0,0 +1,84 @@
+package com.tamakara.bakabooru.module.tag.service;
+
+import com.tamakara.bakabooru.config.TagIndexProperties;
+import com.tamakara.bakabooru.module.image.event.ImageDeletedEvent;
+import com.tamakara.bakabooru.module.image.event.ImageTagsChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TagPostingIndexTest {
+
+    private TagPostingIndex index;
+    private TagIndexProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.getDataSource()).thenReturn(mock(DataSource.class));
+        properties = new TagIndexProperties();
+        index = new TagPostingIndex(jdbcTemplate, mock(TransactionTemplate.class), properties);
+    }
+
+    @Test
+    void matchReturnsNullUntilInstalled() {
+        assertThat(index.match(List.of(1L), List.of())).isNull();
+        assertThat(index.isReady()).isFalse();
+    }
+
+    @Test
+    void intersectsPositivesAndSubtractsNegatives() {
+        Map<Long, RoaringBitmap> postings = new HashMap<>();
+        postings.put(1L, RoaringBitmap.bitmapOf(1, 2, 3, 4, 5));
+        postings.put(2L, RoaringBitmap.bitmapOf(2, 3, 4));
+        postings.put(3L, RoaringBitmap.bitmapOf(3));
+        index.install(postings);
+
+        assertThat(index.match(List.of(1L, 2L), List.of(3L)).toArray()).containsExactly(2, 4);
+        assertThat(index.match(List.of(1L), List.of()).toArray()).containsExactly(1, 2, 3, 4, 5);
+        assertThat(index.match(List.of(1L, 99L), List.of())).isEmpty();
+        assertThat(index.match(List.of(), List.of(3L))).isNull();
+
+        // 返回的是副本，调用方修改不影响索引
+        index.match(List.of(1L), List.of()).clear();
+        assertThat(index.match(List.of(1L), List.of()).getCardinality()).isEqualTo(5);
+    }
+
+    @Test
+    void stopsTrustingBitmapsWhenCatchUpLags() {
+        index.install(new HashMap<>(Map.of(1L, RoaringBitmap.bitmapOf(10))));
+        assertThat(index.match(List.of(1L), List.of())).isNotNull();
+
+        // 超过 max-lag 没有补齐其他实例的变更：回退到 SQL 过滤
+        properties.setMaxLag(Duration.ZERO);
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.match(List.of(1L), List.of())).isNull();
+        assertThat(index.countTags(null)).isNull();
+    }
+
+    @Test
+    void appliesCommittedChanges() {
+        index.install(new HashMap<>(Map.of(1L, RoaringBitmap.bitmapOf(10))));
+
+        index.onTagsChanged(ImageTagsChangedEvent.added(11L, List.of(1L, 2L)));
+        assertThat(index.match(List.of(1L), List.of()).toArray()).containsExactly(10, 11);
+        assertThat(index.match(List.of(2L), List.of()).toArray()).containsExactly(11);
+
+        index.onTagsChanged(ImageTagsChangedEvent.removed(10L, List.of(1L)));
+        index.onImageDeleted(new ImageDeletedEvent(11L, List.of(2L)));
+        assertThat(index.match(List.of(1L), List.of()).toArray()).containsExactly(11);
+        assertThat(index.match(List.of(2L), List.of())).isEmpty();
+    }
+}
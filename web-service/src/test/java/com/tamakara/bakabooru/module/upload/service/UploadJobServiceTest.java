@@ -0,0 +1,124 @@
+package com.tamakara.bakabooru.module.upload.service;
+
+import com.tamakara.bakabooru.config.UploadProperties;
+import com.tamakara.bakabooru.module.image.entity.Image;
+import com.tamakara.bakabooru.module.image.repository.ImageRepository;
+import com.tamakara.bakabooru.module.image.service.StorageService;
+import com.tamakara.bakabooru.module.upload.dto.UploadResultDto;
+import com.tamakara.bakabooru.module.upload.entity.UploadJob;
+import com.tamakara.bakabooru.module.upload.repository.UploadJobRepository;
+import com.tamakara.bakabooru.monitoring.BusinessMetrics;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UploadJobServiceTest {
+
+    private static final byte[] CONTENT = "image-bytes".getBytes(StandardCharsets.UTF_8);
+    private static final String HASH = DigestUtils.sha256Hex(CONTENT);
+
+    @Mock private UploadJobRepository uploadJobRepository;
+    @Mock private ImageRepository imageRepository;
+    @Mock private StorageService storageService;
+    @Mock private BusinessMetrics metrics;
+
+    private UploadJobService service(UploadProperties properties) {
+        return new UploadJobService(uploadJobRepository, imageRepository, storageService, properties, metrics);
+    }
+
+    private void consumeUploads() {
+        doAnswer(invocation -> {
+            invocation.<InputStream>getArgument(1).readAllBytes();
+            return null;
+        }).when(storageService).uploadStream(anyString(), any(InputStream.class), anyLong(), any());
+    }
+
+    @Test
+    void recordsTheStreamedHashOnTheJob() {
+        consumeUploads();
+        when(imageRepository.findByHash(HASH)).thenReturn(Optional.empty());
+        when(uploadJobRepository.findFirstByHashAndStatusIn(eq(HASH), any())).thenReturn(Optional.empty());
+
+        UploadResultDto result = service(new UploadProperties())
+                .createTask("a.png", "image/png", -1, new ByteArrayInputStream(CONTENT), null);
+
+        ArgumentCaptor<UploadJob> job = ArgumentCaptor.forClass(UploadJob.class);
+        verify(uploadJobRepository).saveAndFlush(job.capture());
+        assertThat(job.getValue().getHash()).isEqualTo(HASH);
+        assertThat(job.getValue().getSize()).isEqualTo(CONTENT.length);
+        assertThat(result.getHash()).isEqualTo(HASH);
+        verify(metrics).uploadAccepted(CONTENT.length);
+    }
+
+    @Test
+    void rejectsKnownContentAndDeletesStaging() {
+        consumeUploads();
+        Image existing = new Image();
+        existing.setId(42L);
+        when(imageRepository.findByHash(HASH)).thenReturn(Optional.of(existing));
+
+        assertThatThrownBy(() -> service(new UploadProperties())
+                .createTask("a.png", "image/png", CONTENT.length, new ByteArrayInputStream(CONTENT), null))
+                .isInstanceOfSatisfying(UploadJobService.DuplicateUploadException.class,
+                        e -> assertThat(e.getExisting().getImageId()).isEqualTo(42L));
+
+        verify(storageService).deleteFile(anyString());
+        verify(uploadJobRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void rejectsDeclaredInFlightHashBeforeReadingTheBody() {
+        UploadJob inFlight = new UploadJob();
+        inFlight.setId(UUID.randomUUID());
+        when(imageRepository.findByHash(HASH)).thenReturn(Optional.empty());
+        when(uploadJobRepository.findFirstByHashAndStatusIn(eq(HASH), any())).thenReturn(Optional.of(inFlight));
+
+        assertThatThrownBy(() -> service(new UploadProperties())
+                .createTask("a.png", null, CONTENT.length, new ByteArrayInputStream(CONTENT), HASH.toUpperCase()))
+                .isInstanceOfSatisfying(UploadJobService.DuplicateUploadException.class,
+                        e -> assertThat(e.getExisting().getJobId()).isEqualTo(inFlight.getId().toString()));
+
+        verify(storageService, never()).uploadStream(anyString(), any(), anyLong(), any());
+    }
+
+    @Test
+    void abortsStreamsOverTheSizeLimit() {
+        UploadProperties properties = new UploadProperties();
+        properties.setMaxFileSize(DataSize.ofBytes(4));
+        doAnswer(invocation -> {
+            try {
+                invocation.<InputStream>getArgument(1).readAllBytes();
+            } catch (Exception e) {
+                throw new RuntimeException("文件上传失败: " + e.getMessage(), e);
+            }
+            return null;
+        }).when(storageService).uploadStream(anyString(), any(InputStream.class), anyLong(), any());
+
+        assertThatThrownBy(() -> service(properties)
+                .createTask("a.png", null, -1, new ByteArrayInputStream(CONTENT), null))
+                .isInstanceOf(UploadJobService.UploadTooLargeException.class);
+        verify(storageService).deleteFile(anyString());
+    }
+}
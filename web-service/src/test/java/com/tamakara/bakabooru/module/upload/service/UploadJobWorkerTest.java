@@ -6,6 +6,7 @@ import com.tamakara.bakabooru.module.image.service.ImageService;
 import com.tamakara.bakabooru.module.image.service.StorageService;
 import com.tamakara.bakabooru.module.image.service.ThumbnailService;
 import com.tamakara.bakabooru.module.system.service.SystemSettingService;
+import com.tamakara.bakabooru.module.upload.entity.UploadJob;
 import com.tamakara.bakabooru.module.upload.entity.UploadJobStatus;
 import com.tamakara.bakabooru.module.upload.repository.UploadJobRepository;
 import com.tamakara.bakabooru.monitoring.BusinessMetrics;
@@ -14,13 +15,29 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -64,4 +81,85 @@ class UploadJobWorkerTest {
                 org.mockito.ArgumentMatchers.eq(UploadJobStatus.COMPLETED), cutoff.capture());
         assertThat(cutoff.getValue()).isBetween(before.minusSeconds(1), after.plusSeconds(1));
     }
+
+    @Test
+    void claimsABatchUnderOneLeaseAndProcessesItConcurrently() {
+        UploadProperties properties = new UploadProperties();
+        properties.setBatchSize(4);
+        UploadJob first = job();
+        UploadJob second = job();
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(org.mockito.Mockito.mock(TransactionStatus.class)));
+        when(uploadJobRepository.findClaimable(any(Instant.class), anyInt()))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of());
+        when(uploadJobRepository.findById(any(UUID.class))).thenReturn(Optional.empty());
+        UploadJobWorker worker = new UploadJobWorker(uploadJobRepository, storageService, imageService,
+                thumbnailService, aiJobService, properties, systemSettingService, transactionTemplate, metrics);
+
+        worker.processAvailableJobs();
+
+        // 领取在调度线程上进行，定时方法立即返回
+        verify(uploadJobRepository, timeout(1000)).findClaimable(any(Instant.class), eq(4));
+        verify(uploadJobRepository, timeout(1000)).saveAllAndFlush(List.of(first, second));
+        assertThat(first.getLockedBy()).isNotNull().isEqualTo(second.getLockedBy());
+        assertThat(first.getLockedUntil()).isEqualTo(second.getLockedUntil());
+        assertThat(first.getStatus()).isEqualTo(UploadJobStatus.PROCESSING);
+        verify(uploadJobRepository, timeout(1000)).findById(first.getId());
+        verify(uploadJobRepository, timeout(1000)).findById(second.getId());
+        worker.shutdown();
+    }
+
+    @Test
+    void heapBufferedDownloadsWaitForTheByteBudget() {
+        UploadProperties properties = new UploadProperties();
+        properties.setBatchSize(2);
+        properties.setInMemoryBudget(DataSize.ofKilobytes(1));
+        UploadJob first = stagedJob("first");
+        UploadJob second = stagedJob("second");
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(org.mockito.Mockito.mock(TransactionStatus.class)));
+        when(uploadJobRepository.findClaimable(any(Instant.class), anyInt()))
+                .thenReturn(List.of(first, second))
+                .thenReturn(List.of());
+        when(uploadJobRepository.findById(first.getId())).thenReturn(Optional.of(first));
+        when(uploadJobRepository.findById(second.getId())).thenReturn(Optional.of(second));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger downloads = new AtomicInteger();
+        // 两个任务并发执行，先拿到预算的一个阻塞在下载中
+        when(storageService.getBuffer(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            if (downloads.incrementAndGet() == 1) {
+                release.await();
+            }
+            throw new IllegalStateException("下载失败");
+        });
+        UploadJobWorker worker = new UploadJobWorker(uploadJobRepository, storageService, imageService,
+                thumbnailService, aiJobService, properties, systemSettingService, transactionTemplate, metrics);
+
+        try {
+            worker.processAvailableJobs();
+            verify(storageService, timeout(1000)).getBuffer(anyString(), anyLong(), anyLong());
+            // 先开始的任务占满 1KB 预算，另一个任务在预算释放前不开始下载
+            verify(storageService, after(200).times(1)).getBuffer(anyString(), anyLong(), anyLong());
+        } finally {
+            release.countDown();
+        }
+        verify(storageService, timeout(1000).times(2)).getBuffer(anyString(), anyLong(), anyLong());
+        worker.shutdown();
+    }
+
+    private static UploadJob stagedJob(String stagingObjectName) {
+        UploadJob job = job();
+        job.setStagingObjectName(stagingObjectName);
+        job.setSize(1024);
+        job.setCreatedAt(Instant.now());
+        return job;
+    }
+
+    private static UploadJob job() {
+        UploadJob job = new UploadJob();
+        job.setId(UUID.randomUUID());
+        job.setStatus(UploadJobStatus.PENDING);
+        return job;
+    }
 }
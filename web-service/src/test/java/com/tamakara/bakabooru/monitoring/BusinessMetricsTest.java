@@ -24,10 +24,12 @@ class BusinessMetricsTest {
         metrics.uploadProcessed("success", Duration.ofSeconds(2));
         metrics.aiProcessed("retry", 2, Duration.ofSeconds(3));
         metrics.search("semantic", "success", Duration.ofMillis(50).toNanos());
+        metrics.embeddingCache("coalesced");
 
         assertThat(registry.get("bakabooru.upload.bytes").counter().count()).isEqualTo(1024);
         assertThat(registry.get("bakabooru.upload.jobs.processed").tag("result", "success").counter().count()).isEqualTo(1);
         assertThat(registry.get("bakabooru.ai.jobs.processed").tag("result", "retry").counter().count()).isEqualTo(1);
         assertThat(registry.get("bakabooru.search.requests").tags("type", "semantic", "result", "success").counter().count()).isEqualTo(1);
+        assertThat(registry.get("bakabooru.search.embedding.cache").tag("result", "coalesced").counter().count()).isEqualTo(1);
     }
 }